@@ -1,9 +1,11 @@
 package sem.apps.hypgen;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map.Entry;
 
 import sem.model.SemModel;
@@ -80,6 +82,38 @@ public class HyponymDetection {
 		return scoredPairs;
 	}
 	
+	/**
+	 * Take the pairs in the input file and assign scores to them using several similarity measures at once.
+	 * Each pair of vectors is only compared once, see SimMeasure.sim(List, LinkedHashMap, LinkedHashMap).
+	 * @param semModel
+	 * @param vectorSpace
+	 * @param goldPairs
+	 * @param simMeasures
+	 * @return Scored pairs for every similarity measure
+	 */
+	public static LinkedHashMap<SimMeasure,LinkedHashMap<Pair<String>,Double>> runScoring(SemModel semModel, VectorSpace vectorSpace, LinkedHashMap<Pair<String>,Integer> goldPairs, List<SimMeasure> simMeasures){
+		LinkedHashMap<SimMeasure,LinkedHashMap<Pair<String>,Double>> scoredPairs = new LinkedHashMap<SimMeasure,LinkedHashMap<Pair<String>,Double>>();
+		for(SimMeasure simMeasure : simMeasures)
+			scoredPairs.put(simMeasure, new LinkedHashMap<Pair<String>,Double>());
+		
+		LinkedHashMap<Integer,Double> vector1, vector2;
+		double[] scores = new double[simMeasures.size()];
+		for(Pair<String> wordPair : goldPairs.keySet()){
+			vector1 = vectorSpace.getVector(wordPair.getItem1());
+			vector2 = vectorSpace.getVector(wordPair.getItem2());
+			
+			SimMeasure.sim(simMeasures, vector1, vector2, scores, 0);
+			
+			for(int i = 0; i < scores.length; i++){
+				if(Double.isInfinite(scores[i]) || Double.isNaN(scores[i]))
+					throw new RuntimeException("Illegal score value: " + scores[i]);
+				scoredPairs.get(simMeasures.get(i)).put(wordPair, scores[i]);
+			}
+		}
+		
+		return scoredPairs;
+	}
+	
 	public static double runEvaluation(boolean isDistance, LinkedHashMap<Pair<String>,Double> scoredPairs, LinkedHashMap<Pair<String>,Integer> goldPairs){
 		HashMap<String,HashSet<Pair<String>>> sets = new HashMap<String,HashSet<Pair<String>>>();
 		double sum = 0.0, totalCorrect = 0, correctRetrieved = 0, totalRetrieved = 0;
@@ -135,14 +169,23 @@ public class HyponymDetection {
 		}
 		inputFiles.put("/anfs/bigdisc/mr472/corpora/LexEntail-Dagan/judgements_filtered.txt", "noun");
 
-		for(SimMeasure simMeasure : SimMeasure.values()){
+		// All the measures are scored in one pass over each gold standard file
+		List<SimMeasure> simMeasures = Arrays.asList(SimMeasure.values());
+		LinkedHashMap<SimMeasure,ArrayList<Double>> results = new LinkedHashMap<SimMeasure,ArrayList<Double>>();
+		for(SimMeasure simMeasure : simMeasures)
+			results.put(simMeasure, new ArrayList<Double>());
+		
+		for(String inputFile : inputFiles.keySet()){
+			LinkedHashMap<Pair<String>,Integer> goldPairs = readGold(inputFile, inputFiles.get(inputFile));
+			LinkedHashMap<SimMeasure,LinkedHashMap<Pair<String>,Double>> scoredPairs = runScoring(semModel, vectorSpace, goldPairs, simMeasures);
+			for(SimMeasure simMeasure : simMeasures)
+				results.get(simMeasure).add(runEvaluation(simMeasure.isDistance(), scoredPairs.get(simMeasure), goldPairs));
+		}
+		
+		for(SimMeasure simMeasure : simMeasures){
 			System.out.print(simMeasure.getLabel());
-			for(String inputFile : inputFiles.keySet()){
-				LinkedHashMap<Pair<String>,Integer> goldPairs = readGold(inputFile, inputFiles.get(inputFile));
-				LinkedHashMap<Pair<String>,Double> scoredPairs = runScoring(semModel, vectorSpace, goldPairs, simMeasure);
-				double ap = runEvaluation(simMeasure.isDistance(), scoredPairs, goldPairs);
+			for(Double ap : results.get(simMeasure))
 				System.out.print("\t" + ap);
-			}
 			System.out.println();
 		}
 		
@@ -10,10 +10,10 @@ import java.util.Map.Entry;
 
 import sem.model.SemModel;
 import sem.model.VectorSpace;
+import sem.sim.ScoreMatrix;
 import sem.sim.SimFinder;
 import sem.sim.SimMeasure;
 import sem.util.FileReader;
-import sem.util.FileWriter;
 import sem.util.Tools;
 
 /**
@@ -91,18 +91,7 @@ public class HyponymGeneration {
 		if(outputPath != null){
 			ArrayList<String> candidateArray = new ArrayList<String>(candidateWords);
 			Collections.sort(candidateArray);
-			FileWriter fw0 = new FileWriter(outputPath);
-			for(String candidate : candidateArray){
-				fw0.writeln(candidate);
-			}
-			for(String mainWord : gold.keySet()){
-				fw0.writeln("## " + mainWord);
-				for(String candidate : candidateArray){
-					fw0.writeln("" + predictions.get(mainWord).get(candidate));
-				}
-			}
-			fw0.close();
-			Tools.runCommand("gzip " + outputPath);
+			ScoreMatrix.write(outputPath, simMeasure.getLabel(), false, new ArrayList<String>(gold.keySet()), candidateArray, predictions);
 		}
 		
 		// Removing itself
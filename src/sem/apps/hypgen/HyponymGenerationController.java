@@ -3,6 +3,7 @@ package sem.apps.hypgen;
 import java.io.File;
 import java.util.Arrays;
 
+import sem.sim.ScoreMatrix;
 import sem.sim.SimMeasure;
 import sem.util.FileReader;
 import sem.util.FileWriter;
@@ -36,7 +37,7 @@ public class HyponymGenerationController {
 					String inputFile = "/anfs/bigdisc/mr472/corpora/HyponymGen/hyponym-generation-"+pos+"-"+set+".txt";
 					String modelPath = "/anfs/bigdisc/mr472/SemTensor/model1";
 					int minFreq = 10;
-					String outputPath = "/anfs/bigdisc/mr472/condor/hypgen/extra/" +pos + "-"+set+"-"+measure + ".list";
+					String outputPath = "/anfs/bigdisc/mr472/condor/hypgen/extra/" +pos + "-"+set+"-"+measure + ScoreMatrix.fileSuffix;
 					fw.writeln("");
 					
 					fw.writeln("arguments      = sem.apps.HyponymGeneration "+measure+" "+pos+" "+inputFile + " " + modelPath + " " +minFreq + " " + threads + " " + outputPath);
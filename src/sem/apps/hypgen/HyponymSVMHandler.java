@@ -1,5 +1,10 @@
 package sem.apps.hypgen;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -7,6 +12,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.Random;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Future;
@@ -16,49 +22,102 @@ import java.util.concurrent.TimeUnit;
 
 import sem.model.SemModel;
 import sem.model.VectorSpace;
+import sem.sim.ScoreMatrix;
 import sem.sim.SimMeasure;
 import sem.util.FeatureNormaliser;
 import sem.util.FileReader;
-import sem.util.FileWriter;
+import sem.util.LinearTrainer;
 import sem.util.Pair;
+import sem.util.SVMLightWriter;
+import sem.util.SVMModel;
 import sem.util.Tools;
 
-class SystemTask implements Runnable{
-	public String command;
+/**
+ * Creates the SVM feature lines for a chunk of word pairs, formatted into a byte buffer.
+ */
+class SVMFeatureTask implements Runnable{
+	public static final int CHUNK_SIZE = 2000;
+	public static final String[] generalFeatures = {"freq1", "freq2", "freqX", "feat1", "feat2", "featX", "ratio1", "ratio2", "ratioX", "common0", "common1", "common2", "commonX"};
 	
-	public SystemTask(String command){
-		this.command = command;
+	LinkedHashMap<Pair<String>,Integer> goldPairs;
+	ArrayList<Pair<String>> pairs;
+	int start, end;
+	VectorSpace vectorSpace;
+	SemModel semModel;
+	int[] generalFeatureIds, measureFeatureIds;
+	ScoreMatrix[] cachedMatrices;
+	ByteArrayOutputStream output;
+	
+	public SVMFeatureTask(LinkedHashMap<Pair<String>,Integer> goldPairs, ArrayList<Pair<String>> pairs, int start, int end, VectorSpace vectorSpace, SemModel semModel, int[] generalFeatureIds, int[] measureFeatureIds, ScoreMatrix[] cachedMatrices){
+		this.goldPairs = goldPairs;
+		this.pairs = pairs;
+		this.start = start;
+		this.end = end;
+		this.vectorSpace = vectorSpace;
+		this.semModel = semModel;
+		this.generalFeatureIds = generalFeatureIds;
+		this.measureFeatureIds = measureFeatureIds;
+		this.cachedMatrices = cachedMatrices;
+		this.output = new ByteArrayOutputStream();
 	}
 	
 	@Override
 	public void run() {
-		System.out.println("Running: " + command);
-		Tools.runCommand(command);
-	}
-	
-	public static void run(ArrayList<String> commands, int numThreads){
-		BlockingQueue<Runnable> queue = new LinkedBlockingQueue<Runnable>();
-		ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
-		ThreadPoolExecutor executor = new ThreadPoolExecutor(numThreads, numThreads, 30, TimeUnit.SECONDS, queue);
-		
-		for(String command : commands){
-			SystemTask task = new SystemTask(command);
-			Future<?> future = executor.submit(task);
-			futures.add(future);
-		}
-		
-		// Wait to finish
-		try {
-			for (Future<?> future : futures) {
-				future.get();
+		double[] scores = new double[HyponymSVMHandler.measures.size()];
+		SVMLightWriter writer = new SVMLightWriter(output, false);
+		for(int p = start; p < end; p++){
+			Pair<String> wordPair = pairs.get(p);
+			LinkedHashMap<Integer,Double> vector1 = vectorSpace.getVector(wordPair.getItem1());
+			LinkedHashMap<Integer,Double> vector2 = vectorSpace.getVector(wordPair.getItem2());
+			
+			writer.startExample(goldPairs.get(wordPair).equals(1)?1:-1);
+			
+			// General features
+			double freq1 = semModel.getNodeCount(wordPair.getItem1());
+			double freq2 = semModel.getNodeCount(wordPair.getItem2());
+			double ratio1 = (double)vector1.size() / freq1;
+			double ratio2 = (double)vector2.size() / freq2;
+			
+			int common = 0;
+			LinkedHashMap<Integer,Double> smaller = (vector1.size() <= vector2.size())?vector1:vector2;
+			LinkedHashMap<Integer,Double> larger = (smaller == vector1)?vector2:vector1;
+			for(Integer id : smaller.keySet())
+				if(larger.containsKey(id))
+					common++;
+			double common1 = (vector1.size() == 0)?0.0:((double)common / (double)vector1.size());
+			double common2 = (vector2.size() == 0)?0.0:((double)common / (double)vector2.size());
+			
+			writer.writeFeature(generalFeatureIds[0], freq1);
+			writer.writeFeature(generalFeatureIds[1], freq2);
+			writer.writeFeature(generalFeatureIds[2], freq1 * freq2);
+			writer.writeFeature(generalFeatureIds[3], vector1.size());
+			writer.writeFeature(generalFeatureIds[4], vector2.size());
+			writer.writeFeature(generalFeatureIds[5], (double)vector1.size() * (double)vector2.size());
+			writer.writeFeature(generalFeatureIds[6], ratio1);
+			writer.writeFeature(generalFeatureIds[7], ratio2);
+			writer.writeFeature(generalFeatureIds[8], ratio1 * ratio2);
+			writer.writeFeature(generalFeatureIds[9], common);
+			writer.writeFeature(generalFeatureIds[10], common1);
+			writer.writeFeature(generalFeatureIds[11], common2);
+			writer.writeFeature(generalFeatureIds[12], common1 * common2);
+			
+			// Similarity features
+			if(cachedMatrices == null)
+				SimMeasure.sim(HyponymSVMHandler.measures, vector1, vector2, scores, 0);
+			for(int m = 0; m < scores.length; m++){
+				Double score;
+				if(cachedMatrices == null)
+					score = scores[m];
+				else
+					score = cachedMatrices[m].getScore(wordPair.getItem2(), wordPair.getItem1());
+				
+				if(score == null || score.isInfinite() || score.isNaN())
+					throw new RuntimeException("Illegal score value: " + score);
+				writer.writeFeature(measureFeatureIds[m], score.doubleValue());
 			}
-		} catch (Exception e) {
-			e.printStackTrace();
+			writer.endExample();
 		}
-		
-		futures.clear();
-		queue.clear();
-		executor.shutdown();
+		writer.close();
 	}
 }
 
@@ -133,120 +192,77 @@ public class HyponymSVMHandler {
 		return candidateWords;
 	}
 	
+	/**
+	 * Create the feature file for SVM training and testing, using the available processors.
+	 */
+	public static void createSVMFile(LinkedHashMap<Pair<String>,Integer> goldPairs, String outputFile, String pos, VectorSpace vectorSpace, SemModel semModel, String cachePath){
+		createSVMFile(goldPairs, outputFile, pos, vectorSpace, semModel, cachePath, Runtime.getRuntime().availableProcessors());
+	}
+	
 	/**
 	 * Create the feature file for SVM training and testing.
-	 * If cachePath is specified, it reads similarity scores from the corresponding cache file instead.
-	 * The file is generated iteratively, one feature at a time, since all the cache files don't fit into memory at once.
+	 * The file is written in a single pass: the pairs are split into chunks, all the features of a chunk are calculated in parallel, and the chunks are written in the original order.
+	 * Only a limited number of chunks are kept in memory at once.
+	 * If cachePath is specified, it reads similarity scores from the corresponding cache files instead.
+	 * Binary score matrices are memory-mapped, so the caches for all the measures can be used at the same time.
+	 * Older text caches are first converted into score matrices next to them, one measure at a time.
 	 * If cachePath is null, the scores are calculated on the fly.
 	 */
-	public static void createSVMFile(LinkedHashMap<Pair<String>,Integer> goldPairs, String outputFile, String pos, VectorSpace vectorSpace, SemModel semModel, String cachePath){
-		String line;
-		Double score;
-		LinkedHashMap<Integer,Double> vector1 = null, vector2 = null, cacheVector2 = null;
-		String cacheNode = null;
-		//LinkedHashMap<String,LinkedHashMap<String,Double>> cachedScores = null;
-		LinkedHashMap<Pair<String>,Double> cachedScores = null;
-		HashSet<Integer> common = new HashSet<Integer>();
-		
-		
-		
-		// First printing the answers
-		FileWriter fileWriter = new FileWriter(outputFile);
-		for(Pair<String> wordPair : goldPairs.keySet()){
-			fileWriter.write("" + (goldPairs.get(wordPair).equals(1)?1:-1));
-			/*
-			vector1 = vectorSpace.getVector(wordPair.getItem1());
-			if(cacheVector2 != null && cacheNode != null && cacheNode.equals(wordPair.getItem2()))
-				vector2 = cacheVector2;
-			else{
-				vector2 = vectorSpace.getVector(wordPair.getItem2());
-				cacheVector2 = vector2;
-			} 
-			*/
-			vector1 = vectorSpace.getVector(wordPair.getItem1());
-			vector2 = vectorSpace.getVector(wordPair.getItem2()); 
-			
-			// General features
-			
-			fileWriter.write(" " + getFeatureId("freq1")+":"+semModel.getNodeCount(wordPair.getItem1()));
-			fileWriter.write(" " + getFeatureId("freq2")+":"+semModel.getNodeCount(wordPair.getItem2()));
-			fileWriter.write(" " + getFeatureId("freqX")+":"+((double)semModel.getNodeCount(wordPair.getItem1())*(double)semModel.getNodeCount(wordPair.getItem2())));
-			
-			fileWriter.write(" " + getFeatureId("feat1")+":"+vector1.size());
-			fileWriter.write(" " + getFeatureId("feat2")+":"+vector2.size());
-			fileWriter.write(" " + getFeatureId("featX")+":"+((double)vector1.size() * (double)vector2.size()));
-			
-			double ratio1 = (double)vector1.size() / (double)semModel.getNodeCount(wordPair.getItem1());
-			double ratio2 = (double)vector2.size() / (double)semModel.getNodeCount(wordPair.getItem2());
-			
-			fileWriter.write(" " + getFeatureId("ratio1")+":"+ratio1);
-			fileWriter.write(" " + getFeatureId("ratio2")+":"+ratio2);
-			fileWriter.write(" " + getFeatureId("ratioX")+":"+(ratio1*ratio2));
-			
-			common.clear();
-			common.addAll(vector1.keySet());
-			common.retainAll(vector2.keySet());
-			double common1 = (vector1.size() == 0)?0.0:((double)common.size() / (double)vector1.size());
-			double common2 = (vector2.size() == 0)?0.0:((double)common.size() / (double)vector2.size());
-			fileWriter.write(" " + getFeatureId("common0")+":"+common.size());
-			fileWriter.write(" " + getFeatureId("common1")+":"+common1);
-			fileWriter.write(" " + getFeatureId("common2")+":"+common2);
-			fileWriter.write(" " + getFeatureId("commonX")+":"+(common1 * common2));
-			
-			fileWriter.writeln("");
+	public static void createSVMFile(LinkedHashMap<Pair<String>,Integer> goldPairs, String outputFile, String pos, VectorSpace vectorSpace, SemModel semModel, String cachePath, int numThreads){
+		// Feature ids are assigned here, so the tasks only need to read them
+		int[] generalFeatureIds = new int[SVMFeatureTask.generalFeatures.length];
+		for(int i = 0; i < generalFeatureIds.length; i++)
+			generalFeatureIds[i] = getFeatureId(SVMFeatureTask.generalFeatures[i]);
+		int[] measureFeatureIds = new int[measures.size()];
+		for(int i = 0; i < measureFeatureIds.length; i++)
+			measureFeatureIds[i] = getFeatureId(measures.get(i).getLabel());
+		
+		ScoreMatrix[] cachedMatrices = null;
+		if(cachePath != null){
+			cachedMatrices = new ScoreMatrix[measures.size()];
+			for(int i = 0; i < measures.size(); i++){
+				String file = cachePath + "-" + measures.get(i).getLabel() + ScoreMatrix.fileSuffix;
+				if(!new File(file).exists())
+					ScoreMatrix.convertText(cachePath + "-" + measures.get(i).getLabel() + ".list.gz", file, measures.get(i).getLabel(), false);
+				cachedMatrices[i] = ScoreMatrix.open(file);
+			}
 		}
-		fileWriter.close();
 		
+		ArrayList<Pair<String>> pairs = new ArrayList<Pair<String>>(goldPairs.keySet());
+		BlockingQueue<Runnable> queue = new LinkedBlockingQueue<Runnable>();
+		LinkedList<Future<?>> futures = new LinkedList<Future<?>>();
+		LinkedList<SVMFeatureTask> tasks = new LinkedList<SVMFeatureTask>();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(numThreads, numThreads, 30, TimeUnit.SECONDS, queue);
+		int maxChunks = numThreads * 2;
 		
-		// Now printing all the features, iteratively
-		for(SimMeasure simMeasure : measures){ 
-			System.out.println("Adding measure: " + simMeasure.getLabel());
-			
-			Tools.runCommand("rm " + outputFile +".temp");
-			Tools.runCommand("mv " + outputFile + " " + outputFile +".temp");
-			
-			if(cachePath != null){
-				cachedScores = loadCachedScores(cachePath, simMeasure.getLabel(), goldPairs);
-			}
-			else
-				cachedScores = null;
-			
-			FileReader input = new FileReader(outputFile + ".temp");
-			FileWriter output = new FileWriter(outputFile);
-			
-			for(Pair<String> wordPair : goldPairs.keySet()){
-				if(!input.hasNext())
-					throw new RuntimeException("No lines left in input file");
-				line = input.next();
-				
-				if(cachedScores != null){
-					score = cachedScores.get(wordPair);
-				}
-				else {
-					vector1 = vectorSpace.getVector(wordPair.getItem1());
-					vector2 = vectorSpace.getVector(wordPair.getItem2());
-					score = simMeasure.sim(vector1, vector2);
+		OutputStream fileOutput = null;
+		try {
+			fileOutput = new BufferedOutputStream(new FileOutputStream(outputFile), 1 << 16);
+			int start = 0;
+			while(start < pairs.size() || !tasks.isEmpty()){
+				while(start < pairs.size() && tasks.size() < maxChunks){
+					int end = Math.min(pairs.size(), start + SVMFeatureTask.CHUNK_SIZE);
+					SVMFeatureTask task = new SVMFeatureTask(goldPairs, pairs, start, end, vectorSpace, semModel, generalFeatureIds, measureFeatureIds, cachedMatrices);
+					tasks.add(task);
+					futures.add(executor.submit(task));
+					start = end;
 				}
 				
-				if(score == null || score.isInfinite() || score.isNaN())
-					throw new RuntimeException("Illegal score value: " + score);
-
-				Integer featureId = getFeatureId(simMeasure.getLabel());
-				if(featureId == null)
-					throw new RuntimeException("Feature ID cannot be null");
-
-				output.writeln(line + " " + featureId + ":" + score);
+				// Writing the oldest chunk
+				futures.removeFirst().get();
+				tasks.removeFirst().output.writeTo(fileOutput);
 			}
-			
-			if(cachedScores != null){
-				cachedScores.clear();
-				cachedScores = null;
-				//System.gc();
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			executor.shutdown();
+			try {
+				if(fileOutput != null)
+					fileOutput.close();
+			} catch (Exception e) {
+				throw new RuntimeException(e);
 			}
-			input.close();
-			output.close();
 		}
-		Tools.runCommand("rm " + outputFile +".temp");
 	}
 	
 	public static LinkedHashMap<Pair<String>,Integer> readGenAsPairs(String path, boolean balanced, SemModel semModel, String pos){
@@ -328,8 +344,33 @@ public class HyponymSVMHandler {
 		return cachedScores;
 	}
 	*/
+	/**
+	 * Read the scores for the given pairs from a binary score matrix.
+	 * The first item of each pair is the candidate word (column) and the second is the main word (row).
+	 * @param inputFile Score matrix file
+	 * @param pairs Pairs to look up
+	 * @return Scores for the pairs that are found in the matrix
+	 */
+	public static LinkedHashMap<Pair<String>,Double> readScoreMatrix(String inputFile, LinkedHashMap<Pair<String>,Integer> pairs){
+		ScoreMatrix scoreMatrix = ScoreMatrix.open(inputFile);
+		LinkedHashMap<Pair<String>,Double> scores = new LinkedHashMap<Pair<String>,Double>();
+		Double score;
+		for(Pair<String> pair : pairs.keySet()){
+			score = scoreMatrix.getScore(pair.getItem2(), pair.getItem1());
+			if(score != null)
+				scores.put(pair, score);
+		}
+		return scores;
+	}
+	
+	/**
+	 * Load cached scores for a measure. The binary score matrix is used if it exists, otherwise the older text cache is read.
+	 */
 	public static LinkedHashMap<Pair<String>,Double> loadCachedScores(String cachePrefix, String measureLabel, LinkedHashMap<Pair<String>,Integer> pairs){
-		String file = cachePrefix + "-"+ measureLabel+".list.gz";
+		String file = cachePrefix + "-" + measureLabel + ScoreMatrix.fileSuffix;
+		if(new File(file).exists())
+			return readScoreMatrix(file, pairs);
+		file = cachePrefix + "-"+ measureLabel+".list.gz";
 		return readScores(file, pairs);
 	}
 	
@@ -391,30 +432,20 @@ public class HyponymSVMHandler {
 		return predictions;
 	}
 	
-	public static void runSVMInParallel(String svmCommand, String testFile, String modelFile, String predictionsFile, String logFile, int chunks, int numThreads){
-		if(chunks > 10)
-			throw new RuntimeException("This code needs to be modifed for chunks > 10. 'split' suffixes won't be read correctly.");
-		
-		// Let's split the testFile
-		Tools.runCommand("y=`wc -l < "+testFile+" | awk '{ print 1+int($1/"+chunks+") }'`;split -d -a 1 -l $y "+testFile+" "+testFile+".");
-		
-		// Creating the commands for svm
-		ArrayList<String> commands = new ArrayList<String>();
-		for(int i = 0; i < chunks; i++){
-			commands.add(svmCommand + " " + testFile + "." + i + " " + modelFile + " " + predictionsFile + "." + i + " > " + logFile + "." + i);
-		}
-		SystemTask.run(commands, numThreads);
-		
-		// Collecting output
-		Tools.runCommand("rm " + predictionsFile);
-		Tools.runCommand("rm " + logFile);
-		for(int i = 0; i < chunks; i++){
-			Tools.runCommand("cat " + predictionsFile + "." + i + " >> " + predictionsFile);
-			Tools.runCommand("cat " + logFile + "." + i + " >> " + logFile);
-			Tools.runCommand("rm " + predictionsFile + "." + i);
-			Tools.runCommand("rm " + logFile + "." + i);
-			Tools.runCommand("rm " + testFile + "." + i);
-		}
+	/**
+	 * Load the feature normaliser that was saved next to the training file.
+	 * Directories that were trained before the normaliser was saved only have train_orig, so the normaliser is fitted on it and saved.
+	 */
+	private static FeatureNormaliser loadFeatureNormaliser(String prefix, int normalisationType){
+		String normaliserFile = prefix + "train.norm";
+		if(new File(normaliserFile).exists())
+			return FeatureNormaliser.load(normaliserFile);
+		if(!new File(prefix + "train_orig").exists())
+			throw new RuntimeException("Missing " + normaliserFile + ", and there is no " + prefix + "train_orig to fit it on. The model needs to be trained again.");
+		System.out.println("Fitting the feature normaliser on " + prefix + "train_orig...");
+		FeatureNormaliser featureNormaliser = FeatureNormaliser.fit(normalisationType, prefix + "train_orig");
+		featureNormaliser.save(normaliserFile);
+		return featureNormaliser;
 	}
 	
 	public static double run(String pos, String trainSet, String testSet, String trainMode, String testMode) {
@@ -442,6 +473,11 @@ public class HyponymSVMHandler {
 		VectorSpace vectorSpace = new VectorSpace(semModel, VectorSpace.WEIGHT_PMI_LIM, true);
 		int normalisationType = 1; 
 		int kernel = 0;
+		// Settings for the linear kernel, which is trained with LinearTrainer
+		int lossType = LinearTrainer.LOSS_HINGE;
+		double lambda = 0.0;
+		int epochs = 10;
+		long seed = 1L;
 		
 		String trainFile = null, testFile = null;
 		
@@ -467,12 +503,20 @@ public class HyponymSVMHandler {
 			// -------- Feature normalisation
 			System.out.println("Feature normalisation...");
 			Tools.runCommand("mv " + prefix + "train " + prefix + "train_orig");
-			FeatureNormaliser.run(normalisationType, prefix + "train_orig", prefix + "train_orig", prefix + "train");
+			FeatureNormaliser featureNormaliser = FeatureNormaliser.fit(normalisationType, prefix + "train_orig");
+			featureNormaliser.save(prefix + "train.norm");
+			featureNormaliser.transform(prefix + "train_orig", prefix + "train", numThreads);
 			
 			// -------- Running SVM training
 			System.out.println("Running SVM training...");
-			Tools.runCommand(svmPath+"/svm_learn -t " + kernel + " " + prefix + "/train " + prefix + "/model > " + prefix + "/train.log");
-			System.out.println("CMD: " +svmPath+"/svm_learn -t 2 " + prefix + "/train " + prefix + "/model > " + prefix + "/train.log");
+			if(kernel == SVMModel.KERNEL_LINEAR){
+				SVMModel svmModel = new LinearTrainer(lossType, lambda, epochs, seed, numThreads).train(prefix + "/train");
+				svmModel.save(prefix + "/model");
+			}
+			else {
+				Tools.runCommand(svmPath+"/svm_learn -t " + kernel + " " + prefix + "/train " + prefix + "/model > " + prefix + "/train.log");
+				System.out.println("CMD: " +svmPath+"/svm_learn -t " + kernel + " " + prefix + "/train " + prefix + "/model > " + prefix + "/train.log");
+			}
 		}
 
 		// PREDICTION
@@ -491,11 +535,11 @@ public class HyponymSVMHandler {
 			// -------- Feature normalisation
 			System.out.println("Feature normalisation...");
 			Tools.runCommand("mv " + prefix + "test " + prefix + "test_orig");
-			FeatureNormaliser.run(normalisationType, prefix + "train_orig", prefix + "test_orig", prefix + "test");
+			loadFeatureNormaliser(prefix, normalisationType).transform(prefix + "test_orig", prefix + "test", numThreads);
 			
 			// --------- Running SVM prediction
 			System.out.println("Running SVM prediction...");
-			Tools.runCommand(svmPath+"/svm_classify " + prefix + "/test " + prefix + "/model " + prefix + "/predictions > "+prefix + "/predictions.log");
+			SVMModel.load(prefix + "/model").classify(prefix + "/test", prefix + "/predictions", false, numThreads);
 			System.out.println("Finished SVM prediction");
 		}
 		else {
@@ -507,6 +551,8 @@ public class HyponymSVMHandler {
 			Tools.runCommand("rm " + prefix + "/predictions");
 			//LinkedHashMap<Pair<String>,Integer> tempGoldTest = new LinkedHashMap<Pair<String>,Integer>();
 			int count = 0, sampleSize = 2000000, sampleId = 0;
+			SVMModel svmModel = SVMModel.load(prefix + "/model");
+			FeatureNormaliser featureNormaliser = loadFeatureNormaliser(prefix, normalisationType);
 			
 			while(true){
 				goldTest = readGenAsPairsSub(testFile, semModel, pos, sampleSize, sampleId);
@@ -520,13 +566,12 @@ public class HyponymSVMHandler {
 				// -------- Feature normalisation
 				System.out.println("Feature normalisation...");
 				Tools.runCommand("mv " + prefix + "test."+sampleId + " " + prefix + "test_orig."+sampleId);
-				FeatureNormaliser.run(normalisationType, prefix + "train_orig", prefix + "test_orig."+sampleId, prefix + "test."+sampleId);
+				featureNormaliser.transform(prefix + "test_orig."+sampleId, prefix + "test."+sampleId, numThreads);
 				
 				// --------- Running SVM prediction
 				System.out.println("Running SVM prediction...");
 				//Tools.runCommand(svmPath+"/svm_classify " + prefix + "/test " + prefix + "/model " + prefix + "/predictions."+sampleId +" > "+prefix + "/predictions."+sampleId +".log");
-				runSVMInParallel(svmPath+"/svm_classify", prefix + "/test."+sampleId, prefix + "/model", prefix + "/predictions."+sampleId, prefix + "/predictions." + sampleId + ".log", numThreads, numThreads);
-				Tools.runCommand("cat "+prefix + "/predictions."+sampleId+" >> " + prefix + "/predictions"); 
+				svmModel.classify(prefix + "/test."+sampleId, prefix + "/predictions", true, numThreads);
 				Tools.runCommand("rm "+prefix + "/test."+sampleId);
 				Tools.runCommand("rm "+prefix + "/test_orig."+sampleId);
 				System.out.println("Finished SVM prediction");
@@ -0,0 +1,30 @@
+package sem.apps.parsererank;
+
+import java.util.LinkedHashMap;
+
+import sem.graph.Edge;
+import sem.graph.Graph;
+
+/**
+ * Geometric mean of three other strategies.
+ */
+class CombinedEdgeScoringStrategy implements EdgeScoringStrategy{
+	private EdgeScoringStrategy a, b, c;
+	
+	public CombinedEdgeScoringStrategy(EdgeScoringStrategy a, EdgeScoringStrategy b, EdgeScoringStrategy c){
+		this.a = a;
+		this.b = b;
+		this.c = c;
+	}
+	
+	@Override
+	public double[] score(EdgeScorer edgeScorer, LinkedHashMap<Graph,Double> parses, Edge[] edges) {
+		double[] scoresA = a.score(edgeScorer, parses, edges);
+		double[] scoresB = b.score(edgeScorer, parses, edges);
+		double[] scoresC = c.score(edgeScorer, parses, edges);
+		double[] scores = new double[edges.length];
+		for(int k = 0; k < edges.length; k++)
+			scores[k] = Math.pow(scoresA[k] * scoresB[k] * scoresC[k], 1.0/3.0);
+		return scores;
+	}
+}
@@ -1,16 +1,111 @@
 package sem.apps.parsererank;
 
+import gnu.trove.map.hash.TLongIntHashMap;
+
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 
 import sem.graph.Edge;
 import sem.graph.Graph;
 import sem.model.SemModel;
 import sem.util.FileReader;
+import sem.util.Index;
 import sem.util.Tools;
 
+/**
+ * Immutable lists of expansion substitutes for ECES, built once per word.
+ * Every list is sorted by similarity, truncated to the expansion limit, and stores the node index ids and the weights pow(score, lambda) of the substitutes.
+ * Substitutes that are not in the model have the id -1.
+ * The lists are read from the binary ExpansionIndex when one is loaded, otherwise from the text expansion map.
+ */
+class SubstituteTable {
+	private EdgeScorer edgeScorer;
+	private Index nodeIndex;
+	private boolean includeMainWord;
+	private double lambda;
+	private int limit;
+	private ConcurrentHashMap<String,SubstituteTable.Substitutes> lists;
+	
+	static class Substitutes {
+		final int[] ids;
+		final double[] weights;
+		
+		Substitutes(int[] ids, double[] weights){
+			this.ids = ids;
+			this.weights = weights;
+		}
+	}
+	
+	public SubstituteTable(EdgeScorer edgeScorer, Index nodeIndex, boolean includeMainWord, double lambda, int limit){
+		this.edgeScorer = edgeScorer;
+		this.nodeIndex = nodeIndex;
+		this.includeMainWord = includeMainWord;
+		this.lambda = lambda;
+		this.limit = limit;
+		this.lists = new ConcurrentHashMap<String,SubstituteTable.Substitutes>();
+	}
+	
+	public Substitutes get(String word){
+		Substitutes substitutes = lists.get(word);
+		if(substitutes == null){
+			substitutes = build(word);
+			lists.put(word, substitutes);
+		}
+		return substitutes;
+	}
+	
+	/**
+	 * The expansion lists are sorted when they are loaded. The main word is inserted with the score 1.0 after all the words that score at least as high.
+	 */
+	private Substitutes build(String word){
+		Integer wordId = nodeIndex.getId(word);
+		int mainId = (wordId == null)?-1:wordId;
+		ArrayList<Integer> listIds = new ArrayList<Integer>();
+		ArrayList<Double> scores = new ArrayList<Double>();
+		ExpansionIndex expansionIndex = edgeScorer.getExpansionIndex();
+		if(expansionIndex != null){
+			int[] indexIds = expansionIndex.getIds(mainId);
+			float[] indexScores = expansionIndex.getScores(mainId);
+			for(int i = 0; i < indexIds.length; i++){
+				if(indexIds[i] == mainId)
+					continue;
+				listIds.add(indexIds[i]);
+				scores.add((double)indexScores[i]);
+			}
+		}
+		else{
+			for(Entry<String,Double> e : edgeScorer.getSimilarWords(word).entrySet()){
+				if(e.getKey().equals(word))
+					continue;
+				Integer id = nodeIndex.getId(e.getKey());
+				listIds.add((id == null)?-1:id);
+				scores.add(e.getValue());
+			}
+		}
+		
+		if(includeMainWord){
+			int position = 0;
+			while(position < scores.size() && scores.get(position) >= 1.0)
+				position++;
+			listIds.add(position, mainId);
+			scores.add(position, 1.0);
+		}
+		
+		int size = Math.min(listIds.size(), limit);
+		int[] ids = new int[size];
+		double[] weights = new double[size];
+		for(int i = 0; i < size; i++){
+			ids[i] = listIds.get(i);
+			weights[i] = Math.pow(scores.get(i), lambda);
+		}
+		return new Substitutes(ids, weights);
+	}
+}
+
 /**
  * Implements various alternative methods for assigning a score to every edge in a graph
  *
@@ -19,23 +114,65 @@ public class EdgeScorer {
 	
 	protected SemModel semModel;
 	protected HashMap<String,LinkedHashMap<String,Double>> wordExpansionMap;
+	protected ExpansionIndex expansionIndex;
 	protected int expansionLimit;
 	protected String edgeScorerType;
+	protected EdgeScoringStrategy strategy;
+	private HashMap<String,SubstituteTable> substituteTables;
+	
+	private static LinkedHashMap<String,EdgeScoringStrategy> strategies = new LinkedHashMap<String,EdgeScoringStrategy>();
+	static{
+		registerStrategy("I", new IEdgeScoringStrategy());
+		registerStrategy("RES", new ResEdgeScoringStrategy());
+		registerStrategy("CES1", new Ces1EdgeScoringStrategy());
+		registerStrategy("CES2", new Ces2EdgeScoringStrategy());
+		registerStrategy("ECES1", new Eces1EdgeScoringStrategy());
+		registerStrategy("ECES2", new Eces2EdgeScoringStrategy());
+		registerStrategy("CMB1", new CombinedEdgeScoringStrategy(getStrategy("RES"), getStrategy("CES1"), getStrategy("CES2")));
+		registerStrategy("CMB2", new CombinedEdgeScoringStrategy(getStrategy("RES"), getStrategy("ECES1"), getStrategy("ECES2")));
+	}
+	
+	/**
+	 * Register a new edge scoring strategy, or replace an existing one. Names are case-insensitive.
+	 */
+	public static synchronized void registerStrategy(String name, EdgeScoringStrategy strategy){
+		strategies.put(name.toUpperCase(), strategy);
+	}
+	
+	public static synchronized EdgeScoringStrategy getStrategy(String name){
+		EdgeScoringStrategy strategy = strategies.get(name.toUpperCase());
+		if(strategy == null)
+			throw new IllegalArgumentException("Unknown edge scorer type: " + name);
+		return strategy;
+	}
 	
 	public EdgeScorer(String edgeScorerType, SemModel semModel, String expansionMapPath, int expansionLimit){
 		this.semModel = semModel;
 		this.wordExpansionMap = null;
+		this.expansionIndex = null;
 		this.expansionLimit = expansionLimit;
 		this.edgeScorerType = edgeScorerType;
+		this.strategy = getStrategy(edgeScorerType);
+		this.substituteTables = new HashMap<String,SubstituteTable>();
 		if(expansionMapPath != null){
 			this.loadExpansionMap(expansionMapPath);
 		}
 	}
 	
+	/**
+	 * Load the expansion words. Files ending with ExpansionIndex.fileSuffix are memory-mapped as a binary index, other files are read as text.
+	 */
 	public synchronized void loadExpansionMap(String path){
 		if(path == null)
 			throw new RuntimeException("Expansion map path cannot be null");
 		
+		if(path.endsWith(ExpansionIndex.fileSuffix)){
+			this.expansionIndex = ExpansionIndex.open(path);
+			this.wordExpansionMap = null;
+			this.substituteTables.clear();
+			return;
+		}
+		
 		HashMap<String,LinkedHashMap<String,Double>> tempWordExpansionMap = new HashMap<String,LinkedHashMap<String,Double>>();
 		FileReader fr = new FileReader(path);
 		String line;
@@ -55,6 +192,8 @@ public class EdgeScorer {
 			tempWordExpansionMap.put(lineParts[0], Tools.sort(tMap, true));
 		}
 		this.wordExpansionMap = tempWordExpansionMap;
+		this.expansionIndex = null;
+		this.substituteTables.clear();
 	}
 	
 	public static String convertToString(String headLabel, String edgeLabel, String depLabel){
@@ -69,6 +208,13 @@ public class EdgeScorer {
 		return this.semModel.getTripleCount(headLabel, edgeLabel, depLabel);
 	}
 	
+	/**
+	 * Get the counts of many edges with a single batched lookup in the model.
+	 */
+	public double[] getEdgeCounts(String[] headLabels, String[] edgeLabels, String[] depLabels){
+		return this.semModel.getTripleCounts(headLabels, edgeLabels, depLabels);
+	}
+	
 	public double getItemCount(String label){
 		return this.semModel.getNodeCount(label);
 	}
@@ -85,7 +231,24 @@ public class EdgeScorer {
 		return this.semModel.getTotalNodeCount();
 	}
 		
+	public ExpansionIndex getExpansionIndex(){
+		return this.expansionIndex;
+	}
+	
 	public LinkedHashMap<String,Double> getSimilarWords(String w){
+		if(this.expansionIndex != null){
+			LinkedHashMap<String,Double> similarWords = new LinkedHashMap<String,Double>();
+			Integer id = this.semModel.getNodeIndex().getId(w);
+			if(id != null){
+				int[] ids = this.expansionIndex.getIds(id);
+				float[] scores = this.expansionIndex.getScores(id);
+				for(int i = 0; i < ids.length; i++){
+					if(ids[i] >= 0)
+						similarWords.put(this.semModel.getNodeIndex().getLabel(ids[i]), (double)scores[i]);
+				}
+			}
+			return similarWords;
+		}
 		if(this.wordExpansionMap == null)
 			throw new RuntimeException("Expansion map cannot be null");
 		if(!this.wordExpansionMap.containsKey(w))
@@ -97,26 +260,40 @@ public class EdgeScorer {
 	// Edge scoring functions start here
 	//
 	
-	public LinkedHashMap<Edge,Double> i(LinkedHashMap<Graph,Double> parses){
-		double score, prob1, prob2, prob3;
-		LinkedHashMap<Edge,Double> edgeScores = new LinkedHashMap<Edge,Double>();
-		for(Entry<Graph,Double> e : parses.entrySet()){						
-			for(Edge edge : e.getKey().getEdges()){
-				prob1 = getEdgeCount(edge.getHead().getLabel(), edge.getLabel(), edge.getDep().getLabel()) / getEdgeCount(null, null, null);
-				prob2 = getEdgeCount(edge.getHead().getLabel(), edge.getLabel(), null) / getEdgeCount(null, null, null);
-				prob3 = getEdgeCount(null, null, edge.getDep().getLabel()) / getEdgeCount(null, null, null);
-				if(prob2 == 0.0 || prob3 == 0.0)
-					score = 0.0;
-				else
-					score = prob1 / (prob2 * prob3);
-				//score = Math.log(score);
-				edgeScores.put(edge, score);
-			}
+	/**
+	 * Collect the edges of all the parses, in order.
+	 */
+	public static Edge[] getEdges(LinkedHashMap<Graph,Double> parses){
+		ArrayList<Edge> edges = new ArrayList<Edge>();
+		for(Graph graph : parses.keySet())
+			edges.addAll(graph.getEdges());
+		return edges.toArray(new Edge[edges.size()]);
+	}
+	
+	public double[] i(Edge[] edges){
+		String[] heads = new String[edges.length], relations = new String[edges.length], deps = new String[edges.length], nulls = new String[edges.length];
+		getLabels(edges, heads, relations, deps);
+		double[] counts1 = getEdgeCounts(heads, relations, deps);
+		double[] counts2 = getEdgeCounts(heads, relations, nulls);
+		double[] counts3 = getEdgeCounts(nulls, nulls, deps);
+		double total = getEdgeCount(null, null, null);
+		
+		double prob1, prob2, prob3;
+		double[] scores = new double[edges.length];
+		for(int k = 0; k < edges.length; k++){
+			prob1 = counts1[k] / total;
+			prob2 = counts2[k] / total;
+			prob3 = counts3[k] / total;
+			if(prob2 == 0.0 || prob3 == 0.0)
+				scores[k] = 0.0;
+			else
+				scores[k] = prob1 / (prob2 * prob3);
+			//scores[k] = Math.log(scores[k]);
 		}
-		return edgeScores; 
+		return scores; 
 	}
 	
-	public LinkedHashMap<Edge,Double> res(LinkedHashMap<Graph,Double> parses){
+	public double[] res(LinkedHashMap<Graph,Double> parses, Edge[] edges){
 		
 		String edgeString;
 		HashMap<String,Double> edgeScoresTemp = new HashMap<String,Double>();
@@ -140,13 +317,13 @@ public class EdgeScorer {
 			total += parseScore;
 		}
 		
-		LinkedHashMap<Edge,Double> edgeScores = new LinkedHashMap<Edge,Double>();
-		for(Entry<Graph,Double> e : parses.entrySet()){						
-			for(Edge edge : e.getKey().getEdges()){
-				edgeScores.put(edge, (edgeScoresTemp.get(convertToString(edge)) / total));
-			}
+		double[] scores = new double[edges.length];
+		Double edgeScore;
+		for(int k = 0; k < edges.length; k++){
+			edgeScore = edgeScoresTemp.get(convertToString(edges[k]));
+			scores[k] = (edgeScore == null)?0.0:(edgeScore / total);
 		}
-		return edgeScores;
+		return scores;
 	}
 	
 	public double ces1(String head, String relation, String dep){
@@ -159,14 +336,39 @@ public class EdgeScorer {
 		return 0.0;
 	}
 	
-	public LinkedHashMap<Edge,Double> ces1(LinkedHashMap<Graph,Double> parses){
-		LinkedHashMap<Edge,Double> edgeScores = new LinkedHashMap<Edge,Double>();
-		for(Entry<Graph,Double> e : parses.entrySet()){						
-			for(Edge edge : e.getKey().getEdges()){
-				edgeScores.put(edge, ces1(edge.getHead().getLabel(), edge.getLabel(), edge.getDep().getLabel()));
-			}
+	/**
+	 * Calculate ces1 for many edges, with batched count lookups.
+	 */
+	public double[] ces1(String[] heads, String[] relations, String[] deps){
+		double N = getTotalNodeCount();
+		double K = getTotalEdgeCount();
+		double[] edgeCounts = getEdgeCounts(heads, relations, deps);
+		double[] headCounts = this.semModel.getNodeCounts(heads);
+		double[] depCounts = this.semModel.getNodeCounts(deps);
+		double[] scores = new double[heads.length];
+		for(int k = 0; k < heads.length; k++){
+			double score2 = (headCounts[k] / N) * (depCounts[k] / N);
+			if(score2 != 0.0)
+				scores[k] = (edgeCounts[k] / K) / score2;
+		}
+		return scores;
+	}
+	
+	public double[] ces1(Edge[] edges){
+		String[] heads = new String[edges.length], relations = new String[edges.length], deps = new String[edges.length];
+		getLabels(edges, heads, relations, deps);
+		return ces1(heads, relations, deps);
+	}
+	
+	/**
+	 * Fill the arrays with the head, relation and dependent labels of the edges.
+	 */
+	protected static void getLabels(Edge[] edges, String[] heads, String[] relations, String[] deps){
+		for(int k = 0; k < edges.length; k++){
+			heads[k] = edges[k].getHead().getLabel();
+			relations[k] = edges[k].getLabel();
+			deps[k] = edges[k].getDep().getLabel();
 		}
-		return edgeScores;
 	}
 	
 	public double ces2(String head, String relation, String dep){
@@ -177,153 +379,201 @@ public class EdgeScorer {
 		return 0.0;
 	}
 	
-	public LinkedHashMap<Edge,Double> ces2(LinkedHashMap<Graph,Double> parses){
-		LinkedHashMap<Edge,Double> edgeScores = new LinkedHashMap<Edge,Double>();
-		for(Entry<Graph,Double> e : parses.entrySet()){						
-			for(Edge edge : e.getKey().getEdges()){
-				edgeScores.put(edge, ces2(edge.getHead().getLabel(), edge.getLabel(), edge.getDep().getLabel()));
-			}
+	/**
+	 * Calculate ces2 for many edges, with batched count lookups.
+	 */
+	public double[] ces2(String[] heads, String[] relations, String[] deps){
+		double[] edgeCounts = getEdgeCounts(heads, relations, deps);
+		double[] scores = new double[heads.length];
+		for(int k = 0; k < heads.length; k++){
+			if(edgeCounts[k] == 0.0)
+				continue;
+			double score2 = getCooccurrenceCount(heads[k], deps[k]);
+			if(score2 != 0.0)
+				scores[k] = edgeCounts[k] / score2;
 		}
-		return edgeScores;
+		return scores;
+	}
+	
+	public double[] ces2(Edge[] edges){
+		String[] heads = new String[edges.length], relations = new String[edges.length], deps = new String[edges.length];
+		getLabels(edges, heads, relations, deps);
+		return ces2(heads, relations, deps);
 	}
 	
+	/**
+	 * Get the substitute table for the given ECES parameters, creating it when first needed.
+	 */
+	protected synchronized SubstituteTable getSubstituteTable(boolean includeMainWord, double lambda){
+		String key = includeMainWord + "\t" + lambda;
+		SubstituteTable table = this.substituteTables.get(key);
+		if(table == null){
+			// Creating the label map here, as Index creates it lazily and is not thread-safe
+			this.semModel.getNodeIndex().getLabelMap();
+			table = new SubstituteTable(this, this.semModel.getNodeIndex(), includeMainWord, lambda, this.expansionLimit);
+			this.substituteTables.put(key, table);
+		}
+		return table;
+	}
+	
+	/**
+	 * Drop the substitute lists after the model has been updated, as they store the node ids of the substitutes that were in the model when they were built.
+	 */
+	public synchronized void refresh(){
+		this.substituteTables.clear();
+	}
+
 	public double eces(String head, String relation, String dep, String method, boolean includeMainWord, double lambda){
-		double score = 0.0, sum, weightSum, weight;
-		int count;
+		return eces(new String[]{head}, new String[]{relation}, new String[]{dep}, method, includeMainWord, lambda)[0];
+	}
+	
+	/**
+	 * Calculate eces for many edges.
+	 * Every distinct (head, relation, dependent) triple needed by the substitutes is scored only once, in a single batch.
+	 */
+	public double[] eces(String[] heads, String[] relations, String[] deps, String method, boolean includeMainWord, double lambda){
+		if(!method.equalsIgnoreCase("ces1") && !method.equalsIgnoreCase("ces2"))
+			throw new RuntimeException("Unknown method: " + method);
 		
-		LinkedHashMap<String,Double> substitutes;
+		SubstituteTable table = getSubstituteTable(includeMainWord, lambda);
+		Index nodeIndex = this.semModel.getNodeIndex();
+		int size = heads.length;
+		SubstituteTable.Substitutes[] headSubstitutes = new SubstituteTable.Substitutes[size], depSubstitutes = new SubstituteTable.Substitutes[size];
+		int[] headIds = new int[size], depIds = new int[size];
 		
-		// Replacing head
-		substitutes = getSimilarWords(head);
-		if(includeMainWord)
-			substitutes.put(head, 1.0);
-		else
-			substitutes.remove(head);
-
-		sum = 0.0;
-		weightSum = 0.0;
-		count = 0;
-		for(Entry<String,Double> substitute : Tools.sort(substitutes, true).entrySet()){
-			if(count >= this.expansionLimit)
-				break;
-			weight = Math.pow(substitute.getValue(), lambda);
-			
-			if(method.equalsIgnoreCase("ces1"))
-				sum += weight * ces1(substitute.getKey(), relation, dep);
-			else if(method.equalsIgnoreCase("ces2"))
-				sum += weight * ces2(substitute.getKey(), relation, dep);
-			else
-				throw new RuntimeException("Unknown method: " + method);
+		// Collecting the distinct triples, with a position in the batch for every one
+		HashMap<String,TLongIntHashMap> positions = new HashMap<String,TLongIntHashMap>();
+		ArrayList<String> batchHeads = new ArrayList<String>(), batchRelations = new ArrayList<String>(), batchDeps = new ArrayList<String>();
+		for(int k = 0; k < size; k++){
+			headSubstitutes[k] = table.get(heads[k]);
+			depSubstitutes[k] = table.get(deps[k]);
+			Integer id = nodeIndex.getId(heads[k]);
+			headIds[k] = (id == null)?-1:id;
+			id = nodeIndex.getId(deps[k]);
+			depIds[k] = (id == null)?-1:id;
 			
-			weightSum += weight;
-			count++;
+			TLongIntHashMap relationPositions = positions.get(relations[k]);
+			if(relationPositions == null){
+				relationPositions = new TLongIntHashMap(16, 0.5f, -1L, -1);
+				positions.put(relations[k], relationPositions);
+			}
+			for(int headId : headSubstitutes[k].ids)
+				addTriple(relationPositions, headId, relations[k], depIds[k], nodeIndex, batchHeads, batchRelations, batchDeps);
+			for(int depId : depSubstitutes[k].ids)
+				addTriple(relationPositions, headIds[k], relations[k], depId, nodeIndex, batchHeads, batchRelations, batchDeps);
 		}
-		if(weightSum > 0.0)
-			score += sum / weightSum;
 		
+		String[] batchHeadArray = batchHeads.toArray(new String[batchHeads.size()]);
+		String[] batchRelationArray = batchRelations.toArray(new String[batchRelations.size()]);
+		String[] batchDepArray = batchDeps.toArray(new String[batchDeps.size()]);
+		double[] batchScores = method.equalsIgnoreCase("ces1")?ces1(batchHeadArray, batchRelationArray, batchDepArray):ces2(batchHeadArray, batchRelationArray, batchDepArray);
 		
-		// Replacing dependent
-		substitutes = getSimilarWords(dep);
-		if(includeMainWord)
-			substitutes.put(dep, 1.0);
-		else
-			substitutes.remove(dep);
-
-		sum = 0.0;
-		weightSum = 0.0;
-		count=0;
-		for(Entry<String,Double> substitute : Tools.sort(substitutes, true).entrySet()){
-			if(count >= this.expansionLimit)
-				break;
-			weight = Math.pow(substitute.getValue(), lambda);
+		// Replacing head, then replacing dependent
+		double[] scores = new double[size];
+		for(int k = 0; k < size; k++){
+			TLongIntHashMap relationPositions = positions.get(relations[k]);
+			double score = 0.0, sum = 0.0, weightSum = 0.0;
+			SubstituteTable.Substitutes substitutes = headSubstitutes[k];
+			for(int i = 0; i < substitutes.ids.length; i++){
+				sum += substitutes.weights[i] * tripleScore(relationPositions, substitutes.ids[i], depIds[k], batchScores);
+				weightSum += substitutes.weights[i];
+			}
+			if(weightSum > 0.0)
+				score += sum / weightSum;
 			
-			if(method.equalsIgnoreCase("ces1"))
-				sum += weight * ces1(head, relation, substitute.getKey());
-			else if(method.equalsIgnoreCase("ces2"))
-				sum += weight * ces2(head, relation, substitute.getKey());
-			else
-				throw new RuntimeException("Unknown method: " + method);
+			sum = 0.0;
+			weightSum = 0.0;
+			substitutes = depSubstitutes[k];
+			for(int i = 0; i < substitutes.ids.length; i++){
+				sum += substitutes.weights[i] * tripleScore(relationPositions, headIds[k], substitutes.ids[i], batchScores);
+				weightSum += substitutes.weights[i];
+			}
+			if(weightSum > 0.0)
+				score += sum / weightSum;
 			
-			weightSum += weight;
-			count++;
+			scores[k] = score / 2.0;
 		}
-		if(weightSum > 0.0)
-			score += sum / weightSum;
-		
-		score = score /2.0;
-		return score;
+		return scores;
 	}
 	
-	public LinkedHashMap<Edge,Double> eces1(LinkedHashMap<Graph,Double> parses){
-		LinkedHashMap<Edge,Double> edgeScores = new LinkedHashMap<Edge,Double>();
-		for(Entry<Graph,Double> e : parses.entrySet()){						
-			for(Edge edge : e.getKey().getEdges()){
-				edgeScores.put(edge, eces(edge.getHead().getLabel(), edge.getLabel(), edge.getDep().getLabel(), "ces1", true, 1.0));
-			}
-		}
-		return edgeScores;
+	private static long tripleKey(int headId, int depId){
+		return ((long)headId << 32) | (depId & 0xFFFFFFFFL);
 	}
 	
-	public LinkedHashMap<Edge,Double> eces2(LinkedHashMap<Graph,Double> parses){
-		LinkedHashMap<Edge,Double> edgeScores = new LinkedHashMap<Edge,Double>();
-		for(Entry<Graph,Double> e : parses.entrySet()){						
-			for(Edge edge : e.getKey().getEdges()){
-				edgeScores.put(edge, eces(edge.getHead().getLabel(), edge.getLabel(), edge.getDep().getLabel(), "ces2", true, 1.0));
-			}
-		}
-		return edgeScores;
+	private static void addTriple(TLongIntHashMap relationPositions, int headId, String relation, int depId, Index nodeIndex, ArrayList<String> batchHeads, ArrayList<String> batchRelations, ArrayList<String> batchDeps){
+		// Words that are not in the model always score 0
+		if(headId < 0 || depId < 0)
+			return;
+		long key = tripleKey(headId, depId);
+		if(relationPositions.containsKey(key))
+			return;
+		relationPositions.put(key, batchHeads.size());
+		batchHeads.add(nodeIndex.getLabel(headId));
+		batchRelations.add(relation);
+		batchDeps.add(nodeIndex.getLabel(depId));
 	}
 	
-	public LinkedHashMap<Edge,Double> cmb1(LinkedHashMap<Graph,Double> parses){
-		LinkedHashMap<Edge,Double> a = res(parses);
-		LinkedHashMap<Edge,Double> b = ces1(parses);
-		LinkedHashMap<Edge,Double> c = ces2(parses);
-		
-		LinkedHashMap<Edge,Double> res = new LinkedHashMap<Edge,Double>();
-		for(Entry<Edge,Double> entry : a.entrySet()){
-			double val = a.get(entry.getKey())
-					* b.get(entry.getKey())
-					* c.get(entry.getKey());
-			val = Math.pow(val, (double)((double)1.0/(double)3.0));
-			res.put(entry.getKey(), val);
-		}
-		return res;
+	private static double tripleScore(TLongIntHashMap relationPositions, int headId, int depId, double[] batchScores){
+		if(headId < 0 || depId < 0)
+			return 0.0;
+		return batchScores[relationPositions.get(tripleKey(headId, depId))];
+	}
+	
+	public double[] eces1(Edge[] edges){
+		String[] heads = new String[edges.length], relations = new String[edges.length], deps = new String[edges.length];
+		getLabels(edges, heads, relations, deps);
+		return eces(heads, relations, deps, "ces1", true, 1.0);
 	}
 	
-	public LinkedHashMap<Edge,Double> cmb2(LinkedHashMap<Graph,Double> parses){
-		LinkedHashMap<Edge,Double> a = res(parses);
-		LinkedHashMap<Edge,Double> b = eces1(parses);
-		LinkedHashMap<Edge,Double> c = eces2(parses);
+	public double[] eces2(Edge[] edges){
+		String[] heads = new String[edges.length], relations = new String[edges.length], deps = new String[edges.length];
+		getLabels(edges, heads, relations, deps);
+		return eces(heads, relations, deps, "ces2", true, 1.0);
+	}
+	
+	/**
+	 * Score all the edges in the parses with the strategy of this EdgeScorer.
+	 * The k-best parses of a sentence share most of their edges, so the edges are first interned by their (head, relation, dependent) labels.
+	 * Every unique edge is scored once, and the scores are copied back to all the positions.
+	 * @param parses The k-best parses of a sentence
+	 * @param edges All the edges of the parses, as returned by getEdges()
+	 * @return Scores, indexed by the position of the edge in edges
+	 */
+	public double[] score(LinkedHashMap<Graph,Double> parses, Edge[] edges){
+		HashMap<String,Integer> uniquePositions = new HashMap<String,Integer>();
+		ArrayList<Edge> uniqueEdges = new ArrayList<Edge>();
+		int[] positions = new int[edges.length];
+		for(int k = 0; k < edges.length; k++){
+			String edgeString = convertToString(edges[k]);
+			Integer position = uniquePositions.get(edgeString);
+			if(position == null){
+				position = uniqueEdges.size();
+				uniquePositions.put(edgeString, position);
+				uniqueEdges.add(edges[k]);
+			}
+			positions[k] = position;
+		}
 		
-		LinkedHashMap<Edge,Double> res = new LinkedHashMap<Edge,Double>();
-		for(Entry<Edge,Double> entry : a.entrySet()){
-			double val = a.get(entry.getKey())
-					* b.get(entry.getKey())
-					* c.get(entry.getKey());
-			val = Math.pow(val, (double)((double)1.0/(double)3.0));
-			res.put(entry.getKey(), val);
+		double[] uniqueScores = this.strategy.score(this, parses, uniqueEdges.toArray(new Edge[uniqueEdges.size()]));
+		for(double score : uniqueScores){
+			if(Double.isNaN(score))
+				throw new RuntimeException("Edge score is NaN");
+			if(Double.isInfinite(score))
+				throw new RuntimeException("Edge score is infinite");
 		}
-		return res;
+		
+		double[] scores = new double[edges.length];
+		for(int k = 0; k < edges.length; k++)
+			scores[k] = uniqueScores[positions[k]];
+		return scores;
 	}
 	
-	@SuppressWarnings("unchecked")
 	public LinkedHashMap<Edge,Double> run(LinkedHashMap<Graph,Double> parses){
-		java.lang.reflect.Method method;
-		String methodName = null;
-		try{
-			methodName = this.edgeScorerType.toLowerCase();
-			method = EdgeScorer.class.getDeclaredMethod(methodName, parses.getClass());
-			LinkedHashMap<Edge,Double> scores = (LinkedHashMap<Edge,Double>)method.invoke(this, parses);
-			for(Double score : scores.values()){
-				if(score.isNaN())
-					throw new RuntimeException("Edge score is NaN");
-				if(score.isInfinite())
-					throw new RuntimeException("Edge score is infinite");
-			} 
-			
-			return scores;
-		} catch (Exception e){
-			throw new RuntimeException(e);
-		}
+		Edge[] edges = getEdges(parses);
+		double[] scores = score(parses, edges);
+		LinkedHashMap<Edge,Double> edgeScores = new LinkedHashMap<Edge,Double>();
+		for(int k = 0; k < edges.length; k++)
+			edgeScores.put(edges[k], scores[k]);
+		return edgeScores;
 	}
 }
@@ -0,0 +1,22 @@
+package sem.apps.parsererank;
+
+import java.util.LinkedHashMap;
+
+import sem.graph.Edge;
+import sem.graph.Graph;
+
+/**
+ * A method for assigning a score to every edge in the k-best parses of a sentence.
+ * Strategies are registered by name in EdgeScorer, and resolved once when the EdgeScorer is created.
+ * The score of an edge should only depend on its labels and the parses, as EdgeScorer scores every unique (head, relation, dependent) triple only once.
+ */
+public interface EdgeScoringStrategy {
+	/**
+	 * Score the edges of a sentence.
+	 * @param edgeScorer The EdgeScorer, giving access to the model counts and the expansion map
+	 * @param parses The k-best parses of the sentence
+	 * @param edges The edges to score, with one edge for every unique triple in the parses
+	 * @return Scores, indexed by the position of the edge in edges
+	 */
+	public double[] score(EdgeScorer edgeScorer, LinkedHashMap<Graph,Double> parses, Edge[] edges);
+}
@@ -0,0 +1,218 @@
+package sem.apps.parsererank;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+
+import sem.util.FileReader;
+import sem.util.Index;
+import sem.util.Tools;
+
+/**
+ * A binary index of expansion words, as produced by ExpansionFinder, that is memory-mapped and read lazily per word.
+ * <p>Words are referenced by their ids in the node index of the model. For every main word id, the file stores the start and length of its list,
+ * followed by the substitute ids and scores of all the lists. The lists are sorted by score, highest first.
+ * Substitutes that are not in the node index have the id -1, so they still count in the weights. Main words that are not in the node index are left out.
+ */
+public class ExpansionIndex {
+	public static final String fileSuffix = ".expansions";
+
+	private static final int FILE_VERSION = 1;
+
+	private IntBuffer starts;
+	private IntBuffer lengths;
+	private IntBuffer ids;
+	private FloatBuffer scores;
+	private int numWords;
+
+	private ExpansionIndex(){
+	}
+
+	/**
+	 * Convert an expansion file in the text format of ExpansionFinder into a binary index.
+	 * The substitutes are streamed into temporary files, so the whole expansion map is never in memory.
+	 * @param expansionFile Input file, with a main word followed by substitute and score pairs on every line
+	 * @param nodeIndex Node index of the model that will be used with the expansions
+	 * @param outputFile Output file
+	 */
+	public static void build(String expansionFile, Index nodeIndex, String outputFile){
+		File idFile = new File(outputFile + ".ids.tmp");
+		File scoreFile = new File(outputFile + ".scores.tmp");
+		int[] starts = new int[nodeIndex.size() + 1];
+		int[] lengths = new int[nodeIndex.size() + 1];
+		int numWords = 0;
+		long total = 0;
+
+		try{
+			DataOutputStream idOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(idFile)));
+			DataOutputStream scoreOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(scoreFile)));
+			FileReader fr = new FileReader(expansionFile);
+			String line;
+			String[] lineParts;
+			while(fr.hasNext()){
+				line = fr.next();
+				lineParts = line.trim().split("\\s+");
+				if(lineParts.length == 0 || lineParts[0].length() == 0)
+					continue;
+				if((lineParts.length-1)%2 != 0)
+					throw new RuntimeException("Abnormal number of items in line: " + lineParts.length + " : " + line);
+				Integer mainId = nodeIndex.getId(lineParts[0]);
+				if(mainId == null)
+					continue;
+
+				// Repeated substitutes keep the last score, as in the text expansion map
+				LinkedHashMap<String,Double> substitutes = new LinkedHashMap<String,Double>();
+				for(int i = 1; i < lineParts.length; i += 2)
+					substitutes.put(lineParts[i], Tools.getDouble(lineParts[i+1], 0.0));
+				int length = substitutes.size();
+				final String[] lineWords = substitutes.keySet().toArray(new String[length]);
+				final double[] lineScores = new double[length];
+				Integer[] order = new Integer[length];
+				for(int i = 0; i < length; i++){
+					lineScores[i] = substitutes.get(lineWords[i]);
+					order[i] = i;
+				}
+				// A stable sort, so ties keep the order of the file
+				Arrays.sort(order, new Comparator<Integer>(){
+					@Override
+					public int compare(Integer a, Integer b) {
+						return Double.compare(lineScores[b], lineScores[a]);
+					}
+				});
+
+				if(mainId >= starts.length){
+					starts = Arrays.copyOf(starts, mainId + 1);
+					lengths = Arrays.copyOf(lengths, mainId + 1);
+				}
+				starts[mainId] = (int)total;
+				lengths[mainId] = length;
+				numWords = Math.max(numWords, mainId + 1);
+				for(int i : order){
+					Integer id = nodeIndex.getId(lineWords[i]);
+					idOutput.writeInt(id == null?-1:id);
+					scoreOutput.writeFloat((float)lineScores[i]);
+				}
+				total += length;
+				if(total * 4 > Integer.MAX_VALUE)
+					throw new RuntimeException("Too many expansions for a single index: " + total);
+			}
+			fr.close();
+			idOutput.close();
+			scoreOutput.close();
+
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(outputFile)));
+			out.writeInt(FILE_VERSION);
+			out.writeInt(numWords);
+			out.writeInt((int)total);
+			for(int i = 0; i < numWords; i++)
+				out.writeInt(starts[i]);
+			for(int i = 0; i < numWords; i++)
+				out.writeInt(lengths[i]);
+			copy(idFile, out);
+			copy(scoreFile, out);
+			out.close();
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			idFile.delete();
+			scoreFile.delete();
+		}
+	}
+
+	private static void copy(File file, OutputStream out) throws Exception{
+		InputStream in = new BufferedInputStream(new FileInputStream(file));
+		byte[] buffer = new byte[1 << 16];
+		int read;
+		while((read = in.read(buffer)) > 0)
+			out.write(buffer, 0, read);
+		in.close();
+	}
+
+	/**
+	 * Open a binary index. Only the header is read, the lists are memory-mapped and read when they are needed.
+	 * @param inputFile Index file created with build()
+	 * @return The index
+	 */
+	public static ExpansionIndex open(String inputFile){
+		try{
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(inputFile)));
+			int version = in.readInt();
+			if(version != FILE_VERSION)
+				throw new RuntimeException("Unsupported expansion index version: " + version);
+			ExpansionIndex index = new ExpansionIndex();
+			index.numWords = in.readInt();
+			int total = in.readInt();
+			in.close();
+
+			RandomAccessFile file = new RandomAccessFile(inputFile, "r");
+			FileChannel channel = file.getChannel();
+			long offset = 12;
+			index.starts = channel.map(FileChannel.MapMode.READ_ONLY, offset, (long)index.numWords * 4).asIntBuffer();
+			offset += (long)index.numWords * 4;
+			index.lengths = channel.map(FileChannel.MapMode.READ_ONLY, offset, (long)index.numWords * 4).asIntBuffer();
+			offset += (long)index.numWords * 4;
+			index.ids = channel.map(FileChannel.MapMode.READ_ONLY, offset, (long)total * 4).asIntBuffer();
+			offset += (long)total * 4;
+			index.scores = channel.map(FileChannel.MapMode.READ_ONLY, offset, (long)total * 4).asFloatBuffer();
+			file.close();
+			return index;
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Get the number of substitutes for a word.
+	 * @param wordId Id of the word in the node index
+	 */
+	public int size(int wordId){
+		if(wordId < 0 || wordId >= numWords)
+			return 0;
+		return lengths.get(wordId);
+	}
+
+	/**
+	 * Get the node index ids of the substitutes for a word, highest score first. Substitutes that are not in the node index have the id -1.
+	 * @param wordId Id of the word in the node index
+	 */
+	public int[] getIds(int wordId){
+		int[] result = new int[size(wordId)];
+		if(result.length > 0){
+			int start = starts.get(wordId);
+			for(int i = 0; i < result.length; i++)
+				result[i] = ids.get(start + i);
+		}
+		return result;
+	}
+
+	/**
+	 * Get the scores of the substitutes for a word, in the same order as getIds().
+	 * @param wordId Id of the word in the node index
+	 */
+	public float[] getScores(int wordId){
+		float[] result = new float[size(wordId)];
+		if(result.length > 0){
+			int start = starts.get(wordId);
+			for(int i = 0; i < result.length; i++)
+				result[i] = scores.get(start + i);
+		}
+		return result;
+	}
+}
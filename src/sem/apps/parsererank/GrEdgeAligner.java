@@ -0,0 +1,158 @@
+package sem.apps.parsererank;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import sem.graph.Edge;
+import sem.graph.Graph;
+
+/**
+ * Aligns the edges of a test graph to the edges of a gold standard graph, with the same greedy mapping as ParseEvaluator.findEdgeMappingScore().
+ * <p>The test edges are put into buckets by their (head lemma, dependent lemma) pair, so edgeMatch() is only called for the test edges that can match a gold edge.
+ * Edges with an ellipsis lemma can match any lemma, so they are kept in a separate list that is always checked.
+ * The edge labels are interned to GR type ids once, so the label scores come from the dense match matrices of ParseEvaluator.
+ */
+public class GrEdgeAligner {
+
+	private ArrayList<Edge> availableEdges;
+	private boolean[] used;
+	private int[] labelIds;
+	private HashMap<String,HashMap<String,ArrayList<Integer>>> buckets;
+	private ArrayList<Integer> ellipEdges;
+	private double bestScore;
+
+	private GrEdgeAligner(Graph testGraph){
+		this.availableEdges = new ArrayList<Edge>();
+		this.buckets = new HashMap<String,HashMap<String,ArrayList<Integer>>>();
+		this.ellipEdges = new ArrayList<Integer>();
+
+		// The ellipses are placed at the bottom to maximize better matching.
+		// The ncsubj relations are placed at the bottom to match the official RASP evaluation code.
+		if(testGraph != null){
+			HashSet<Edge> added = new HashSet<Edge>();
+			for(Edge e : testGraph.getEdges()){
+				if(!e.getHead().getLabel().equals(Graph.ellip.getLabel()) && !e.getDep().getLabel().equals(Graph.ellip.getLabel()) && !e.getLabel().equals("ncsubj")){
+					availableEdges.add(e);
+					added.add(e);
+				}
+			}
+			for(Edge e : testGraph.getEdges()){
+				if(!e.getLabel().equals("ncsubj") && !added.contains(e)){
+					availableEdges.add(e);
+					added.add(e);
+				}
+			}
+			for(Edge e : testGraph.getEdges()){
+				if(e.getLabel().equals("ncsubj") && !added.contains(e)){
+					availableEdges.add(e);
+					added.add(e);
+				}
+			}
+		}
+		this.used = new boolean[availableEdges.size()];
+		this.labelIds = new int[availableEdges.size()];
+		for(int k = 0; k < availableEdges.size(); k++)
+			labelIds[k] = RaspGrTypeHierarchy.getTypeId(availableEdges.get(k).getLabel());
+
+		String ellipLemma = Graph.ellip.getLemma();
+		for(int k = 0; k < availableEdges.size(); k++){
+			Edge e = availableEdges.get(k);
+			if(e.getLabel().equals("passive"))
+				continue;
+			String head = e.getHead().getLemma(), dep = e.getDep().getLemma();
+			if(head.equals(ellipLemma) || dep.equals(ellipLemma)){
+				ellipEdges.add(k);
+				continue;
+			}
+			HashMap<String,ArrayList<Integer>> headBucket = buckets.get(head);
+			if(headBucket == null){
+				headBucket = new HashMap<String,ArrayList<Integer>>();
+				buckets.put(head, headBucket);
+			}
+			ArrayList<Integer> bucket = headBucket.get(dep);
+			if(bucket == null){
+				bucket = new ArrayList<Integer>();
+				headBucket.put(dep, bucket);
+			}
+			bucket.add(k);
+		}
+	}
+
+	/**
+	 * Finds the highest possible score when mapping edges from the test graph to the gold standard graph.
+	 * Every gold edge takes the best matching test edge that is still available, with ties going to the earliest test edge in the RASP evaluation order.
+	 * This is replication of Rebecca's code.
+	 * @param testGraph Test graph, can be null
+	 * @param goldGraph Gold standard graph
+	 * @param edgeMatchType Edge matching type
+	 * @return Maximum mapping score (sum of individual edge scores)
+	 */
+	public static double findEdgeMappingScore(Graph testGraph, Graph goldGraph, int edgeMatchType){
+		GrEdgeAligner aligner = new GrEdgeAligner(testGraph);
+		String ellipLemma = Graph.ellip.getLemma();
+
+		Edge goldEdge;
+		double overallScore = 0.0;
+		for(int j = 0; j < goldGraph.getEdges().size(); j++){
+			goldEdge = goldGraph.getEdges().get(j);
+			if(goldEdge.getLabel().equals("passive"))
+				continue;
+
+			int best;
+			String head = goldEdge.getHead().getLemma(), dep = goldEdge.getDep().getLemma();
+			if(head.equals(ellipLemma) || dep.equals(ellipLemma)){
+				// An ellipsis in the gold edge can match almost anything, so all the test edges are checked
+				best = aligner.findBest(goldEdge, edgeMatchType, null, -1);
+			}
+			else{
+				HashMap<String,ArrayList<Integer>> headBucket = aligner.buckets.get(head);
+				ArrayList<Integer> bucket = (headBucket == null)?null:headBucket.get(dep);
+				best = aligner.findBest(goldEdge, edgeMatchType, bucket, -1);
+				best = aligner.findBest(goldEdge, edgeMatchType, aligner.ellipEdges, best);
+			}
+
+			if(best >= 0){
+				overallScore += aligner.bestScore;
+				aligner.used[best] = true;
+			}
+		}
+		return overallScore;
+	}
+
+	/**
+	 * Find the best available test edge for a gold edge among the candidates, continuing from a previous best.
+	 * @param candidates Positions of the candidate test edges in increasing order, or null to check all of them
+	 * @param best Position of the best edge found so far, or -1
+	 * @return Position of the best edge, or -1 if none has a positive score
+	 */
+	private int findBest(Edge goldEdge, int edgeMatchType, ArrayList<Integer> candidates, int best){
+		if(best < 0)
+			bestScore = -1000;
+		int goldLabelId = RaspGrTypeHierarchy.getTypeId(goldEdge.getLabel());
+		int size = (candidates == null)?availableEdges.size():candidates.size();
+		for(int i = 0; i < size; i++){
+			int k = (candidates == null)?i:candidates.get(i);
+			if(used[k] || availableEdges.get(k).getLabel().equals("passive"))
+				continue;
+			double score = edgeMatch(k, goldEdge, goldLabelId, edgeMatchType);
+			if(score > 0 && (score > bestScore || (score == bestScore && k < best))){
+				bestScore = score;
+				best = k;
+			}
+		}
+		return best;
+	}
+	
+	/**
+	 * The same as ParseEvaluator.edgeMatch(), using the interned label ids when both labels are in the GR hierarchy.
+	 */
+	private double edgeMatch(int k, Edge goldEdge, int goldLabelId, int edgeMatchType){
+		Edge testEdge = availableEdges.get(k);
+		if(labelIds[k] < 0 || goldLabelId < 0 || edgeMatchType < ParseEvaluator.MATCH_UNLABELLED || edgeMatchType > ParseEvaluator.MATCH_LABELLED)
+			return ParseEvaluator.edgeMatch(testEdge, goldEdge, edgeMatchType);
+		return ParseEvaluator.lemmaMatch(testEdge.getHead().getLemma(), goldEdge.getHead().getLemma())
+				* ParseEvaluator.lemmaMatch(testEdge.getDep().getLemma(), goldEdge.getDep().getLemma())
+				* ParseEvaluator.edgeLabelMatch(labelIds[k], goldLabelId, edgeMatchType);
+	}
+}
@@ -0,0 +1,185 @@
+package sem.apps.parsererank;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import sem.graph.Edge;
+import sem.graph.Graph;
+import sem.graph.Node;
+
+/**
+ * A set of canonical 128-bit graph fingerprints, for finding duplicate graphs without building canonical strings.
+ * <p>Two graphs get the same fingerprint when they have the same canonical form as in Canonicaliser.getString():
+ * nodes are ordered by label, with ties broken by their original order, and edges are described by the positions of their head and dependent in that order.
+ * The nodes and edges are turned into sorted arrays of primitive tuples, which are fed into a streaming hash.
+ * <p>The buffers are reused between graphs, so a set should only be used by one thread.
+ */
+public class GraphFingerprintSet {
+	private static final long SEED1 = 0x9E3779B97F4A7C15L;
+	private static final long SEED2 = 0xC2B2AE3D27D4EB4FL;
+	private static final int INDEX_BITS = 24;
+
+	private long[] table;
+	private boolean[] used;
+	private int size;
+
+	private long[] nodeKeys;
+	private long[] nodeHashes;
+	private long[] edgeKeys;
+	private IdentityHashMap<Node,Integer> positions;
+	private long[] fingerprint;
+
+	public GraphFingerprintSet(){
+		this.table = new long[64];
+		this.used = new boolean[32];
+		this.size = 0;
+		this.nodeKeys = new long[64];
+		this.nodeHashes = new long[64];
+		this.edgeKeys = new long[64];
+		this.positions = new IdentityHashMap<Node,Integer>();
+		this.fingerprint = new long[2];
+	}
+
+	/**
+	 * Add the fingerprint of a graph to the set.
+	 * @return True if the set did not already contain the fingerprint
+	 */
+	public boolean add(Graph graph){
+		fingerprint(graph, fingerprint);
+		if((size + 1) * 2 > used.length)
+			grow();
+		return insert(fingerprint[0], fingerprint[1]);
+	}
+
+	public boolean contains(Graph graph){
+		fingerprint(graph, fingerprint);
+		return find(fingerprint[0], fingerprint[1]) >= 0;
+	}
+
+	public int size(){
+		return this.size;
+	}
+
+	public void clear(){
+		Arrays.fill(used, false);
+		size = 0;
+	}
+
+	/**
+	 * Calculate the canonical fingerprint of a graph.
+	 * @param graph Graph
+	 * @param result Array of length 2 for the fingerprint
+	 */
+	public void fingerprint(Graph graph, long[] result){
+		List<Node> nodes = graph.getNodes();
+		List<Edge> edges = graph.getEdges();
+		int numNodes = nodes.size(), numEdges = edges.size();
+		if(numNodes >= (1 << INDEX_BITS))
+			throw new RuntimeException("Too many nodes for a fingerprint: " + numNodes);
+		if(nodeKeys.length < numNodes){
+			nodeKeys = new long[Math.max(numNodes, nodeKeys.length * 2)];
+			nodeHashes = new long[nodeKeys.length];
+		}
+		if(edgeKeys.length < numEdges)
+			edgeKeys = new long[Math.max(numEdges, edgeKeys.length * 2)];
+
+		// Ordering the nodes by label, with ties in the original order. The top bits of the label hash stand in for the label.
+		for(int i = 0; i < numNodes; i++){
+			nodeHashes[i] = hash(nodes.get(i).getLabel());
+			nodeKeys[i] = ((nodeHashes[i] >>> INDEX_BITS) << INDEX_BITS) | i;
+		}
+		Arrays.sort(nodeKeys, 0, numNodes);
+
+		long h1 = SEED1 ^ numNodes, h2 = SEED2 ^ numNodes;
+		positions.clear();
+		for(int position = 0; position < numNodes; position++){
+			int i = (int)(nodeKeys[position] & ((1 << INDEX_BITS) - 1));
+			if(!positions.containsKey(nodes.get(i)))
+				positions.put(nodes.get(i), position);
+			h1 = mix(h1 ^ nodeHashes[i]) * SEED2;
+			h2 = mix(h2 + nodeHashes[i]) ^ SEED1;
+		}
+
+		// Every edge is a (head position, label, dependent position) tuple, and the sorted tuple hashes make the edge order irrelevant
+		for(int k = 0; k < numEdges; k++){
+			Edge edge = edges.get(k);
+			Integer head = positions.get(edge.getHead());
+			Integer dep = positions.get(edge.getDep());
+			long tuple = mix(((long)(head == null?-1:head) << 32) ^ (dep == null?-1:dep)) ^ hash(edge.getLabel());
+			edgeKeys[k] = mix(tuple);
+		}
+		Arrays.sort(edgeKeys, 0, numEdges);
+
+		h1 = mix(h1 ^ numEdges);
+		h2 = mix(h2 + numEdges);
+		for(int k = 0; k < numEdges; k++){
+			h1 = mix(h1 ^ edgeKeys[k]) * SEED2;
+			h2 = mix(h2 + edgeKeys[k]) ^ SEED1;
+		}
+		result[0] = mix(h1);
+		result[1] = mix(h2 ^ h1);
+	}
+
+	/**
+	 * 64-bit FNV-1a hash of the characters of a string, without copying it.
+	 */
+	private static long hash(String s){
+		if(s == null)
+			return 0L;
+		long h = 0xCBF29CE484222325L;
+		for(int i = 0; i < s.length(); i++){
+			h ^= s.charAt(i);
+			h *= 0x100000001B3L;
+		}
+		return mix(h);
+	}
+
+	/**
+	 * The finalizer of SplitMix64.
+	 */
+	private static long mix(long z){
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * Find the slot of a fingerprint in the open addressing table.
+	 * @return The slot, or -(empty slot + 1) if the fingerprint is not in the table
+	 */
+	private int find(long f1, long f2){
+		int mask = used.length - 1;
+		int slot = (int)(f1 ^ (f1 >>> 32)) & mask;
+		while(used[slot]){
+			if(table[2*slot] == f1 && table[2*slot+1] == f2)
+				return slot;
+			slot = (slot + 1) & mask;
+		}
+		return -(slot + 1);
+	}
+
+	private boolean insert(long f1, long f2){
+		int slot = find(f1, f2);
+		if(slot >= 0)
+			return false;
+		slot = -(slot + 1);
+		used[slot] = true;
+		table[2*slot] = f1;
+		table[2*slot+1] = f2;
+		size++;
+		return true;
+	}
+
+	private void grow(){
+		long[] oldTable = table;
+		boolean[] oldUsed = used;
+		table = new long[oldTable.length * 2];
+		used = new boolean[oldUsed.length * 2];
+		size = 0;
+		for(int slot = 0; slot < oldUsed.length; slot++){
+			if(oldUsed[slot])
+				insert(oldTable[2*slot], oldTable[2*slot+1]);
+		}
+	}
+}
@@ -2,7 +2,6 @@ package sem.apps.parsererank;
 
 
 import java.util.ArrayList;
-
 import java.util.LinkedHashMap;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Future;
@@ -10,76 +9,7 @@ import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
-import sem.graph.Edge;
 import sem.graph.Graph;
-import sem.graph.Node;
-
-/**
- * Assigns confidence scores to dependency graphs
- *
- */
-class GraphScorerTask implements Runnable{
-	private LinkedHashMap<Graph,Double> graphs;
-	private EdgeScorer edgeScorer;
-	private LinkedHashMap<Graph,Double> scoredGraphs;
-	private int combineMethod;
-	
-	public GraphScorerTask(LinkedHashMap<Graph,Double> graphs, LinkedHashMap<Graph,Double> scoredGraphs, EdgeScorer edgeScorer, int combineMethod){
-		this.graphs = graphs;
-		this.scoredGraphs = scoredGraphs;
-		this.edgeScorer = edgeScorer;
-		this.combineMethod = combineMethod;
-	}
-	
-	@Override
-	public void run() {
-		// First we calculate the edge scores
-		LinkedHashMap<Edge,Double> edgeScores = edgeScorer.run(graphs);
-
-		// Next we combine the edge scores into a parse score
-		double score = 0.0, sum = 0.0;
-		for(Graph graph : graphs.keySet()){
-			sum = 0.0; score = 0.0;
-			for(Edge edge : graph.getEdges()){
-				sum += edgeScores.get(edge);
-			}
-			
-			if(combineMethod == GraphScorer.COMBINE_SUM)
-				score = sum;
-			else if(combineMethod == GraphScorer.COMBINE_AVG)
-				score = sum / (double)graph.getEdges().size();
-			else if(combineMethod == GraphScorer.COMBINE_NODEAVG){
-				double nodeSum = 0.0, nodeScore = 0, nodeCount = 0.0;
-				for(Node node : graph.getNodes()){
-					nodeScore = 0.0;
-					nodeCount = 0.0;
-					for(Edge edge : graph.getEdges()){
-						if(edge.getDep() == node){
-							nodeScore += edgeScores.get(edge);
-							nodeCount++;
-						}
-					}
-					nodeSum += (nodeCount > 0.0)?(nodeScore/nodeCount):0.0;
-				}
-				
-				if(graph.getNodes().size() > 0)
-					score = nodeSum / (double)graph.getNodes().size();
-				else
-					score = 0.0;
-			}
-			else {
-				throw new RuntimeException("Unknown combineMethod in ParseScorer : " + combineMethod);
-			}
-			
-			if(Double.isNaN(score))
-				throw new RuntimeException("Parse score is NaN");
-			else if(Double.isInfinite(score))
-				throw new RuntimeException("Parse score is Infinite");
-			
-			scoredGraphs.put(graph, score);
-		}
-	}
-}
 
 /**
  * The main class for performing graph scoring.
@@ -0,0 +1,106 @@
+package sem.apps.parsererank;
+
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import sem.graph.Edge;
+import sem.graph.Graph;
+import sem.graph.Node;
+
+/**
+ * Assigns confidence scores to dependency graphs
+ *
+ */
+class GraphScorerTask implements Runnable{
+	private LinkedHashMap<Graph,Double> graphs;
+	private EdgeScorer edgeScorer;
+	private LinkedHashMap<Graph,Double> scoredGraphs;
+	private int combineMethod;
+	
+	public GraphScorerTask(LinkedHashMap<Graph,Double> graphs, LinkedHashMap<Graph,Double> scoredGraphs, EdgeScorer edgeScorer, int combineMethod){
+		this.graphs = graphs;
+		this.scoredGraphs = scoredGraphs;
+		this.edgeScorer = edgeScorer;
+		this.combineMethod = combineMethod;
+	}
+	
+	@Override
+	public void run() {
+		// First we calculate the edge scores, indexed by the position of the edge in the sentence
+		Edge[] edges = EdgeScorer.getEdges(graphs);
+		double[] edgeScores = edgeScorer.score(graphs, edges);
+
+		// Next we combine the edge scores into a parse score
+		double score = 0.0, sum = 0.0;
+		int offset = 0;
+		for(Graph graph : graphs.keySet()){
+			sum = 0.0; score = 0.0;
+			for(int k = 0; k < graph.getEdges().size(); k++){
+				sum += edgeScores[offset + k];
+			}
+			
+			if(combineMethod == GraphScorer.COMBINE_SUM)
+				score = sum;
+			else if(combineMethod == GraphScorer.COMBINE_AVG)
+				score = sum / (double)graph.getEdges().size();
+			else if(combineMethod == GraphScorer.COMBINE_NODEAVG)
+				score = nodeAverage(graph, edges, edgeScores, offset);
+			else {
+				throw new RuntimeException("Unknown combineMethod in ParseScorer : " + combineMethod);
+			}
+			
+			if(Double.isNaN(score))
+				throw new RuntimeException("Parse score is NaN");
+			else if(Double.isInfinite(score))
+				throw new RuntimeException("Parse score is Infinite");
+			
+			scoredGraphs.put(graph, score);
+			offset += graph.getEdges().size();
+		}
+	}
+	
+	/**
+	 * Average over the nodes of the graph of the average score of the edges leading to each node.
+	 * The edges are grouped by their dependent in a single pass, so the cost is linear in the number of nodes and edges.
+	 * @param graph Graph
+	 * @param edges All the edges of the sentence
+	 * @param edgeScores Scores of the edges, in the same order
+	 * @param offset Position of the first edge of this graph in edges
+	 * @return The score of the graph
+	 */
+	static double nodeAverage(Graph graph, Edge[] edges, double[] edgeScores, int offset){
+		List<Node> nodes = graph.getNodes();
+		if(nodes.size() == 0)
+			return 0.0;
+		
+		// Nodes are compared by identity, and a node that is listed twice shares its position
+		IdentityHashMap<Node,Integer> positions = new IdentityHashMap<Node,Integer>();
+		int[] nodePositions = new int[nodes.size()];
+		for(int i = 0; i < nodes.size(); i++){
+			Integer position = positions.get(nodes.get(i));
+			if(position == null){
+				position = i;
+				positions.put(nodes.get(i), position);
+			}
+			nodePositions[i] = position;
+		}
+		
+		double[] nodeScores = new double[nodes.size()];
+		int[] nodeCounts = new int[nodes.size()];
+		for(int k = 0; k < graph.getEdges().size(); k++){
+			Integer position = positions.get(edges[offset + k].getDep());
+			if(position != null){
+				nodeScores[position] += edgeScores[offset + k];
+				nodeCounts[position]++;
+			}
+		}
+		
+		double nodeSum = 0.0;
+		for(int i = 0; i < nodes.size(); i++){
+			int position = nodePositions[i];
+			nodeSum += (nodeCounts[position] > 0)?(nodeScores[position]/nodeCounts[position]):0.0;
+		}
+		return nodeSum / (double)nodes.size();
+	}
+}
@@ -0,0 +1,13 @@
+package sem.apps.parsererank;
+
+import java.util.LinkedHashMap;
+
+import sem.graph.Edge;
+import sem.graph.Graph;
+
+class IEdgeScoringStrategy implements EdgeScoringStrategy{
+	@Override
+	public double[] score(EdgeScorer edgeScorer, LinkedHashMap<Graph,Double> parses, Edge[] edges) {
+		return edgeScorer.i(edges);
+	}
+}
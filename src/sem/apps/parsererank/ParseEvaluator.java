@@ -1,17 +1,82 @@
 package sem.apps.parsererank;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
-import java.util.List;
+import java.util.LinkedList;
 import java.util.Map.Entry;
-import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import sem.graph.Edge;
 import sem.graph.Graph;
 import sem.util.Tools;
 
+/**
+ * Runs a block of iterations of the permutation test.
+ * Only the sentences where the two systems differ are stored, as swapping the others does not change the scores.
+ * The swaps for 64 sentences are taken from the bits of a single random long.
+ */
+class PermutationTestTask implements Runnable{
+	private double[] correctDiffs, totalDiffs;
+	private double correctA, correctB, totalA, totalB, totalGold, realDiff;
+	private SplittableRandom random;
+	int iterations;
+	int count;
+	
+	public PermutationTestTask(double[] correctDiffs, double[] totalDiffs, double correctA, double correctB, double totalA, double totalB, double totalGold, double realDiff, int iterations, SplittableRandom random){
+		this.correctDiffs = correctDiffs;
+		this.totalDiffs = totalDiffs;
+		this.correctA = correctA;
+		this.correctB = correctB;
+		this.totalA = totalA;
+		this.totalB = totalB;
+		this.totalGold = totalGold;
+		this.realDiff = realDiff;
+		this.iterations = iterations;
+		this.random = random;
+	}
+	
+	@Override
+	public void run() {
+		int size = correctDiffs.length;
+		double correctDiff, totalDiff, correcta, correctb, totala, totalb, preca, precb, reca, recb, fa, fb;
+		count = 0;
+		for(int i = 0; i < iterations; i++){
+			correctDiff = totalDiff = 0.0;
+			for(int start = 0; start < size; start += 64){
+				long mask = random.nextLong();
+				if(size - start < 64)
+					mask &= (1L << (size - start)) - 1;
+				while(mask != 0){
+					int j = start + Long.numberOfTrailingZeros(mask);
+					correctDiff += correctDiffs[j];
+					totalDiff += totalDiffs[j];
+					mask &= mask - 1;
+				}
+			}
+			correcta = correctA + correctDiff;
+			correctb = correctB - correctDiff;
+			totala = totalA + totalDiff;
+			totalb = totalB - totalDiff;
+			
+			preca = correcta / totala;
+			precb = correctb / totalb;
+			reca = correcta / totalGold;
+			recb = correctb / totalGold;
+			fa = 2.0 * preca *reca / (preca + reca);
+			fb = 2.0 * precb *recb / (precb + recb);
+			if(Math.abs(fa - fb) >= realDiff)
+				count++;
+		}
+	}
+}
+
 /**
  * Functions for evaluating parsing and parse reranking
  *
@@ -84,6 +149,48 @@ public class ParseEvaluator {
 	 * @return A non-negative value showing how well the test edge matches the gold edge
 	 */
 	public static double edgeLabelMatch(String edgeLabelTest, String edgeLabelGold, int edgeMatchType){
+		int testId = RaspGrTypeHierarchy.getTypeId(edgeLabelTest);
+		int goldId = RaspGrTypeHierarchy.getTypeId(edgeLabelGold);
+		if(testId < 0 || goldId < 0)
+			return calculateEdgeLabelMatch(edgeLabelTest, edgeLabelGold, edgeMatchType);
+		return edgeLabelMatch(testId, goldId, edgeMatchType);
+	}
+	
+	/**
+	 * The same as edgeLabelMatch(String, String, int), for labels interned with RaspGrTypeHierarchy.getTypeId().
+	 * @param testId Test edge label id
+	 * @param goldId Gold standard edge label id
+	 * @param edgeMatchType Edge matching type
+	 * @return A non-negative value showing how well the test edge matches the gold edge
+	 */
+	public static double edgeLabelMatch(int testId, int goldId, int edgeMatchType){
+		if(edgeMatchType < MATCH_UNLABELLED || edgeMatchType > MATCH_LABELLED)
+			return calculateEdgeLabelMatch(RaspGrTypeHierarchy.getTypeLabel(testId), RaspGrTypeHierarchy.getTypeLabel(goldId), edgeMatchType);
+		if(labelMatchMatrices == null)
+			createLabelMatchMatrices();
+		return labelMatchMatrices[edgeMatchType][testId][goldId];
+	}
+	
+	/**
+	 * Dense label x label match scores for every match type, indexed by the GR type ids.
+	 */
+	private static volatile double[][][] labelMatchMatrices;
+	
+	private static synchronized void createLabelMatchMatrices(){
+		if(labelMatchMatrices != null)
+			return;
+		int numTypes = RaspGrTypeHierarchy.getNumTypes();
+		double[][][] matrices = new double[MATCH_LABELLED + 1][numTypes][numTypes];
+		for(int type = MATCH_UNLABELLED; type <= MATCH_LABELLED; type++){
+			for(int testId = 0; testId < numTypes; testId++){
+				for(int goldId = 0; goldId < numTypes; goldId++)
+					matrices[type][testId][goldId] = calculateEdgeLabelMatch(RaspGrTypeHierarchy.getTypeLabel(testId), RaspGrTypeHierarchy.getTypeLabel(goldId), type);
+			}
+		}
+		labelMatchMatrices = matrices;
+	}
+	
+	private static double calculateEdgeLabelMatch(String edgeLabelTest, String edgeLabelGold, int edgeMatchType){
 		
 		ArrayList<String> goldLabelTypes = new ArrayList<String>(RaspGrTypeHierarchy.getAncestors(edgeLabelGold));
 		goldLabelTypes.add(edgeLabelGold);
@@ -176,52 +283,9 @@ public class ParseEvaluator {
 	}
 	
 	*/
-	// This is replication of Rebecca's code
+	// This is replication of Rebecca's code, with the test edges indexed by lemmas in GrEdgeAligner
 	public static double findEdgeMappingScore(Graph testGraph, Graph goldGraph, int edgeMatchType){
-		ArrayList<Edge> availableEdges = new ArrayList<Edge>();
-		
-		// The ellipses are placed at the bottom to maximize better matching.
-		// The ncsubj relations are placed at the bottom to match the official RASP evaluation code.
-		if(testGraph != null){
-			for(Edge e : testGraph.getEdges()){
-				if(!e.getHead().getLabel().equals(Graph.ellip.getLabel()) && !e.getDep().getLabel().equals(Graph.ellip.getLabel()) && !e.getLabel().equals("ncsubj"))
-					availableEdges.add(e);
-			}
-			for(Edge e : testGraph.getEdges()){
-				if(!e.getLabel().equals("ncsubj") && !availableEdges.contains(e))
-					availableEdges.add(e);
-			}
-			for(Edge e : testGraph.getEdges()){
-				if(e.getLabel().equals("ncsubj") && !availableEdges.contains(e))
-					availableEdges.add(e);
-			}
-		}
-		
-		Edge goldEdge, testEdge, bestTestEdge;
-		double testEdgeScore, bestTestEdgeScore, overallScore = 0.0;
-		for(int j = 0; j < goldGraph.getEdges().size(); j++){
-			goldEdge = goldGraph.getEdges().get(j);
-			
-			if(goldEdge.getLabel().equals("passive"))
-				continue;
-			bestTestEdge = null;
-			bestTestEdgeScore = -1000;
-			for(int k = 0; k < availableEdges.size(); k++){
-				testEdge = availableEdges.get(k);
-				if(testEdge.getLabel().equals("passive"))
-					continue;
-				testEdgeScore = edgeMatch(testEdge, goldEdge, edgeMatchType);
-				if(testEdgeScore > 0 && testEdgeScore > bestTestEdgeScore){
-					bestTestEdgeScore = testEdgeScore;
-					bestTestEdge = testEdge;
-				}
-			}
-			if(bestTestEdge != null){
-				overallScore += bestTestEdgeScore;
-				availableEdges.remove(bestTestEdge);
-			}
-		}
-		return overallScore;
+		return GrEdgeAligner.findEdgeMappingScore(testGraph, goldGraph, edgeMatchType);
 	}
 	
 	/**
@@ -459,8 +523,22 @@ public class ParseEvaluator {
 	}
 	
 	public static LinkedHashMap<String,Double> calculateStatisticalSignificance(ArrayList<LinkedHashMap<Graph,Double>> baselineGraphs, ArrayList<LinkedHashMap<Graph,Double>> testGraphs, ArrayList<Graph> goldGraphs, int grTypeMatch){
-		LinkedHashMap<String,Double> results = new LinkedHashMap<String,Double>();
-		
+		return calculateStatisticalSignificance(baselineGraphs, testGraphs, goldGraphs, grTypeMatch, 1000000, Runtime.getRuntime().availableProcessors(), 0.0);
+	}
+	
+	/**
+	 * Approximate randomisation test for the difference in F-measure between the top baseline and test graphs.
+	 * The per-sentence scores are calculated once into arrays, and the shuffles are run in parallel blocks, each with its own SplittableRandom stream.
+	 * @param baselineGraphs Baseline parses
+	 * @param testGraphs Test parses
+	 * @param goldGraphs Gold standard graphs
+	 * @param grTypeMatch Edge match type
+	 * @param iterations Maximum number of shuffles
+	 * @param numThreads Number of threads
+	 * @param alpha Significance level for early stopping. The test stops when the p-value is clearly above or below alpha. No early stopping if this is 0.
+	 * @return Results, including the p-value and the number of shuffles that were run
+	 */
+	public static LinkedHashMap<String,Double> calculateStatisticalSignificance(ArrayList<LinkedHashMap<Graph,Double>> baselineGraphs, ArrayList<LinkedHashMap<Graph,Double>> testGraphs, ArrayList<Graph> goldGraphs, int grTypeMatch, int iterations, int numThreads, double alpha){
 		ArrayList<Graph> topBaselineGraphs = getTopGraphs(baselineGraphs);
 		ArrayList<Graph> topTestGraphs = getTopGraphs(testGraphs);
 		
@@ -468,30 +546,58 @@ public class ParseEvaluator {
 			throw new RuntimeException("Mismatch in parse array sizes in ParseRerank.calculate...()");
 		}
 		
-		// Creating a cache of parse scores
-		HashMap<Graph,Double> correctScores = new HashMap<Graph,Double>();
-		HashMap<Graph,Double> totalScores = new HashMap<Graph,Double>();
+		// Calculating the parse scores once
+		double correcta, correctb, totala, totalb, totalgold;
+		correcta = correctb = totala = totalb = totalgold = 0.0;
+		double[] correctDiffs = new double[goldGraphs.size()], totalDiffs = new double[goldGraphs.size()];
+		int differing = 0;
 		for(int i = 0; i < goldGraphs.size(); i++){
 			if(topBaselineGraphs.get(i) == null || topTestGraphs.get(i) == null)
 				throw new RuntimeException("Graph cannot be null");
-			correctScores.put(topBaselineGraphs.get(i), findEdgeMappingScore(topBaselineGraphs.get(i), goldGraphs.get(i), grTypeMatch));
-			totalScores.put(topBaselineGraphs.get(i), findEdgeMappingScore(topBaselineGraphs.get(i), grTypeMatch));
-			correctScores.put(topTestGraphs.get(i), findEdgeMappingScore(topTestGraphs.get(i), goldGraphs.get(i), grTypeMatch));
-			totalScores.put(topTestGraphs.get(i), findEdgeMappingScore(topTestGraphs.get(i), grTypeMatch));
+			double baselineCorrect = findEdgeMappingScore(topBaselineGraphs.get(i), goldGraphs.get(i), grTypeMatch);
+			double baselineTotal = findEdgeMappingScore(topBaselineGraphs.get(i), grTypeMatch);
+			double testCorrect = findEdgeMappingScore(topTestGraphs.get(i), goldGraphs.get(i), grTypeMatch);
+			double testTotal = findEdgeMappingScore(topTestGraphs.get(i), grTypeMatch);
+			correcta += baselineCorrect;
+			correctb += testCorrect;
+			totala += baselineTotal;
+			totalb += testTotal;
+			totalgold += findEdgeMappingScore(goldGraphs.get(i), grTypeMatch);
 			
-			totalScores.put(goldGraphs.get(i), findEdgeMappingScore(goldGraphs.get(i), grTypeMatch));
+			// Swapping a sentence moves the difference from one system to the other
+			if(testCorrect != baselineCorrect || testTotal != baselineTotal){
+				correctDiffs[differing] = testCorrect - baselineCorrect;
+				totalDiffs[differing] = testTotal - baselineTotal;
+				differing++;
+			}
 		}
+		correctDiffs = Arrays.copyOf(correctDiffs, differing);
+		totalDiffs = Arrays.copyOf(totalDiffs, differing);
+		
+		return calculateStatisticalSignificance(correctDiffs, totalDiffs, correcta, correctb, totala, totalb, totalgold, iterations, numThreads, alpha);
+	}
+	
+	/**
+	 * Approximate randomisation test from edge scores that have already been summed over the sentences, for example by a streaming evaluation.
+	 * @param correctDiffs Differences in the correct edge scores (test - baseline), only for the sentences where the two systems differ
+	 * @param totalDiffs Differences in the total test edge scores, in the same order
+	 * @param correcta Correct edge score of the baseline
+	 * @param correctb Correct edge score of the test system
+	 * @param totala Total edge score of the baseline
+	 * @param totalb Total edge score of the test system
+	 * @param totalgold Total edge score of the gold standard
+	 * @param iterations Maximum number of shuffles
+	 * @param numThreads Number of threads
+	 * @param alpha Significance level for early stopping, or 0 for no early stopping
+	 * @return Results, including the p-value and the number of shuffles that were run
+	 */
+	public static LinkedHashMap<String,Double> calculateStatisticalSignificance(double[] correctDiffs, double[] totalDiffs, double correcta, double correctb, double totala, double totalb, double totalgold, int iterations, int numThreads, double alpha){
+		if(correctDiffs.length != totalDiffs.length)
+			throw new IllegalArgumentException("Mismatch in the number of differences: " + correctDiffs.length + " " + totalDiffs.length);
+		LinkedHashMap<String,Double> results = new LinkedHashMap<String,Double>();
 		
 		// Calculating realdiff
-		double fa, fb, preca, precb, reca, recb, correcta, correctb, totala, totalb, totalgold;
-		correcta = correctb = totala = totalb = totalgold = 0.0;
-		for(int i = 0; i < goldGraphs.size(); i++){
-			correcta += correctScores.get(topBaselineGraphs.get(i));
-			correctb += correctScores.get(topTestGraphs.get(i));
-			totala += totalScores.get(topBaselineGraphs.get(i));
-			totalb += totalScores.get(topTestGraphs.get(i));
-			totalgold += totalScores.get(goldGraphs.get(i));
-		}
+		double fa, fb, preca, precb, reca, recb;
 		preca = correcta / totala;
 		precb = correctb / totalb;
 		reca = correcta / totalgold;
@@ -504,48 +610,40 @@ public class ParseEvaluator {
 		results.put("fb", fb);
 		results.put("realdiff", realDiff);
 		
-		// Random shuffles
-		int c = 0, R = 1000000;
-		Random generator = new Random();
-		double random, randomDiff;
-		
-		
-		for(int i = 0; i < R; i++){
-			correcta = correctb = totala = totalb = totalgold = 0.0;
-			for(int j = 0; j < goldGraphs.size(); j++){
-				random = generator.nextDouble();
-				if(random < 0.5){
-					//a.add(baselineParses.get(j));
-					//b.add(testParses.get(j));
-					correcta += correctScores.get(topBaselineGraphs.get(j));
-					correctb += correctScores.get(topTestGraphs.get(j));
-					totala += totalScores.get(topBaselineGraphs.get(j));
-					totalb += totalScores.get(topTestGraphs.get(j));
-				}
-				else {
-					//a.add(testParses.get(j));
-					//b.add(baselineParses.get(j));
-					correctb += correctScores.get(topBaselineGraphs.get(j));
-					correcta += correctScores.get(topTestGraphs.get(j));
-					totalb += totalScores.get(topBaselineGraphs.get(j));
-					totala += totalScores.get(topTestGraphs.get(j));
+		// Random shuffles, in blocks so that early stopping can be checked between them
+		int blockSize = 10000;
+		int c = 0, R = 0, submitted = 0;
+		SplittableRandom generator = new SplittableRandom();
+		BlockingQueue<Runnable> queue = new LinkedBlockingQueue<Runnable>();
+		LinkedList<Future<?>> futures = new LinkedList<Future<?>>();
+		LinkedList<PermutationTestTask> tasks = new LinkedList<PermutationTestTask>();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(numThreads, numThreads, 30, TimeUnit.SECONDS, queue);
+		try{
+			boolean stop = false;
+			while(!stop && (submitted < iterations || !tasks.isEmpty())){
+				while(submitted < iterations && tasks.size() < numThreads * 2){
+					int blockIterations = Math.min(blockSize, iterations - submitted);
+					PermutationTestTask task = new PermutationTestTask(correctDiffs, totalDiffs, correcta, correctb, totala, totalb, totalgold, realDiff, blockIterations, generator.split());
+					tasks.add(task);
+					futures.add(executor.submit(task));
+					submitted += blockIterations;
 				}
 				
-				totalgold += totalScores.get(goldGraphs.get(j));
-			}
-			
-			preca = correcta / totala;
-			precb = correctb / totalb;
-			reca = correcta / totalgold;
-			recb = correctb / totalgold;
-			fa = 2.0 * preca *reca / (preca + reca);
-			fb = 2.0 * precb *recb / (precb + recb);
-
-			randomDiff = Math.abs(fa - fb);
-			if(randomDiff >= realDiff){
-				c++;
+				// Collecting the oldest block
+				futures.removeFirst().get();
+				PermutationTestTask task = tasks.removeFirst();
+				c += task.count;
+				R += task.iterations;
+				
+				if(alpha > 0.0 && isDecided(c, R, alpha))
+					stop = true;
 			}
-			//System.out.println("Shuffle " + i + " : " + randomDiff);
+			for(Future<?> future : futures)
+				future.cancel(true);
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			executor.shutdownNow();
 		}
 		
 		double p = ((double)c + 1.0)/((double)R + 1.0);
@@ -557,102 +655,28 @@ public class ParseEvaluator {
 		return results;
 	}
 	
+	/**
+	 * Whether the p-value estimate is far enough from alpha that more shuffles would not change the decision.
+	 * Uses a normal approximation with a 4 standard error margin, after at least 1000 shuffles.
+	 */
+	private static boolean isDecided(int c, int iterations, double alpha){
+		if(iterations < 1000)
+			return false;
+		double p = ((double)c + 1.0)/((double)iterations + 1.0);
+		double standardError = Math.sqrt(alpha * (1.0 - alpha) / iterations);
+		return Math.abs(p - alpha) > 4.0 * standardError;
+	}
+	
 	
 	public static String getTypeStatistics(ArrayList<LinkedHashMap<Graph,Double>> testGraphs, ArrayList<Graph> goldGraphs, int edgeMatchType){
 		ArrayList<Graph> topTestGraphs = getTopGraphs(testGraphs);
 		
-		LinkedHashMap<String,Double> sums = new LinkedHashMap<String,Double>();
-		LinkedHashMap<String,Double> testSums = new LinkedHashMap<String,Double>();
-		LinkedHashMap<String,Double> goldSums = new LinkedHashMap<String,Double>();
-		
 		if(topTestGraphs.size() != goldGraphs.size())
 			throw new RuntimeException("Mismatch in number of graphs: " + topTestGraphs.size() + " " + goldGraphs.size());
 		
-		for(String type : RaspGrTypeHierarchy.getTypes()){
-			sums.put(type, 0.0);
-			testSums.put(type, 0.0);
-			goldSums.put(type, 0.0);
-		}
-		
-		for(int i = 0; i < goldGraphs.size(); i++){
-			Graph testGraph = topTestGraphs.get(i);
-			Graph goldGraph = goldGraphs.get(i);
-			
-			for(Edge e : goldGraph.getEdges()){
-				if(e.getLabel().equals("passive"))
-					continue;
-				for(String t : RaspGrTypeHierarchy.getSubsumed(e.getLabel()))
-					goldSums.put(t, goldSums.get(t)+1.0);
-			}
-			
-			ArrayList<Edge> availableEdges = new ArrayList<Edge>();
-			
-			// The ellipses are placed at the bottom to maximize better matching.
-			// The ncsubj relations are placed at the bottom to match the official RASP evaluation code.
-			for(Edge e : testGraph.getEdges()){
-				if(!e.getHead().getLabel().equals(Graph.ellip.getLabel()) && !e.getDep().getLabel().equals(Graph.ellip.getLabel()) && !e.getLabel().equals("ncsubj"))
-					availableEdges.add(e);
-			}
-			for(Edge e : testGraph.getEdges()){
-				if(!e.getLabel().equals("ncsubj") && !availableEdges.contains(e))
-					availableEdges.add(e);
-			}
-			for(Edge e : testGraph.getEdges()){
-				if(e.getLabel().equals("ncsubj") && !availableEdges.contains(e))
-					availableEdges.add(e);
-			}
-			for(Edge e : testGraph.getEdges()){
-				if(e.getLabel().equals("passive"))
-					continue;
-				for(String t : RaspGrTypeHierarchy.getSubsumed(e.getLabel()))
-					testSums.put(t, testSums.get(t)+1.0);
-			}
-			
-			Edge goldEdge, testEdge, bestTestEdge;
-			double testEdgeScore, bestTestEdgeScore, overallScore = 0.0;
-			for(int j = 0; j < goldGraph.getEdges().size(); j++){
-				goldEdge = goldGraph.getEdges().get(j);
-				
-				if(goldEdge.getLabel().equals("passive"))
-					continue;
-				bestTestEdge = null;
-				bestTestEdgeScore = Double.MIN_VALUE;
-				for(int k = 0; k < availableEdges.size(); k++){
-					testEdge = availableEdges.get(k);
-					if(testEdge.getLabel().equals("passive"))
-						continue;
-					testEdgeScore = edgeMatch(testEdge, goldEdge, edgeMatchType);
-					if(testEdgeScore > 0 && testEdgeScore > bestTestEdgeScore){
-						bestTestEdgeScore = testEdgeScore;
-						bestTestEdge = testEdge;
-					}
-				}
-				if(bestTestEdge != null){
-					List<String> goldLabelTypes = RaspGrTypeHierarchy.getSubsumed(goldEdge.getLabel());
-					List<String> testLabelTypes = RaspGrTypeHierarchy.getSubsumed(bestTestEdge.getLabel());
-					
-					for(String t : goldLabelTypes){
-						if(testLabelTypes.contains(t))
-							sums.put(t, sums.get(t)+1.0);
-					}
-					
-					overallScore += bestTestEdgeScore;
-					availableEdges.remove(bestTestEdge);
-				}
-			}
-		}
-		
-		
-		ArrayList<String> edgeLabels = new ArrayList<String>(sums.keySet());
-		Collections.sort(edgeLabels);
-		String results = "Label\tCorrect\tTest\tGold\tPrec\tRec\tFmeasure\n";
-		for(String edgeLabel : edgeLabels){
-			double prec = sums.get(edgeLabel) / testSums.get(edgeLabel);
-			double rec = sums.get(edgeLabel) / goldSums.get(edgeLabel);
-			double f = 2 * prec * rec / (prec + rec);
-			results += (edgeLabel  + "\t" + sums.get(edgeLabel)  + "\t" + testSums.get(edgeLabel) + "\t" + goldSums.get(edgeLabel) + "\t" + prec + "\t" + rec + "\t" + f);
-			results += "\n";
-		}
-		return results;
+		TypeStatistics typeStatistics = new TypeStatistics();
+		for(int i = 0; i < goldGraphs.size(); i++)
+			typeStatistics.add(topTestGraphs.get(i), goldGraphs.get(i), edgeMatchType);
+		return typeStatistics.toString();
 	}
 }
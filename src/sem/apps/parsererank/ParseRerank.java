@@ -2,7 +2,6 @@ package sem.apps.parsererank;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.Map.Entry;
 
@@ -33,16 +32,14 @@ public class ParseRerank {
 
 	public static LinkedHashMap<Graph,Double> filterDuplicates(LinkedHashMap<Graph,Double> graphs, boolean adjustScores){
 		LinkedHashMap<Graph,Double> newGraphs = new LinkedHashMap<Graph,Double>();
-		HashSet<String> hashes = new HashSet<String>();
+		GraphFingerprintSet fingerprints = new GraphFingerprintSet();
 		double score = graphs.size();
 		for(Entry<Graph,Double> e : Tools.sort(graphs, true).entrySet()){
-			String hash = Canonicaliser.getString(e.getKey());
-			if(!hashes.contains(hash)){
+			if(fingerprints.add(e.getKey())){
 				if(adjustScores)
 					newGraphs.put(e.getKey(), score);
 				else
 					newGraphs.put(e.getKey(), e.getValue());
-				hashes.add(hash);
 				score--;
 			}
 		}
@@ -97,19 +94,24 @@ public class ParseRerank {
 		return originalGraphs;
 	}
 	
+	/**
+	 * This is to match the gold standard, which has semicolons escaped for some reason
+	 */
+	static Graph normaliseGoldGraph(Graph g){
+		for(Node node : g.getNodes()){
+			if(node.getLemma().equals("\\;"))
+				node.setLemma(";");
+		}
+		return g;
+	}
+	
 	public static ArrayList<Graph> loadGoldGraphs(String goldPath){
 		log("# Reading in gold standard...");
 		ArrayList<Graph> goldGraphs = new ArrayList<Graph>();
 		try {
 			ParsevalGraphReader goldReader = new ParsevalGraphReader(goldPath, false, true);
 			while(goldReader.hasNext()){
-				// This is to match the gold standard, which has semicolons escaped for some reason
-				Graph g = goldReader.next();
-				for(Node node : g.getNodes()){
-					if(node.getLemma().equals("\\;"))
-						node.setLemma(";");
-				}
-				goldGraphs.add(g);
+				goldGraphs.add(normaliseGoldGraph(goldReader.next()));
 			}
 		} catch (GraphFormatException e) {
 			throw new RuntimeException(e);
@@ -174,6 +176,21 @@ public class ParseRerank {
 		return scoredGraphs;
 	}
 	
+	public static ArrayList<GraphEditor> createGraphEditors(String lemmaMapPath, String posMapPath){
+		return new ArrayList<GraphEditor>(Arrays.asList(
+				new LemmatiserGraphEditor(lemmaMapPath),
+				//new ConvertPosGraphEditor(ConvertPosGraphEditor.CONVERSION_NONE),
+				new LowerCaseGraphEditor(),
+				new NumTagsGraphEditor(),
+				new BypassConjGraphEditor(posMapPath),
+				new BypassAdpGraphEditor(3, posMapPath),
+				new CombineSubjObjGraphEditor(4, posMapPath),
+				new AddNodesGraphEditor(4)//,
+				//new ReverseEdgesGraphEditor(),
+				//new NullEdgesGraphEditor()
+				));
+	}
+	
 	public static String formatResults(LinkedHashMap<String,Double> results){
 		String strResult = "";
 		for(Entry<String,Double> result : results.entrySet())
@@ -200,18 +217,7 @@ public class ParseRerank {
 		int edgeMatchType = ParseEvaluator.MATCH_HIERARCHICAL;
 		int expansionLimit = 10;
 		
-		ArrayList<GraphEditor> graphEditors = new ArrayList<GraphEditor>(Arrays.asList(
-				new LemmatiserGraphEditor(lemmaMapPath),
-				//new ConvertPosGraphEditor(ConvertPosGraphEditor.CONVERSION_NONE),
-				new LowerCaseGraphEditor(),
-				new NumTagsGraphEditor(),
-				new BypassConjGraphEditor(posMapPath),
-				new BypassAdpGraphEditor(3, posMapPath),
-				new CombineSubjObjGraphEditor(4, posMapPath),
-				new AddNodesGraphEditor(4)//,
-				//new ReverseEdgesGraphEditor(),
-				//new NullEdgesGraphEditor()
-				));
+		ArrayList<GraphEditor> graphEditors = createGraphEditors(lemmaMapPath, posMapPath);
 		
 		
 		ArrayList<LinkedHashMap<Graph,Double>> originalGraphs = loadOriginalGraphs(inputPath, true);
@@ -247,6 +253,25 @@ public class ParseRerank {
 		return results;
 	}
 	
+	/**
+	 * The same experiment as run(), but with ParseRerankPipeline, so the dataset is never fully loaded into memory.
+	 */
+	public static LinkedHashMap<String,Double> runStreaming(SemModel semModel, String datasetPath, String expansionListPath, String posMapPath, String edgeScorerType, int graphScorerType, int numThreads){
+		String inputPath = datasetPath + "/parsed.xml";
+		String goldPath = datasetPath + "/gold.rasp";
+		String lemmaMapPath = datasetPath + "/lemmas.map";
+		int edgeMatchType = ParseEvaluator.MATCH_HIERARCHICAL;
+		int expansionLimit = 10;
+
+		ParseRerankPipeline pipeline = new ParseRerankPipeline(edgeScorerType, graphScorerType, createGraphEditors(lemmaMapPath, posMapPath), semModel, expansionListPath, expansionLimit, edgeMatchType, true, numThreads);
+		LinkedHashMap<String,Double> results = pipeline.run(inputPath, goldPath, null);
+		log(formatResults(results));
+		
+		log(pipeline.getTypeStatistics().toString());
+		
+		return results;
+	}
+
 	public static void runExperiments(){
 		for(String dataset : Arrays.asList("devsub", "test", "genia")){
 			String datasetPath = "/anfs/bigdisc/mr472/corpora/ParseRerank/" + dataset + "/";
@@ -0,0 +1,297 @@
+package sem.apps.parsererank;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map.Entry;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import sem.exception.GraphFormatException;
+import sem.graph.Graph;
+import sem.grapheditor.GraphEditor;
+import sem.graphreader.ParsevalGraphReader;
+import sem.graphreader.RaspXmlGraphReader;
+import sem.model.SemModel;
+import sem.util.Tools;
+
+/**
+ * Reranks and evaluates the parses of a single sentence.
+ * The projected graphs only exist inside the task, so they can be collected as soon as the sentence is finished.
+ */
+class ParseRerankTask implements Runnable{
+	private Graph goldGraph;
+	private ParseRerankPipeline pipeline;
+
+	LinkedHashMap<Graph,Double> originalParses;
+	LinkedHashMap<Graph,Double> rerankedParses;
+	double baselineCorrect, baselineTotal, testCorrect, testTotal, goldTotal, spearman;
+	boolean bestOnTop;
+	TypeStatistics typeStatistics;
+
+	public ParseRerankTask(LinkedHashMap<Graph,Double> originalParses, Graph goldGraph, ParseRerankPipeline pipeline){
+		this.originalParses = originalParses;
+		this.goldGraph = goldGraph;
+		this.pipeline = pipeline;
+	}
+
+	@Override
+	public void run() {
+		if(pipeline.filterDuplicates)
+			originalParses = ParseRerank.filterDuplicates(originalParses, true);
+
+		if(pipeline.upperBound){
+			rerankedParses = new LinkedHashMap<Graph,Double>();
+			for(Graph g : originalParses.keySet())
+				rerankedParses.put(g, ParseEvaluator.getFMeasure(g, goldGraph, pipeline.edgeMatchType));
+			rerankedParses = Tools.sort(rerankedParses, true);
+		}
+		else if(pipeline.edgeScorer == null)
+			rerankedParses = Tools.sort(originalParses, true);
+		else
+			rerankedParses = rescore();
+
+		if(goldGraph != null)
+			evaluate();
+	}
+
+	/**
+	 * Project the parses with the graph editors, score the projections and map the scores back to the original parses.
+	 */
+	private LinkedHashMap<Graph,Double> rescore(){
+		LinkedHashMap<Graph,Double> projectedParses = new LinkedHashMap<Graph,Double>();
+		LinkedHashMap<Graph,Graph> projectionMap = new LinkedHashMap<Graph,Graph>();
+		for(Entry<Graph,Double> e : originalParses.entrySet()){
+			Graph projectedGraph = e.getKey().clone();
+			for(GraphEditor graphEditor : pipeline.graphEditors)
+				graphEditor.edit(projectedGraph);
+			projectedParses.put(projectedGraph, e.getValue());
+			projectionMap.put(projectedGraph, e.getKey());
+		}
+
+		LinkedHashMap<Graph,Double> scoredProjectedParses = new LinkedHashMap<Graph,Double>();
+		new GraphScorerTask(projectedParses, scoredProjectedParses, pipeline.edgeScorer, pipeline.graphScorerType).run();
+
+		LinkedHashMap<Graph,Double> scoredParses = new LinkedHashMap<Graph,Double>();
+		for(Entry<Graph,Double> e : Tools.sort(scoredProjectedParses, true).entrySet())
+			scoredParses.put(projectionMap.get(e.getKey()), e.getValue());
+		return scoredParses;
+	}
+
+	/**
+	 * Calculate the contribution of this sentence to the measures of ParseEvaluator.run(), to the significance test and to the type statistics.
+	 */
+	private void evaluate(){
+		int edgeMatchType = pipeline.edgeMatchType;
+		Graph topBaseline = getTop(originalParses);
+		Graph topTest = getTop(rerankedParses);
+		baselineCorrect = ParseEvaluator.findEdgeMappingScore(topBaseline, goldGraph, edgeMatchType);
+		baselineTotal = ParseEvaluator.findEdgeMappingScore(topBaseline, edgeMatchType);
+		testCorrect = ParseEvaluator.findEdgeMappingScore(topTest, goldGraph, edgeMatchType);
+		testTotal = ParseEvaluator.findEdgeMappingScore(topTest, edgeMatchType);
+		goldTotal = ParseEvaluator.findEdgeMappingScore(goldGraph, edgeMatchType);
+		typeStatistics = new TypeStatistics();
+		typeStatistics.add(topTest, goldGraph, edgeMatchType);
+
+		// The F-measure of every parse is used both for the rank correlation and for checking whether the best parse is on top
+		LinkedHashMap<Graph,Double> parsesRated = new LinkedHashMap<Graph,Double>();
+		double topScore = -1, bestScore = -1;
+		for(Graph g : rerankedParses.keySet()){
+			double score = ParseEvaluator.getFMeasure(g, goldGraph, edgeMatchType);
+			parsesRated.put(g, score);
+			if(topScore < 0)
+				topScore = score;
+			if(score > bestScore)
+				bestScore = score;
+		}
+		bestOnTop = (topScore > -1 && topScore == bestScore);
+		spearman = Tools.spearman(rerankedParses, parsesRated);
+		if(Double.isNaN(spearman))
+			spearman = 0.0;
+	}
+
+	private static Graph getTop(LinkedHashMap<Graph,Double> parses){
+		for(Graph g : Tools.sort(parses, true).keySet())
+			return g;
+		return new Graph();
+	}
+}
+
+/**
+ * Reranks a parsed corpus one sentence at a time, without loading the whole corpus into memory.
+ * <p>The k-best list of each sentence is read with RaspXmlGraphReader.nextSentence(), and projected, scored, mapped back and evaluated by a worker thread.
+ * At most maxPendingSentences sentences are in the pipeline at any time, and the finished sentences are passed to a RerankedSentenceHandler in the order of the input.
+ * For evaluation, only the edge score sums and the type statistics are kept, plus two numbers for every sentence where the reranked top parse differs from the original one.
+ * <p>The results are the same as with ParseRerank.run().
+ */
+public class ParseRerankPipeline {
+	int graphScorerType;
+	int edgeMatchType;
+	ArrayList<GraphEditor> graphEditors;
+	EdgeScorer edgeScorer;
+	boolean upperBound;
+	boolean filterDuplicates;
+	private int numThreads;
+	private int maxPendingSentences;
+	private TypeStatistics typeStatistics;
+
+	/**
+	 * @param edgeScorerType Edge scorer type, or BASELINE to keep the original ranking, or UPPERBOUND to rank by F-measure against the gold standard
+	 * @param graphScorerType Method for combining the edge scores, one of the GraphScorer.COMBINE_* constants
+	 * @param graphEditors Graph editors for creating the projected graphs. They are shared between the threads, so they should not keep any state between graphs.
+	 * @param semModel Model for the edge scorer
+	 * @param expansionMapPath Path to the expansion map, or null
+	 * @param expansionLimit Maximum number of expansions for a word
+	 * @param edgeMatchType Edge matching type for evaluation
+	 * @param filterDuplicates Whether to remove duplicate parses of a sentence before reranking
+	 * @param numThreads Number of threads
+	 */
+	public ParseRerankPipeline(String edgeScorerType, int graphScorerType, ArrayList<GraphEditor> graphEditors, SemModel semModel, String expansionMapPath, int expansionLimit, int edgeMatchType, boolean filterDuplicates, int numThreads){
+		this.graphScorerType = graphScorerType;
+		this.edgeMatchType = edgeMatchType;
+		this.graphEditors = graphEditors;
+		this.filterDuplicates = filterDuplicates;
+		this.numThreads = numThreads;
+		this.maxPendingSentences = numThreads * 4;
+
+		this.upperBound = edgeScorerType.equalsIgnoreCase("UPPERBOUND");
+		if(this.upperBound || edgeScorerType.equalsIgnoreCase("BASELINE"))
+			this.edgeScorer = null;
+		else
+			this.edgeScorer = new EdgeScorer(edgeScorerType, semModel, expansionMapPath, expansionLimit);
+	}
+
+	/**
+	 * Get the edge scorer, or null for the baseline and the upper bound.
+	 */
+	public EdgeScorer getEdgeScorer(){
+		return this.edgeScorer;
+	}
+
+	/**
+	 * Set the maximum number of sentences that are read in but not yet passed to the handler. This bounds the memory use of the pipeline.
+	 */
+	public void setMaxPendingSentences(int maxPendingSentences){
+		if(maxPendingSentences < 1)
+			throw new IllegalArgumentException("The pipeline needs room for at least one sentence: " + maxPendingSentences);
+		this.maxPendingSentences = maxPendingSentences;
+	}
+
+	/**
+	 * Get the type statistics of the last run with a gold standard, or null if there has not been one.
+	 */
+	public TypeStatistics getTypeStatistics(){
+		return this.typeStatistics;
+	}
+
+	/**
+	 * Rerank all the sentences of a parsed corpus.
+	 * With a gold standard, the type statistics are also collected, and can be read with getTypeStatistics() afterwards.
+	 * @param inputPath Path to the RASP XML file with the k-best parses
+	 * @param goldPath Path to the gold standard in the parseval format, or null if there is no gold standard
+	 * @param handler Handler for the reranked sentences, or null
+	 * @return Evaluation results with the same keys as ParseEvaluator.run() and ParseEvaluator.calculateStatisticalSignificance(), or an empty map if there is no gold standard
+	 */
+	public LinkedHashMap<String,Double> run(String inputPath, String goldPath, RerankedSentenceHandler handler){
+		if(upperBound && goldPath == null)
+			throw new IllegalArgumentException("The upper bound needs a gold standard");
+
+		double baselineCorrect = 0.0, baselineTotal = 0.0, testCorrect = 0.0, testTotal = 0.0, goldTotal = 0.0, spearmanSum = 0.0;
+		int bestCount = 0, sentenceCount = 0, differing = 0;
+		double[] correctDiffs = new double[1024], totalDiffs = new double[1024];
+		TypeStatistics typeStatistics = new TypeStatistics();
+
+		BlockingQueue<Runnable> queue = new LinkedBlockingQueue<Runnable>();
+		LinkedList<Future<?>> futures = new LinkedList<Future<?>>();
+		LinkedList<ParseRerankTask> tasks = new LinkedList<ParseRerankTask>();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(numThreads, numThreads, 30, TimeUnit.SECONDS, queue);
+		try{
+			RaspXmlGraphReader inputReader = new RaspXmlGraphReader(inputPath, RaspXmlGraphReader.NODES_TOKENS, true, false);
+			ParsevalGraphReader goldReader = (goldPath == null)?null:new ParsevalGraphReader(goldPath, false, true);
+
+			while(inputReader.hasNext() || !tasks.isEmpty()){
+				while(inputReader.hasNext() && tasks.size() < maxPendingSentences){
+					ArrayList<Graph> sentence = inputReader.nextSentence();
+					LinkedHashMap<Graph,Double> graphMap = new LinkedHashMap<Graph,Double>();
+					double score = sentence.size();
+					for(Graph graph : sentence){
+						graphMap.put(graph, score);
+						score -= 1.0;
+					}
+
+					Graph goldGraph = null;
+					if(goldReader != null){
+						if(!goldReader.hasNext())
+							throw new RuntimeException("The gold standard has fewer sentences than the input: " + (sentenceCount + tasks.size()));
+						goldGraph = ParseRerank.normaliseGoldGraph(goldReader.next());
+					}
+
+					ParseRerankTask task = new ParseRerankTask(graphMap, goldGraph, this);
+					tasks.add(task);
+					futures.add(executor.submit(task));
+				}
+
+				// Collecting the oldest sentence, so the output stays in the input order
+				futures.removeFirst().get();
+				ParseRerankTask task = tasks.removeFirst();
+				if(handler != null)
+					handler.handle(sentenceCount, task.originalParses, task.rerankedParses);
+				sentenceCount++;
+
+				if(goldReader != null){
+					baselineCorrect += task.baselineCorrect;
+					baselineTotal += task.baselineTotal;
+					testCorrect += task.testCorrect;
+					testTotal += task.testTotal;
+					goldTotal += task.goldTotal;
+					spearmanSum += task.spearman;
+					typeStatistics.add(task.typeStatistics);
+					if(task.bestOnTop)
+						bestCount++;
+
+					// Swapping a sentence moves the difference from one system to the other
+					if(task.testCorrect != task.baselineCorrect || task.testTotal != task.baselineTotal){
+						if(differing == correctDiffs.length){
+							correctDiffs = Arrays.copyOf(correctDiffs, differing * 2);
+							totalDiffs = Arrays.copyOf(totalDiffs, differing * 2);
+						}
+						correctDiffs[differing] = task.testCorrect - task.baselineCorrect;
+						totalDiffs[differing] = task.testTotal - task.baselineTotal;
+						differing++;
+					}
+				}
+			}
+
+			if(goldReader != null && goldReader.hasNext())
+				throw new RuntimeException("The gold standard has more sentences than the input: " + sentenceCount);
+			inputReader.close();
+			if(goldReader != null)
+				goldReader.close();
+		} catch (GraphFormatException e) {
+			throw new RuntimeException(e);
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			executor.shutdownNow();
+		}
+
+		LinkedHashMap<String,Double> results = new LinkedHashMap<String,Double>();
+		if(goldPath == null)
+			return results;
+		this.typeStatistics = typeStatistics;
+
+		results.put("precision", testCorrect / testTotal);
+		results.put("recall", testCorrect / goldTotal);
+		results.put("fmeasure", ParseEvaluator.getFMeasure(results.get("precision"), results.get("recall")));
+		results.put("avgspearmans", spearmanSum / (double)sentenceCount);
+		results.put("best", (double)bestCount);
+		results.putAll(ParseEvaluator.calculateStatisticalSignificance(Arrays.copyOf(correctDiffs, differing), Arrays.copyOf(totalDiffs, differing), baselineCorrect, testCorrect, baselineTotal, testTotal, goldTotal, 1000000, numThreads, 0.0));
+		return results;
+	}
+}
@@ -138,4 +138,49 @@ public class RaspGrTypeHierarchy {
 			parents = createParents();
 		return Collections.unmodifiableSet(parents.keySet());
 	}
+	
+	/**
+	 * Small integer ids for the GR types, from 0 to getNumTypes()-1. Created as needed.
+	 */
+	private static volatile HashMap<String,Integer> typeIds;
+	private static String[] typeLabels;
+	
+	private static synchronized void createTypeIds(){
+		if(typeIds != null)
+			return;
+		ArrayList<String> types = new ArrayList<String>(getTypes());
+		Collections.sort(types);
+		HashMap<String,Integer> tempTypeIds = new HashMap<String,Integer>();
+		for(int i = 0; i < types.size(); i++)
+			tempTypeIds.put(types.get(i), i);
+		typeLabels = types.toArray(new String[types.size()]);
+		typeIds = tempTypeIds;
+	}
+	
+	/**
+	 * Get the id of a GR type
+	 * @param type GR Type
+	 * @return The id, or -1 if the type is not in the hierarchy
+	 */
+	public static int getTypeId(String type){
+		if(typeIds == null)
+			createTypeIds();
+		Integer id = typeIds.get(type);
+		return (id == null)?-1:id;
+	}
+	
+	/**
+	 * Get the GR type for an id from getTypeId()
+	 */
+	public static String getTypeLabel(int id){
+		if(typeIds == null)
+			createTypeIds();
+		return typeLabels[id];
+	}
+	
+	public static int getNumTypes(){
+		if(typeIds == null)
+			createTypeIds();
+		return typeLabels.length;
+	}
 }
@@ -0,0 +1,18 @@
+package sem.apps.parsererank;
+
+import java.util.LinkedHashMap;
+
+import sem.graph.Graph;
+
+/**
+ * Receives the reranked parses of every sentence from a ParseRerankPipeline, in the order of the input.
+ */
+public interface RerankedSentenceHandler {
+	/**
+	 * Handle the parses of one sentence. This is called from the thread that runs the pipeline, so it does not have to be thread-safe.
+	 * @param sentenceId Position of the sentence in the input, starting from 0
+	 * @param originalParses The original parses, with the scores given to them by the parser
+	 * @param rerankedParses The original parses with the new scores, sorted by score, highest first
+	 */
+	public void handle(int sentenceId, LinkedHashMap<Graph,Double> originalParses, LinkedHashMap<Graph,Double> rerankedParses);
+}
@@ -0,0 +1,103 @@
+package sem.apps.parsererank;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import sem.exception.SemModelException;
+import sem.graph.Graph;
+import sem.grapheditor.GraphEditor;
+import sem.model.SemModel;
+
+/**
+ * Collects the top reranked parse of every sentence, edited the same way as the graphs that the model was built from.
+ */
+class TopParseCollector implements RerankedSentenceHandler{
+	private ArrayList<GraphEditor> modelGraphEditors;
+	ArrayList<Graph> graphs;
+
+	public TopParseCollector(ArrayList<GraphEditor> modelGraphEditors){
+		this.modelGraphEditors = modelGraphEditors;
+		this.graphs = new ArrayList<Graph>();
+	}
+
+	@Override
+	public void handle(int sentenceId, LinkedHashMap<Graph,Double> originalParses, LinkedHashMap<Graph,Double> rerankedParses) {
+		for(Graph graph : rerankedParses.keySet()){
+			// Skipping the sentences where the parser failed, as in ModelBuilder
+			if(graph.hasMetadata() && graph.getMetadata("xparse") != null && graph.getMetadata("xparse").equals("true"))
+				break;
+			Graph topGraph = graph.clone();
+			for(GraphEditor graphEditor : modelGraphEditors)
+				graphEditor.edit(topGraph);
+			graphs.add(topGraph);
+			break;
+		}
+	}
+}
+
+/**
+ * Self-training for parse reranking.
+ * Every shard of a corpus is reranked with the current model, and the top parse of each sentence is added to the same model with SemModel.update(),
+ * so the next shard is reranked with the new statistics without rebuilding the model with ModelBuilder.
+ * <p>The model is only read while a shard is being reranked and only written between shards, as it cannot be read and written at the same time.
+ * The top parses of one shard are kept in memory until the shard is finished, so the shard size bounds the memory use.
+ */
+public class SelfTrainer {
+	private SemModel semModel;
+	private ParseRerankPipeline pipeline;
+	private ArrayList<GraphEditor> modelGraphEditors;
+
+	/**
+	 * @param semModel The model that is trained
+	 * @param pipeline Reranking pipeline that scores edges with semModel
+	 * @param modelGraphEditors Graph editors that were used when building semModel, applied to the top parses before they are added
+	 */
+	public SelfTrainer(SemModel semModel, ParseRerankPipeline pipeline, ArrayList<GraphEditor> modelGraphEditors){
+		if(pipeline.getEdgeScorer() == null || pipeline.getEdgeScorer().semModel != semModel)
+			throw new IllegalArgumentException("The pipeline has to score the edges with the model that is trained");
+		this.semModel = semModel;
+		this.pipeline = pipeline;
+		this.modelGraphEditors = modelGraphEditors;
+	}
+
+	/**
+	 * Rerank a shard and add the top parses to the model.
+	 * @param shardPath Path to the RASP XML file or directory with the k-best parses of the shard
+	 * @return Number of graphs added to the model
+	 */
+	public int trainOnShard(String shardPath){
+		TopParseCollector collector = new TopParseCollector(modelGraphEditors);
+		pipeline.run(shardPath, null, collector);
+		try {
+			semModel.update(collector.graphs);
+		} catch (SemModelException e) {
+			throw new RuntimeException(e);
+		}
+		pipeline.getEdgeScorer().refresh();
+		return collector.graphs.size();
+	}
+
+	/**
+	 * Run self-training over all the shards in order, optionally evaluating on a development set after every shard.
+	 * @param shardPaths Paths to the shards
+	 * @param devInputPath Path to the k-best parses of the development set, or null to skip evaluation
+	 * @param devGoldPath Path to the gold standard of the development set
+	 * @return Evaluation results after every shard, empty if there is no development set
+	 */
+	public ArrayList<LinkedHashMap<String,Double>> run(List<String> shardPaths, String devInputPath, String devGoldPath){
+		ArrayList<LinkedHashMap<String,Double>> results = new ArrayList<LinkedHashMap<String,Double>>();
+		for(int i = 0; i < shardPaths.size(); i++){
+			long startTime = System.currentTimeMillis();
+			int added = trainOnShard(shardPaths.get(i));
+			System.out.println("# Shard " + (i+1) + "/" + shardPaths.size() + ": added " + added + " graphs in " + (System.currentTimeMillis() - startTime)/1000 + "s");
+
+			if(devInputPath != null){
+				LinkedHashMap<String,Double> shardResults = pipeline.run(devInputPath, devGoldPath, null);
+				System.out.println(ParseRerank.formatResults(shardResults));
+				results.add(shardResults);
+			}
+		}
+		return results;
+	}
+}
@@ -0,0 +1,116 @@
+package sem.apps.parsererank;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import sem.graph.Edge;
+import sem.graph.Graph;
+
+/**
+ * Correct, test and gold edge counts for every GR type, where an edge counts towards its own type and all the types above it in RaspGrTypeHierarchy.
+ * Sentences can be added one at a time, so the statistics can also be collected while streaming through a corpus.
+ */
+public class TypeStatistics {
+	private double[] correct;
+	private double[] test;
+	private double[] gold;
+
+	public TypeStatistics(){
+		int numTypes = RaspGrTypeHierarchy.getNumTypes();
+		this.correct = new double[numTypes];
+		this.test = new double[numTypes];
+		this.gold = new double[numTypes];
+	}
+
+	/**
+	 * Add the counts for one sentence.
+	 * @param testGraph The top parse of the sentence
+	 * @param goldGraph The gold standard graph
+	 * @param edgeMatchType Edge matching type
+	 */
+	public void add(Graph testGraph, Graph goldGraph, int edgeMatchType){
+		for(Edge e : goldGraph.getEdges()){
+			if(e.getLabel().equals("passive"))
+				continue;
+			for(String t : RaspGrTypeHierarchy.getSubsumed(e.getLabel()))
+				gold[RaspGrTypeHierarchy.getTypeId(t)]++;
+		}
+
+		ArrayList<Edge> availableEdges = new ArrayList<Edge>();
+
+		// The ellipses are placed at the bottom to maximize better matching.
+		// The ncsubj relations are placed at the bottom to match the official RASP evaluation code.
+		for(Edge e : testGraph.getEdges()){
+			if(!e.getHead().getLabel().equals(Graph.ellip.getLabel()) && !e.getDep().getLabel().equals(Graph.ellip.getLabel()) && !e.getLabel().equals("ncsubj"))
+				availableEdges.add(e);
+		}
+		for(Edge e : testGraph.getEdges()){
+			if(!e.getLabel().equals("ncsubj") && !availableEdges.contains(e))
+				availableEdges.add(e);
+		}
+		for(Edge e : testGraph.getEdges()){
+			if(e.getLabel().equals("ncsubj") && !availableEdges.contains(e))
+				availableEdges.add(e);
+		}
+		for(Edge e : testGraph.getEdges()){
+			if(e.getLabel().equals("passive"))
+				continue;
+			for(String t : RaspGrTypeHierarchy.getSubsumed(e.getLabel()))
+				test[RaspGrTypeHierarchy.getTypeId(t)]++;
+		}
+
+		Edge testEdge, bestTestEdge;
+		double testEdgeScore, bestTestEdgeScore;
+		for(Edge goldEdge : goldGraph.getEdges()){
+			if(goldEdge.getLabel().equals("passive"))
+				continue;
+			bestTestEdge = null;
+			bestTestEdgeScore = Double.MIN_VALUE;
+			for(int k = 0; k < availableEdges.size(); k++){
+				testEdge = availableEdges.get(k);
+				if(testEdge.getLabel().equals("passive"))
+					continue;
+				testEdgeScore = ParseEvaluator.edgeMatch(testEdge, goldEdge, edgeMatchType);
+				if(testEdgeScore > 0 && testEdgeScore > bestTestEdgeScore){
+					bestTestEdgeScore = testEdgeScore;
+					bestTestEdge = testEdge;
+				}
+			}
+			if(bestTestEdge != null){
+				List<String> testLabelTypes = RaspGrTypeHierarchy.getSubsumed(bestTestEdge.getLabel());
+				for(String t : RaspGrTypeHierarchy.getSubsumed(goldEdge.getLabel())){
+					if(testLabelTypes.contains(t))
+						correct[RaspGrTypeHierarchy.getTypeId(t)]++;
+				}
+				availableEdges.remove(bestTestEdge);
+			}
+		}
+	}
+
+	/**
+	 * Add the counts from another object.
+	 */
+	public void add(TypeStatistics other){
+		for(int i = 0; i < correct.length; i++){
+			correct[i] += other.correct[i];
+			test[i] += other.test[i];
+			gold[i] += other.gold[i];
+		}
+	}
+
+	/**
+	 * Tab-separated table with the counts, precision, recall and F-measure of every type, sorted by type.
+	 */
+	@Override
+	public String toString(){
+		StringBuilder results = new StringBuilder("Label\tCorrect\tTest\tGold\tPrec\tRec\tFmeasure\n");
+		for(int i = 0; i < correct.length; i++){
+			double prec = correct[i] / test[i];
+			double rec = correct[i] / gold[i];
+			double f = 2 * prec * rec / (prec + rec);
+			results.append(RaspGrTypeHierarchy.getTypeLabel(i) + "\t" + correct[i] + "\t" + test[i] + "\t" + gold[i] + "\t" + prec + "\t" + rec + "\t" + f);
+			results.append("\n");
+		}
+		return results.toString();
+	}
+}
@@ -0,0 +1,492 @@
+package sem.model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.PriorityQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import sem.util.FeatureHash;
+import sem.util.SparseVector;
+
+/**
+ * Projects the vectors of a range of words into the embedding space.
+ */
+class EmbeddingTask implements Runnable{
+	EmbeddingSpace embeddingSpace;
+	int start, end;
+
+	public EmbeddingTask(EmbeddingSpace embeddingSpace, int start, int end){
+		this.embeddingSpace = embeddingSpace;
+		this.start = start;
+		this.end = end;
+	}
+
+	@Override
+	public void run() {
+		int rank = embeddingSpace.getRank();
+		for(int row = start; row < end; row++)
+			embeddingSpace.project(embeddingSpace.vectorSpace.getSparseVector(embeddingSpace.labels[row]), embeddingSpace.data, row * rank);
+	}
+}
+
+/**
+ * Finds the top rows for all the queries in a range of rows.
+ */
+class EmbeddingSearchTask implements Runnable{
+	EmbeddingSpace embeddingSpace;
+	float[][] queries;
+	int limit;
+	int start, end;
+	ArrayList<PriorityQueue<EmbeddingSpace.ScoredRow>> results;
+
+	public EmbeddingSearchTask(EmbeddingSpace embeddingSpace, float[][] queries, int limit, int start, int end){
+		this.embeddingSpace = embeddingSpace;
+		this.queries = queries;
+		this.limit = limit;
+		this.start = start;
+		this.end = end;
+		this.results = new ArrayList<PriorityQueue<EmbeddingSpace.ScoredRow>>();
+		for(int q = 0; q < queries.length; q++)
+			this.results.add(new PriorityQueue<EmbeddingSpace.ScoredRow>(limit + 1, EmbeddingSpace.WORST_FIRST));
+	}
+
+	@Override
+	public void run() {
+		int rank = embeddingSpace.getRank();
+		float[] block = new float[EmbeddingSpace.BLOCK_ROWS * rank];
+
+		// A block of rows is read once and compared against all the queries while it is in the cache
+		for(int blockStart = start; blockStart < end; blockStart += EmbeddingSpace.BLOCK_ROWS){
+			int blockRows = Math.min(EmbeddingSpace.BLOCK_ROWS, end - blockStart);
+			embeddingSpace.getRows(blockStart, blockRows, block);
+			for(int q = 0; q < queries.length; q++){
+				if(queries[q] == null)
+					continue;
+				PriorityQueue<EmbeddingSpace.ScoredRow> result = results.get(q);
+				for(int r = 0; r < blockRows; r++){
+					float score = EmbeddingSpace.dot(queries[q], 0, block, r * rank, rank);
+					if(result.size() < limit || score > result.peek().score){
+						result.add(new EmbeddingSpace.ScoredRow(blockStart + r, score));
+						if(result.size() > limit)
+							result.poll();
+					}
+				}
+			}
+		}
+	}
+}
+
+/**
+ * Dense low-rank embeddings of the words in a VectorSpace.
+ * <p>The sparse feature vectors are multiplied with a random sign matrix, which approximately preserves the angles between them (Johnson-Lindenstrauss).
+ * The random signs are derived from the feature labels and the seed, so only the seed needs to be stored. The embeddings are normalised to unit length, so the dot product of two rows is their cosine similarity.
+ * Query words that are not in the embeddings are projected from their sparse vectors in the same way.
+ * <p>The matrix is saved next to the model, in path + EmbeddingSpace.fileSuffix, as a header, the float matrix in row-major order, and the list of words. A loaded matrix is memory-mapped and not read into the heap.
+ * <p>EmbeddingNeighbourIndex uses the embeddings as a NeighbourIndex for SimFinder.
+ */
+public class EmbeddingSpace {
+	public static final String fileSuffix = "_embeddings.bin";
+
+	private static final int FILE_VERSION = 3;
+	private static final int HEADER_BYTES = 28;
+	static final int BLOCK_ROWS = 256;
+
+	String[] labels;
+	float[] data;
+	VectorSpace vectorSpace;
+
+	private HashMap<String,Integer> labelIds;
+	private int rank;
+	private int weightScheme;
+	private int featureCount;
+	private long seed;
+	private FeatureHash featureHash;
+	private FloatBuffer[] segments;
+	private int rowsPerSegment;
+
+	/**
+	 * A row and its score.
+	 */
+	static class ScoredRow {
+		int row;
+		float score;
+
+		ScoredRow(int row, float score){
+			this.row = row;
+			this.score = score;
+		}
+	}
+
+	static final Comparator<ScoredRow> WORST_FIRST = new Comparator<ScoredRow>(){
+		public int compare(ScoredRow a, ScoredRow b) {
+			int c = Float.compare(a.score, b.score);
+			return (c != 0)?c:Integer.compare(b.row, a.row);
+		}
+	};
+
+	/**
+	 * Build the embeddings with a random projection.
+	 * @param vectorSpace Vector space that provides the sparse vectors
+	 * @param words Words to embed
+	 * @param rank Number of dimensions
+	 * @param seed Random seed
+	 * @param numThreads Number of threads
+	 */
+	public EmbeddingSpace(VectorSpace vectorSpace, Collection<String> words, int rank, long seed, int numThreads){
+		if(rank <= 0)
+			throw new IllegalArgumentException("Rank needs to be positive: " + rank);
+		if((long)words.size() * rank > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Too many values for an in-memory matrix: " + words.size() + " x " + rank);
+		this.rank = rank;
+		this.weightScheme = vectorSpace.getWeightScheme();
+		this.featureCount = vectorSpace.getFeatureIndex().size();
+		setVectorSpace(vectorSpace, seed);
+		setLabels(words.toArray(new String[words.size()]));
+		this.data = new float[labels.length * rank];
+
+		BlockingQueue<Runnable> queue = new LinkedBlockingQueue<Runnable>();
+		ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(numThreads, numThreads, 30, TimeUnit.SECONDS, queue);
+
+		int chunkSize = Math.max(1, (labels.length + numThreads * 4 - 1) / (numThreads * 4));
+		for(int start = 0; start < labels.length; start += chunkSize)
+			futures.add(executor.submit(new EmbeddingTask(this, start, Math.min(labels.length, start + chunkSize))));
+
+		// Wait to finish
+		try {
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private EmbeddingSpace(){
+	}
+
+	private void setVectorSpace(VectorSpace vectorSpace, long seed){
+		this.vectorSpace = vectorSpace;
+		this.seed = seed;
+		this.featureHash = new FeatureHash(vectorSpace.getFeatureIndex(), seed);
+	}
+
+	private void setLabels(String[] labels){
+		this.labels = labels;
+		this.labelIds = new HashMap<String,Integer>();
+		for(int i = 0; i < labels.length; i++)
+			this.labelIds.put(labels[i], i);
+	}
+
+	/**
+	 * Memory-map embeddings that were saved with save().
+	 * The embeddings have to be built from the same vector space: the weighting scheme and the number of features have to match, and all the words have to be in it.
+	 * @param path Model path. The matrix is read from path + fileSuffix.
+	 * @param vectorSpace Vector space that the embeddings are used with
+	 * @return The embeddings
+	 */
+	public static EmbeddingSpace load(String path, VectorSpace vectorSpace){
+		try{
+			EmbeddingSpace embeddingSpace = new EmbeddingSpace();
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path + fileSuffix)));
+			int version = in.readInt();
+			if(version != FILE_VERSION)
+				throw new RuntimeException("Unsupported embedding file version: " + version);
+			embeddingSpace.weightScheme = in.readInt();
+			if(embeddingSpace.weightScheme != vectorSpace.getWeightScheme())
+				throw new RuntimeException("The embeddings were built with weighting scheme " + embeddingSpace.weightScheme + ", not " + vectorSpace.getWeightScheme());
+			embeddingSpace.featureCount = in.readInt();
+			if(embeddingSpace.featureCount != vectorSpace.getFeatureIndex().size())
+				throw new RuntimeException("The embeddings were built from " + embeddingSpace.featureCount + " features, not " + vectorSpace.getFeatureIndex().size());
+			int rows = in.readInt();
+			embeddingSpace.rank = in.readInt();
+			embeddingSpace.setVectorSpace(vectorSpace, in.readLong());
+
+			long matrixBytes = (long)rows * embeddingSpace.rank * 4;
+			long skipped = 0;
+			while(skipped < matrixBytes)
+				skipped += in.skip(matrixBytes - skipped);
+			String[] labels = new String[rows];
+			for(int i = 0; i < rows; i++){
+				labels[i] = in.readUTF();
+				if(!vectorSpace.contains(labels[i]))
+					throw new RuntimeException("The embeddings contain a word that is not in the vector space: " + labels[i]);
+			}
+			in.close();
+			embeddingSpace.setLabels(labels);
+
+			// A single mapping is limited to 2GB, so large matrices are mapped in segments of whole rows
+			RandomAccessFile file = new RandomAccessFile(path + fileSuffix, "r");
+			FileChannel channel = file.getChannel();
+			embeddingSpace.rowsPerSegment = Math.max(1, Integer.MAX_VALUE / (embeddingSpace.rank * 4));
+			int numSegments = (rows + embeddingSpace.rowsPerSegment - 1) / embeddingSpace.rowsPerSegment;
+			embeddingSpace.segments = new FloatBuffer[numSegments];
+			for(int s = 0; s < numSegments; s++){
+				long offset = HEADER_BYTES + (long)s * embeddingSpace.rowsPerSegment * embeddingSpace.rank * 4;
+				int segmentRows = Math.min(embeddingSpace.rowsPerSegment, rows - s * embeddingSpace.rowsPerSegment);
+				embeddingSpace.segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, offset, (long)segmentRows * embeddingSpace.rank * 4).asFloatBuffer();
+			}
+			file.close();
+			return embeddingSpace;
+		} catch(Exception e){
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Save the embeddings next to the model, into path + fileSuffix.
+	 * @param path Model path
+	 */
+	public void save(String path){
+		try{
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path + fileSuffix), 1 << 16));
+			out.writeInt(FILE_VERSION);
+			out.writeInt(weightScheme);
+			out.writeInt(featureCount);
+			out.writeInt(labels.length);
+			out.writeInt(rank);
+			out.writeLong(seed);
+			float[] row = new float[rank];
+			for(int i = 0; i < labels.length; i++){
+				getRows(i, 1, row);
+				for(int j = 0; j < rank; j++)
+					out.writeFloat(row[j]);
+			}
+			for(int i = 0; i < labels.length; i++)
+				out.writeUTF(labels[i]);
+			out.close();
+		} catch(Exception e){
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Copy consecutive rows of the matrix into a buffer.
+	 * @param start First row
+	 * @param count Number of rows
+	 * @param buffer Output buffer, needs to hold count * rank values
+	 */
+	void getRows(int start, int count, float[] buffer){
+		if(data != null){
+			System.arraycopy(data, start * rank, buffer, 0, count * rank);
+			return;
+		}
+		int copied = 0;
+		while(copied < count){
+			int row = start + copied;
+			int segment = row / rowsPerSegment;
+			int segmentRow = row % rowsPerSegment;
+			int rows = Math.min(count - copied, rowsPerSegment - segmentRow);
+			FloatBuffer view = segments[segment].duplicate();
+			view.position(segmentRow * rank);
+			view.get(buffer, copied * rank, rows * rank);
+			copied += rows;
+		}
+	}
+
+	/**
+	 * Project a sparse vector with the random sign matrix and normalise it to unit length.
+	 * @param vector Sparse feature vector
+	 * @param output Output array
+	 * @param offset Position of the rank values in the output array
+	 */
+	void project(SparseVector vector, float[] output, int offset){
+		int[] ids = vector.getIds();
+		double[] values = vector.getValues();
+
+		// Each 64-bit random number gives the signs of the random projection for 64 dimensions
+		double[] projection = new double[rank];
+		for(int i = 0; i < ids.length; i++){
+			if(values[i] == 0.0 || !featureHash.contains(ids[i]))
+				continue;
+			for(int block = 0; block * 64 < rank; block++){
+				long r = featureHash.random(ids[i], block);
+				for(int j = block * 64; j < Math.min(rank, block * 64 + 64); j++)
+					projection[j] += (((r >>> (j & 63)) & 1L) != 0L)?values[i]:-values[i];
+			}
+		}
+
+		double length = 0.0;
+		for(int j = 0; j < rank; j++)
+			length += projection[j] * projection[j];
+		length = Math.sqrt(length);
+		for(int j = 0; j < rank; j++)
+			output[offset + j] = (length > 0.0)?(float)(projection[j] / length):0.0f;
+	}
+
+	/**
+	 * Dot product with four independent accumulators, which the JIT compiler can vectorise.
+	 */
+	static float dot(float[] a, int aOffset, float[] b, int bOffset, int length){
+		float s0 = 0.0f, s1 = 0.0f, s2 = 0.0f, s3 = 0.0f;
+		int i = 0;
+		for(; i + 3 < length; i += 4){
+			s0 += a[aOffset + i] * b[bOffset + i];
+			s1 += a[aOffset + i + 1] * b[bOffset + i + 1];
+			s2 += a[aOffset + i + 2] * b[bOffset + i + 2];
+			s3 += a[aOffset + i + 3] * b[bOffset + i + 3];
+		}
+		for(; i < length; i++)
+			s0 += a[aOffset + i] * b[bOffset + i];
+		return (s0 + s1) + (s2 + s3);
+	}
+
+	public int getRank(){
+		return this.rank;
+	}
+
+	public int getWeightScheme(){
+		return this.weightScheme;
+	}
+
+	public int size(){
+		return this.labels.length;
+	}
+
+	public boolean contains(String word){
+		return this.labelIds.containsKey(word);
+	}
+
+	/**
+	 * Get the embedding of a word.
+	 * @param word
+	 * @return Unit length vector, or null if the word is not in the embeddings
+	 */
+	public float[] getVector(String word){
+		Integer row = labelIds.get(word);
+		if(row == null)
+			return null;
+		float[] vector = new float[rank];
+		getRows(row, 1, vector);
+		return vector;
+	}
+
+	/**
+	 * Get the approximate cosine similarity of two words.
+	 * @param word1
+	 * @param word2
+	 * @return Cosine of the embeddings, 0.0 if either word is not in the embeddings
+	 */
+	public double getScore(String word1, String word2){
+		float[] vector1 = getVector(word1);
+		float[] vector2 = getVector(word2);
+		if(vector1 == null || vector2 == null)
+			return 0.0;
+		return dot(vector1, 0, vector2, 0, rank);
+	}
+
+	/**
+	 * Get the vector for searching the neighbours of a word.
+	 * @param word
+	 * @return The embedding of the word, its projected sparse vector if it is only in the vector space, or null if it is in neither
+	 */
+	private float[] getQueryVector(String word){
+		float[] vector = getVector(word);
+		if(vector == null && vectorSpace.contains(word)){
+			vector = new float[rank];
+			project(vectorSpace.getSparseVector(word), vector, 0);
+		}
+		return vector;
+	}
+
+	/**
+	 * Add the best rows to a result, most similar first.
+	 */
+	private void addSorted(Collection<ScoredRow> rows, int limit, LinkedHashMap<String,Double> result){
+		ScoredRow[] sorted = rows.toArray(new ScoredRow[rows.size()]);
+		Arrays.sort(sorted, Collections.reverseOrder(WORST_FIRST));
+		for(int i = 0; i < Math.min(limit, sorted.length); i++)
+			result.put(labels[sorted[i].row], (double)sorted[i].score);
+	}
+
+	/**
+	 * Find the most similar words for a set of query words by the cosine of the embeddings.
+	 * The rows are split between the threads, and each thread compares blocks of rows against all the queries.
+	 * @param queryWords Query words. Words that are not in the embeddings are projected from the vector space, and words that are in neither get an empty result.
+	 * @param limit Number of results for each query
+	 * @param numThreads Number of threads
+	 * @return For each query word, the most similar words with their scores, most similar first
+	 */
+	public LinkedHashMap<String,LinkedHashMap<String,Double>> getTopScores(LinkedHashSet<String> queryWords, int limit, int numThreads){
+		ArrayList<String> queryList = new ArrayList<String>(queryWords);
+		float[][] queries = new float[queryList.size()][];
+		for(int q = 0; q < queries.length; q++)
+			queries[q] = getQueryVector(queryList.get(q));
+
+		LinkedHashMap<String,LinkedHashMap<String,Double>> results = new LinkedHashMap<String,LinkedHashMap<String,Double>>();
+		for(String queryWord : queryList)
+			results.put(queryWord, new LinkedHashMap<String,Double>());
+		if(limit <= 0 || labels.length == 0)
+			return results;
+
+		BlockingQueue<Runnable> queue = new LinkedBlockingQueue<Runnable>();
+		ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+		ArrayList<EmbeddingSearchTask> tasks = new ArrayList<EmbeddingSearchTask>();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(numThreads, numThreads, 30, TimeUnit.SECONDS, queue);
+
+		int chunkSize = Math.max(BLOCK_ROWS, (labels.length + numThreads - 1) / numThreads);
+		for(int start = 0; start < labels.length; start += chunkSize){
+			EmbeddingSearchTask task = new EmbeddingSearchTask(this, queries, limit, start, Math.min(labels.length, start + chunkSize));
+			tasks.add(task);
+			futures.add(executor.submit(task));
+		}
+
+		// Wait to finish
+		try {
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			executor.shutdown();
+		}
+
+		for(int q = 0; q < queries.length; q++){
+			ArrayList<ScoredRow> merged = new ArrayList<ScoredRow>();
+			for(EmbeddingSearchTask task : tasks)
+				merged.addAll(task.results.get(q));
+			addSorted(merged, limit, results.get(queryList.get(q)));
+		}
+		return results;
+	}
+
+	/**
+	 * A simplified function for finding the most similar words for only one query word.
+	 * The rows are scored in the calling thread.
+	 * @param word
+	 * @param limit
+	 * @return
+	 */
+	public LinkedHashMap<String,Double> getTopScores(String word, int limit){
+		LinkedHashMap<String,Double> result = new LinkedHashMap<String,Double>();
+		float[] query = getQueryVector(word);
+		if(query == null || limit <= 0 || labels.length == 0)
+			return result;
+		EmbeddingSearchTask task = new EmbeddingSearchTask(this, new float[][]{query}, limit, 0, labels.length);
+		task.run();
+		addSorted(task.results.get(0), limit, result);
+		return result;
+	}
+}
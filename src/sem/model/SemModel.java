@@ -1,9 +1,15 @@
 package sem.model;
 
+import gnu.trove.map.hash.TIntDoubleHashMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -71,6 +77,15 @@ public class SemModel {
 			this.locations = new IntegerMultiMap(path + this.locationsFileName);
 		else
 			this.locations = null;
+		
+		// Continuing the sentence numbering of the saved locations, so that new graphs can be added
+		this.count = 0;
+		if(this.locations != null){
+			for(ArrayList<Integer> list : this.locations.values()){
+				if(list.size() > 0)
+					this.count = Math.max(this.count, list.get(list.size()-1));
+			}
+		}
 	}
 	
 	public void save(String path){
@@ -105,6 +120,54 @@ public class SemModel {
 		}
 	}
 	
+	/**
+	 * Add a batch of graphs to a model that is already in use, for example when self-training, and update the cached statistics that the graphs change.
+	 * The cached counts of the changed triples, including their wildcard versions, are removed, along with the totals and the cached location matches of the changed nodes.
+	 * The tensor and the indexes are not safe for reading during an update, so other threads should not use the model until this returns.
+	 * @param graphs Graphs to add
+	 */
+	public synchronized void update(List<Graph> graphs) throws SemModelException{
+		HashSet<String> nodeLabels = new HashSet<String>();
+		HashSet<String> batchTriples = new HashSet<String>();
+		HashSet<String> staleKeys = new HashSet<String>();
+		int newTripleTypes = 0;
+		for(Graph graph : graphs){
+			for(Node node : graph.getNodes())
+				nodeLabels.add(node.getLabel());
+			
+			// Triples are checked before their graph is added, so a triple is new if it was not in the tensor before the batch
+			for(Edge edge : graph.getEdges()){
+				String head = edge.getHead().getLabel(), relation = edge.getLabel(), dep = edge.getDep().getLabel();
+				if(!batchTriples.add(getTripleKey(head, relation, dep)))
+					continue;
+				Integer headId = nodeIndex.getId(head), edgeId = edgeIndex.getId(relation), depId = nodeIndex.getId(dep);
+				if(headId == null || edgeId == null || depId == null || tensor.get(headId, edgeId, depId) == 0.0)
+					newTripleTypes++;
+				for(int mask = 0; mask < 8; mask++)
+					staleKeys.add(getTripleKey((mask & 1) == 0?head:null, (mask & 2) == 0?relation:null, (mask & 4) == 0?dep:null));
+			}
+			add(graph);
+		}
+		
+		for(String key : staleKeys)
+			this.cache.remove(key);
+		this.cache.remove("TOTAL_NODE_COUNT");
+		this.cache.remove("TOTAL_EDGE_COUNT");
+		Double tripleTypeCount = this.cache.get("TRIPLE_TYPE_COUNT");
+		if(tripleTypeCount != null)
+			this.cache.put("TRIPLE_TYPE_COUNT", tripleTypeCount + newTripleTypes);
+		
+		if(this.locations != null){
+			for(String key : this.cache.keySet()){
+				if(!key.startsWith("LOCMATCH:"))
+					continue;
+				String[] labels = key.substring("LOCMATCH:".length()).split("\t", -1);
+				if(labels.length != 2 || labels[0].equals("[[!!NULL!!]]") || labels[1].equals("[[!!NULL!!]]") || nodeLabels.contains(labels[0]) || nodeLabels.contains(labels[1]))
+					this.cache.remove(key);
+			}
+		}
+	}
+	
 	public double getNodeCount(String label){
 		return this.nodeIndex.getCount(label);
 	}
@@ -118,7 +181,7 @@ public class SemModel {
 	}
 	
 	public double getTripleCount(String headLabel, String edgeLabel, String depLabel){
-		String key = "TRIPLE:" + (headLabel == null?"[[!!NULL!!]]":headLabel) + "\t" + (edgeLabel == null?"[[!!NULL!!]]":edgeLabel) + "\t" + (depLabel == null?"[[!!NULL!!]]":depLabel);
+		String key = getTripleKey(headLabel, edgeLabel, depLabel);
 		if(this.enableCache && this.cache.containsKey(key))
 			return this.cache.get(key);
 		
@@ -143,6 +206,84 @@ public class SemModel {
 		return result;
 	}
 
+	/**
+	 * Get the counts of many triples at once.
+	 * The labels are resolved to ids once, and the exact triples are looked up in the tensor in the order of head ids, so every head is only fetched once.
+	 * Triples with a null label are wildcards, as in getTripleCount(), and go through the cache.
+	 * @param headLabels Head labels
+	 * @param edgeLabels Edge labels, in the same order
+	 * @param depLabels Dependent labels, in the same order
+	 * @return Counts of the triples, in the same order
+	 */
+	public double[] getTripleCounts(String[] headLabels, String[] edgeLabels, String[] depLabels){
+		if(headLabels.length != edgeLabels.length || headLabels.length != depLabels.length)
+			throw new IllegalArgumentException("Mismatching number of labels");
+		
+		int size = headLabels.length;
+		double[] counts = new double[size];
+		int[] headIds = new int[size], edgeIds = new int[size], depIds = new int[size];
+		HashMap<String,Integer> nodeIds = new HashMap<String,Integer>();
+		HashMap<String,Integer> edgeIdMap = new HashMap<String,Integer>();
+		ArrayList<Integer> exact = new ArrayList<Integer>(size);
+		
+		for(int i = 0; i < size; i++){
+			if(headLabels[i] == null || edgeLabels[i] == null || depLabels[i] == null){
+				counts[i] = getTripleCount(headLabels[i], edgeLabels[i], depLabels[i]);
+				continue;
+			}
+			headIds[i] = resolveId(this.nodeIndex, nodeIds, headLabels[i]);
+			edgeIds[i] = resolveId(this.edgeIndex, edgeIdMap, edgeLabels[i]);
+			depIds[i] = resolveId(this.nodeIndex, nodeIds, depLabels[i]);
+			if(headIds[i] >= 0 && edgeIds[i] >= 0 && depIds[i] >= 0)
+				exact.add(i);
+		}
+		
+		Integer[] order = exact.toArray(new Integer[exact.size()]);
+		final int[] sortKeys = headIds;
+		Arrays.sort(order, new Comparator<Integer>(){
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Integer.compare(sortKeys[a], sortKeys[b]);
+			}
+		});
+		
+		TIntObjectHashMap<TIntObjectHashMap<TIntDoubleHashMap>> map = this.tensor.getMap();
+		TIntObjectHashMap<TIntDoubleHashMap> headMap = null;
+		TIntDoubleHashMap edgeMap;
+		int currentHead = -1;
+		for(int i : order){
+			if(headIds[i] != currentHead){
+				currentHead = headIds[i];
+				headMap = map.get(currentHead);
+			}
+			if(headMap != null && (edgeMap = headMap.get(edgeIds[i])) != null && edgeMap.containsKey(depIds[i]))
+				counts[i] = edgeMap.get(depIds[i]);
+		}
+		return counts;
+	}
+	
+	/**
+	 * Get the counts of many nodes at once.
+	 * @param labels Node labels
+	 * @return Counts in the same order, 0.0 for unknown labels
+	 */
+	public double[] getNodeCounts(String[] labels){
+		double[] counts = new double[labels.length];
+		for(int i = 0; i < labels.length; i++)
+			counts[i] = this.nodeIndex.getCount(labels[i]);
+		return counts;
+	}
+	
+	private static int resolveId(Index index, HashMap<String,Integer> resolved, String label){
+		Integer id = resolved.get(label);
+		if(id == null){
+			id = index.getId(label);
+			if(id == null)
+				id = -1;
+			resolved.put(label, id);
+		}
+		return id;
+	}
 	
 	public double getLocationMatchCount(String label1, String label2){
 		if(this.locations == null)
@@ -236,6 +377,11 @@ public class SemModel {
 	}
 
 	
+	private static String getTripleKey(String headLabel, String edgeLabel, String depLabel){
+		String key = "TRIPLE:" + (headLabel == null?"[[!!NULL!!]]":headLabel) + "\t" + (edgeLabel == null?"[[!!NULL!!]]":edgeLabel) + "\t" + (depLabel == null?"[[!!NULL!!]]":depLabel);
+		return key;
+	}
+	
 	private String getLocationMatchKey(String label1, String label2){
 		String key = "LOCMATCH:" + (label1 == null?"[[!!NULL!!]]":label1) + "\t" + (label2 == null?"[[!!NULL!!]]":label2);
 		return key;
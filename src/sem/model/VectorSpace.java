@@ -4,6 +4,7 @@ import java.util.HashMap;
 import java.util.LinkedHashMap;
 
 import sem.util.Index;
+import sem.util.SparseVector;
 import sem.util.Tools;
 
 /**
@@ -19,6 +20,7 @@ public class VectorSpace {
 	private Index nodeIndex;
 	private double totalFeatureCount;
 	private HashMap<Integer,LinkedHashMap<Integer,Double>> vectorCache;
+	private HashMap<Integer,SparseVector> sparseVectorCache;
 	
 	public static int WEIGHT_BINARY = 0;
 	public static int WEIGHT_FREQ = 1;
@@ -31,6 +33,7 @@ public class VectorSpace {
 		this.weightScheme = weightScheme;
 		this.enableCache = enableCache;
 		this.vectorCache = new HashMap<Integer,LinkedHashMap<Integer,Double>>();
+		this.sparseVectorCache = new HashMap<Integer,SparseVector>();
 		
 		this.featureIndex = null;
 		this.nodeIndex = null;
@@ -56,10 +59,23 @@ public class VectorSpace {
 		this.totalFeatureCount = this.featureIndex.getTotalCount();
 	}
 	
+	public int getWeightScheme(){
+		return this.weightScheme;
+	}
+	
 	public Index getFeatureIndex(){
 		return this.featureIndex;
 	}
 	
+	/**
+	 * Check whether a word is in the model.
+	 * @param nodeLabel Node label
+	 * @return True if the model has a vector for the word, even an empty one
+	 */
+	public boolean contains(String nodeLabel){
+		return this.semModel.getNodeIndex().getId(nodeLabel) != null;
+	}
+	
 	public double getTotalFeatureCount(){
 		return this.totalFeatureCount;
 	}
@@ -103,6 +119,37 @@ public class VectorSpace {
 		return sortedVector;
 	}
 	
+	public synchronized void addToSparseCache(Integer nodeId, SparseVector sparseVector){
+		this.sparseVectorCache.put(nodeId, sparseVector);
+	}
+	
+	public SparseVector getSparseVectorFromCache(Integer nodeId){
+		return this.sparseVectorCache.get(nodeId);
+	}
+	
+	/**
+	 * Get the feature vector as a SparseVector, with the feature ids in ascending order.
+	 * Per-vector precalculations (e.g. logarithms of the weights) are kept with the cached vector and reused in every comparison.
+	 * @param nodeLabel Node label
+	 * @return Sparse feature vector. Empty if the label is not in the model.
+	 */
+	public SparseVector getSparseVector(String nodeLabel){
+		Integer nodeId = this.semModel.getNodeIndex().getId(nodeLabel);
+		if(nodeId == null)
+			return new SparseVector(new int[0], new double[0]);
+		
+		SparseVector sparseVector = null;
+		if(this.enableCache)
+			sparseVector = getSparseVectorFromCache(nodeId);
+		if(sparseVector != null)
+			return sparseVector;
+		
+		sparseVector = SparseVector.create(getVector(nodeLabel));
+		if(this.enableCache)
+			addToSparseCache(nodeId, sparseVector);
+		return sparseVector;
+	}
+	
 	private LinkedHashMap<Integer,Double> getVectorPMI(Integer nodeId){
 		LinkedHashMap<Integer,Double> vector = new LinkedHashMap<Integer,Double>();
 		String featureLabel;
@@ -230,5 +277,6 @@ public class VectorSpace {
 	
 	public void clearCache(){
 		this.vectorCache.clear();
+		this.sparseVectorCache.clear();
 	}
 }
@@ -0,0 +1,39 @@
+package sem.run;
+
+import java.util.LinkedHashSet;
+
+import sem.model.EmbeddingSpace;
+import sem.model.SemModel;
+import sem.model.VectorSpace;
+
+/**
+ * Builds dense low-rank embeddings of the PMI vectors and saves them next to the model.
+ */
+public class BuildEmbeddings {
+	public static void main(String[] args) {
+		if(args.length == 3){
+			SemModel semModel = new SemModel(args[0], false);
+			int frequencyLimit = Integer.parseInt(args[1]);
+			int rank = Integer.parseInt(args[2]);
+			
+			semModel.makeTensorSymmetric();
+			VectorSpace vectorSpace = new VectorSpace(semModel, VectorSpace.WEIGHT_PMI_LIM, true);
+			
+			LinkedHashSet<String> words = new LinkedHashSet<String>();
+			for(String s : semModel.getNodeIndex().getIdMap().keySet()){
+				if(semModel.getNodeCount(s) >= frequencyLimit){
+					words.add(s);
+				}
+			}
+			
+			long startTime = System.currentTimeMillis();
+			EmbeddingSpace embeddingSpace = new EmbeddingSpace(vectorSpace, words, rank, 1L, Runtime.getRuntime().availableProcessors());
+			embeddingSpace.save(args[0]);
+			System.out.println("Embedded " + embeddingSpace.size() + " words in " + (System.currentTimeMillis() - startTime) + " ms");
+		}
+		else {
+			System.out.println("BuildEmbeddings <modelpath> <frequencylimit> <rank>");
+		}
+	}
+
+}
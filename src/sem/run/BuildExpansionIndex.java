@@ -0,0 +1,23 @@
+package sem.run;
+
+import sem.apps.parsererank.ExpansionIndex;
+import sem.model.SemModel;
+
+/**
+ * Converts an expansion file from ExpansionFinder into a binary ExpansionIndex, referencing the node index of the model.
+ * The output file should end with ExpansionIndex.fileSuffix, so that EdgeScorer memory-maps it instead of reading it as text.
+ */
+public class BuildExpansionIndex {
+	public static void main(String[] args) {
+		if(args.length == 3){
+			SemModel semModel = new SemModel(args[0], false);
+			long startTime = System.currentTimeMillis();
+			ExpansionIndex.build(args[1], semModel.getNodeIndex(), args[2]);
+			System.out.println("Built the expansion index in " + (System.currentTimeMillis() - startTime) + " ms");
+		}
+		else {
+			System.out.println("BuildExpansionIndex <modelpath> <expansionfile> <outputfile" + ExpansionIndex.fileSuffix + ">");
+		}
+	}
+
+}
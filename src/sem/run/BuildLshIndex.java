@@ -0,0 +1,83 @@
+package sem.run;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Random;
+
+import sem.model.SemModel;
+import sem.model.VectorSpace;
+import sem.sim.LshIndex;
+import sem.sim.SimFinder;
+import sem.sim.SimilarityFunction;
+import sem.sim.SimilarityFunctionRegistry;
+
+/**
+ * Builds an LSH index for approximate nearest neighbour search and saves it next to the model.
+ * If a similarity measure is given, the recall and the query time of the index are compared against the exact search in SimFinder.
+ */
+public class BuildLshIndex {
+	public static void main(String[] args) {
+		if(args.length == 5 || args.length == 7){
+			SemModel semModel = new SemModel(args[0], false);
+			
+			int type;
+			if(args[1].equalsIgnoreCase("simhash"))
+				type = LshIndex.TYPE_SIMHASH;
+			else if(args[1].equalsIgnoreCase("minhash"))
+				type = LshIndex.TYPE_MINHASH;
+			else
+				throw new RuntimeException("Unknown index type: " + args[1]);
+			
+			int frequencyLimit = Integer.parseInt(args[2]);
+			int numTables = Integer.parseInt(args[3]);
+			int numBits = Integer.parseInt(args[4]);
+			int numThreads = Runtime.getRuntime().availableProcessors();
+			
+			semModel.makeTensorSymmetric();
+			VectorSpace vectorSpace = new VectorSpace(semModel, VectorSpace.WEIGHT_PMI_LIM, true);
+			
+			LinkedHashSet<String> words = new LinkedHashSet<String>();
+			for(String s : semModel.getNodeIndex().getIdMap().keySet()){
+				if(semModel.getNodeCount(s) >= frequencyLimit){
+					words.add(s);
+				}
+			}
+			
+			long startTime = System.currentTimeMillis();
+			LshIndex index = new LshIndex(vectorSpace, words, type, numTables, numBits, 1L, numThreads);
+			index.save(args[0]);
+			System.out.println("Indexed " + index.size() + " words in " + (System.currentTimeMillis() - startTime) + " ms");
+			
+			if(args.length == 7){
+				SimilarityFunction simMeasure = SimilarityFunctionRegistry.get(args[5]);
+				if(simMeasure == null)
+					throw new RuntimeException("SimMeasureType is null");
+				int numQueries = Integer.parseInt(args[6]);
+				int limit = 10;
+				
+				ArrayList<String> queries = new ArrayList<String>(words);
+				Collections.shuffle(queries, new Random(1));
+				queries = new ArrayList<String>(queries.subList(0, Math.min(numQueries, queries.size())));
+				
+				SimFinder simFinder = new SimFinder(vectorSpace);
+				startTime = System.currentTimeMillis();
+				for(String query : queries)
+					simFinder.getTopScores(query, words, simMeasure, false, limit);
+				double exactTime = (double)(System.currentTimeMillis() - startTime) / queries.size();
+				
+				startTime = System.currentTimeMillis();
+				for(String query : queries)
+					index.getTopScores(query, simMeasure, false, limit);
+				double approximateTime = (double)(System.currentTimeMillis() - startTime) / queries.size();
+				
+				System.out.println("Recall@" + limit + ": " + index.getRecall(queries, simMeasure, false, limit, numThreads));
+				System.out.println("Exact: " + exactTime + " ms/query, LSH: " + approximateTime + " ms/query");
+			}
+		}
+		else {
+			System.out.println("BuildLshIndex <modelpath> <simhash|minhash> <frequencylimit> <numtables> <numbits> [similaritytype numqueries]");
+		}
+	}
+
+}
@@ -0,0 +1,58 @@
+package sem.run;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+
+import sem.model.SemModel;
+import sem.model.VectorSpace;
+import sem.sim.ScoreMatrix;
+import sem.sim.SimilarityFunction;
+import sem.sim.SimilarityFunctionRegistry;
+import sem.util.FileReader;
+
+/**
+ * Calculates the scores between a list of main words and all the frequent words in the model, and saves them as a binary score matrix.
+ * The scores are sim(candidate, mainWord), as in the hyponym generation score caches.
+ */
+public class BuildScoreMatrix {
+	public static void main(String[] args) {
+		if(args.length == 5 || args.length == 6){
+			SemModel semModel = new SemModel(args[0], false);
+			SimilarityFunction simMeasure = SimilarityFunctionRegistry.get(args[1]);
+			if(simMeasure == null)
+				throw new RuntimeException("SimMeasureType is null");
+			int frequencyLimit = Integer.parseInt(args[3]);
+			String suffix = (args.length == 6)?args[5].toLowerCase():null;
+			
+			semModel.makeTensorSymmetric();
+			VectorSpace vectorSpace = new VectorSpace(semModel, VectorSpace.WEIGHT_PMI_LIM, true);
+			
+			LinkedHashSet<String> uniqueMainWords = new LinkedHashSet<String>();
+			FileReader fileReader = new FileReader(args[2]);
+			while(fileReader.hasNext()){
+				String line = fileReader.next().trim();
+				if(line.length() > 0)
+					uniqueMainWords.add(line);
+			}
+			fileReader.close();
+			ArrayList<String> mainWords = new ArrayList<String>(uniqueMainWords);
+			
+			ArrayList<String> candidateWords = new ArrayList<String>();
+			for(String s : semModel.getNodeIndex().getIdMap().keySet()){
+				if(semModel.getNodeCount(s) >= frequencyLimit && (suffix == null || s.toLowerCase().endsWith(suffix))){
+					candidateWords.add(s);
+				}
+			}
+			Collections.sort(candidateWords);
+			
+			long startTime = System.currentTimeMillis();
+			ScoreMatrix.compute(vectorSpace, simMeasure, false, mainWords, candidateWords, args[4], Runtime.getRuntime().availableProcessors());
+			System.out.println("Scored " + mainWords.size() + "x" + candidateWords.size() + " pairs in " + (System.currentTimeMillis() - startTime) + " ms");
+		}
+		else {
+			System.out.println("BuildScoreMatrix <modelpath> <similaritytype> <mainwordsfile> <frequencylimit> <outputfile> [wordsuffix]");
+		}
+	}
+
+}
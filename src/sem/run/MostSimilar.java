@@ -1,28 +1,100 @@
 package sem.run;
 
 import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.Map.Entry;
 
+import sem.model.EmbeddingSpace;
 import sem.model.SemModel;
 import sem.model.VectorSpace;
+import sem.sim.EmbeddingNeighbourIndex;
+import sem.sim.HnswIndex;
+import sem.sim.LshIndex;
 import sem.sim.SimFinder;
-import sem.sim.SimMeasure;
-import sem.util.Tools;
+import sem.sim.SimilarityFunction;
+import sem.sim.SimilarityFunctionRegistry;
 
 /**
  * Given a word, find most similar words.
  */
 public class MostSimilar {
+	private static final String infoSuffix = ".info";
+	
+	/**
+	 * Order-independent 64-bit fingerprint of a set of words.
+	 */
+	private static long getFingerprint(Collection<String> words){
+		long fingerprint = words.size();
+		for(String word : words){
+			long h = 0xCBF29CE484222325L;
+			for(int i = 0; i < word.length(); i++){
+				h ^= word.charAt(i);
+				h *= 0x100000001B3L;
+			}
+			h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+			h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+			fingerprint += h ^ (h >>> 31);
+		}
+		return fingerprint;
+	}
+	
+	/**
+	 * Check whether a saved index exists and was built with the same frequency limit, candidate words and index parameters.
+	 * These are stored next to the index, in indexFile + infoSuffix.
+	 */
+	private static boolean isIndexCurrent(String indexFile, int frequencyLimit, long fingerprint, String parameters){
+		if(!new File(indexFile).exists() || !new File(indexFile + infoSuffix).exists())
+			return false;
+		try{
+			BufferedReader br = new BufferedReader(new FileReader(indexFile + infoSuffix));
+			String[] parts = br.readLine().trim().split("\t");
+			br.close();
+			return parts.length == 3 && Integer.parseInt(parts[0]) == frequencyLimit && Long.parseLong(parts[1]) == fingerprint && parts[2].equals(parameters);
+		} catch(Exception e){
+			return false;
+		}
+	}
+	
+	private static void saveIndexInfo(String indexFile, int frequencyLimit, long fingerprint, String parameters){
+		try{
+			FileWriter fw = new FileWriter(indexFile + infoSuffix);
+			fw.write(frequencyLimit + "\t" + fingerprint + "\t" + parameters + "\n");
+			fw.close();
+		} catch(Exception e){
+			throw new RuntimeException(e);
+		}
+	}
+	
 	public static void main(String[] args) {
+		// Options for approximate search: -index <exact|lsh|hnsw|dense>, -ef <number> for hnsw and -candidates <number> for dense
+		String indexType = "exact";
+		int ef = -1;
+		int candidateLimit = -1;
+		while(args.length >= 2 && args[0].startsWith("-")){
+			if(args[0].equalsIgnoreCase("-index"))
+				indexType = args[1];
+			else if(args[0].equalsIgnoreCase("-ef"))
+				ef = Integer.parseInt(args[1]);
+			else if(args[0].equalsIgnoreCase("-candidates"))
+				candidateLimit = Integer.parseInt(args[1]);
+			else
+				throw new RuntimeException("Unknown option: " + args[0]);
+			args = Arrays.copyOfRange(args, 2, args.length);
+		}
+		
 		if(args.length == 4 || args.length == 5){
 			SemModel semModel = new SemModel(args[0], false);
 			if(semModel == null)
 				throw new RuntimeException("Model is null");
 			
-			SimMeasure simMeasure = SimMeasure.getType(args[1]);
+			SimilarityFunction simMeasure = SimilarityFunctionRegistry.get(args[1]);
 			if(simMeasure == null)
 				throw new RuntimeException("SimMeasureType is null");
 			
@@ -40,14 +112,65 @@ public class MostSimilar {
 				}
 			}
 			
+			// The index is loaded from next to the model, or built and saved there if it does not exist yet or was built for other candidate words
+			int numThreads = Runtime.getRuntime().availableProcessors();
+			long fingerprint = getFingerprint(candidateWords);
+			if(indexType.equalsIgnoreCase("lsh")){
+				// MinHash signatures need fewer hashes per table, as set overlaps between neighbours are much lower than their cosines
+				int lshType = LshIndex.getType(simMeasure);
+				int numTables = 16;
+				int numBits = (lshType == LshIndex.TYPE_MINHASH)?2:12;
+				String parameters = "lsh " + lshType + " " + numTables + " " + numBits + " 1";
+				LshIndex index;
+				if(isIndexCurrent(args[0] + LshIndex.fileSuffix, frequencyLimit, fingerprint, parameters))
+					index = LshIndex.load(args[0], vectorSpace);
+				else {
+					index = new LshIndex(vectorSpace, candidateWords, lshType, numTables, numBits, 1L, numThreads);
+					index.save(args[0]);
+					saveIndexInfo(args[0] + LshIndex.fileSuffix, frequencyLimit, fingerprint, parameters);
+				}
+				index.setMultiProbe(true);
+				simFinder.setNeighbourIndex(index);
+			}
+			else if(indexType.equalsIgnoreCase("hnsw")){
+				int simType = HnswIndex.getSimType(simMeasure);
+				if(simType < 0)
+					throw new RuntimeException("The hnsw index does not support the similarity measure " + simMeasure.getLabel() + ", only cosine");
+				String parameters = "hnsw " + simType + " 16 200 1";
+				HnswIndex index;
+				if(isIndexCurrent(args[0] + HnswIndex.fileSuffix, frequencyLimit, fingerprint, parameters))
+					index = HnswIndex.load(args[0], vectorSpace);
+				else {
+					index = new HnswIndex(vectorSpace, candidateWords, simType, 16, 200, 1L, numThreads);
+					index.save(args[0]);
+					saveIndexInfo(args[0] + HnswIndex.fileSuffix, frequencyLimit, fingerprint, parameters);
+				}
+				if(ef > 0)
+					index.setEf(ef);
+				simFinder.setNeighbourIndex(index);
+			}
+			else if(indexType.equalsIgnoreCase("dense")){
+				String parameters = "dense 300 1";
+				EmbeddingSpace embeddingSpace;
+				if(isIndexCurrent(args[0] + EmbeddingSpace.fileSuffix, frequencyLimit, fingerprint, parameters))
+					embeddingSpace = EmbeddingSpace.load(args[0], vectorSpace);
+				else {
+					embeddingSpace = new EmbeddingSpace(vectorSpace, candidateWords, 300, 1L, numThreads);
+					embeddingSpace.save(args[0]);
+					saveIndexInfo(args[0] + EmbeddingSpace.fileSuffix, frequencyLimit, fingerprint, parameters);
+				}
+				EmbeddingNeighbourIndex index = new EmbeddingNeighbourIndex(embeddingSpace);
+				if(candidateLimit > 0)
+					index.setCandidateLimit(candidateLimit);
+				simFinder.setNeighbourIndex(index);
+			}
+			else if(!indexType.equalsIgnoreCase("exact"))
+				throw new RuntimeException("Unknown index type: " + indexType);
+			
 			if(args.length == 5){
-				LinkedHashMap<String,Double> results = simFinder.getScores(args[4], candidateWords, simMeasure, false);
-				int count = 0;
-				for(Entry<String,Double> e : Tools.sort(results, !simMeasure.isDistance()).entrySet()){
+				LinkedHashMap<String,Double> results = simFinder.getTopScores(args[4], candidateWords, simMeasure, false, resultLimit);
+				for(Entry<String,Double> e : results.entrySet())
 					System.out.println(e.getKey() + "\t" + e.getValue());
-					if(++count >= resultLimit)
-						break;
-				}
 			}
 			else {
 				try{
@@ -56,13 +179,9 @@ public class MostSimilar {
 						String line = br.readLine();
 						if(line.equalsIgnoreCase("q") || line.equalsIgnoreCase("quit") || line.equalsIgnoreCase("exit"))
 							break;
-						LinkedHashMap<String,Double> results = simFinder.getScores(line.trim(), candidateWords, simMeasure, false);
-						int count = 0;
-						for(Entry<String,Double> e : Tools.sort(results, !simMeasure.isDistance()).entrySet()){
+						LinkedHashMap<String,Double> results = simFinder.getTopScores(line.trim(), candidateWords, simMeasure, false, resultLimit);
+						for(Entry<String,Double> e : results.entrySet())
 							System.out.println(e.getKey() + "\t" + e.getValue());
-							if(++count >= resultLimit)
-								break;
-						}
 					}
 				} catch(Exception e){
 					throw new RuntimeException(e);
@@ -70,7 +189,7 @@ public class MostSimilar {
 			}
 		}
 		else {
-			System.out.println("MostSimilar <modelpath> <similaritytype> <frequencylimit> <resultlimit> [word1]");
+			System.out.println("MostSimilar [-index exact|lsh|hnsw|dense] [-ef number] [-candidates number] <modelpath> <similaritytype> <frequencylimit> <resultlimit> [word1]");
 		}
 	}
 
@@ -6,7 +6,8 @@ import java.io.InputStreamReader;
 import sem.model.SemModel;
 import sem.model.VectorSpace;
 import sem.sim.SimFinder;
-import sem.sim.SimMeasure;
+import sem.sim.SimilarityFunction;
+import sem.sim.SimilarityFunctionRegistry;
 
 /**
  * Find the similarity between two words.
@@ -19,7 +20,7 @@ public class Similarity {
 			if(semModel == null)
 				throw new RuntimeException("Model is null");
 			
-			SimMeasure simMeasure = SimMeasure.getType(args[1]);
+			SimilarityFunction simMeasure = SimilarityFunctionRegistry.get(args[1]);
 			if(simMeasure == null)
 				throw new RuntimeException("SimMeasureType is null");
 			
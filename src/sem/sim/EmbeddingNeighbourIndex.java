@@ -0,0 +1,46 @@
+package sem.sim;
+
+import java.util.LinkedHashSet;
+
+import sem.model.EmbeddingSpace;
+
+/**
+ * Uses the nearest neighbours in an EmbeddingSpace as the candidates for SimFinder.
+ */
+public class EmbeddingNeighbourIndex implements NeighbourIndex {
+	private EmbeddingSpace embeddingSpace;
+	private int candidateLimit;
+
+	/**
+	 * @param embeddingSpace Embeddings of the words that can be returned as candidates
+	 */
+	public EmbeddingNeighbourIndex(EmbeddingSpace embeddingSpace){
+		this.embeddingSpace = embeddingSpace;
+		this.candidateLimit = 100;
+	}
+
+	public EmbeddingSpace getEmbeddingSpace(){
+		return this.embeddingSpace;
+	}
+
+	/**
+	 * Set the smallest number of candidates that getCandidates() returns. Queries for more results get as many candidates as results.
+	 * @param candidateLimit
+	 */
+	public void setCandidateLimit(int candidateLimit){
+		this.candidateLimit = candidateLimit;
+	}
+
+	/**
+	 * Get the most similar words by the embeddings, to be scored exactly by SimFinder.
+	 * @param word Query word, does not need to be in the embeddings
+	 * @param limit Number of results the caller needs
+	 * @return Up to max(candidateLimit, limit) words, not including the query word
+	 */
+	@Override
+	public LinkedHashSet<String> getCandidates(String word, int limit){
+		LinkedHashSet<String> candidates = new LinkedHashSet<String>(embeddingSpace.getTopScores(word, Math.max(candidateLimit, limit) + 1).keySet());
+		candidates.remove(word);
+		return candidates;
+	}
+}
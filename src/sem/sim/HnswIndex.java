@@ -0,0 +1,501 @@
+package sem.sim;
+
+import gnu.trove.set.hash.TIntHashSet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import sem.model.VectorSpace;
+import sem.util.SparseVector;
+
+/**
+ * Inserts a range of nodes into the graph.
+ */
+class HnswInsertTask implements Runnable{
+	HnswIndex index;
+	int start, end;
+
+	public HnswInsertTask(HnswIndex index, int start, int end){
+		this.index = index;
+		this.start = start;
+		this.end = end;
+	}
+
+	@Override
+	public void run() {
+		for(int i = start; i < end; i++)
+			index.insert(i);
+	}
+}
+
+/**
+ * Hierarchical navigable small world (HNSW) graph over the vectors of a VectorSpace, for finding approximate nearest neighbours by cosine similarity or inner product.
+ * <p>Every word is a node on level 0 and, with exponentially decreasing probability, on higher levels. A search walks greedily from the top level down, and on level 0 keeps the ef best nodes found so far. Larger ef values give better recall and slower queries.
+ * <p>Nodes are inserted in parallel, each node having its own lock. The graph is saved next to the model, in path + HnswIndex.fileSuffix. The vectors are not saved, they are taken from the VectorSpace.
+ */
+public class HnswIndex implements NeighbourIndex {
+	public static final int SIM_COSINE = 0;
+	public static final int SIM_INNER_PRODUCT = 1;
+	public static final String fileSuffix = "_hnsw.bin";
+
+	private static final int FILE_VERSION = 1;
+
+	private VectorSpace vectorSpace;
+	private int simType;
+	private int maxConnections;
+	private int efConstruction;
+	private int ef;
+
+	private String[] labels;
+	private HashMap<String,Integer> labelIds;
+	private SparseVector[] vectors;
+	private int[] levels;
+	private int[][][] neighbours;
+	private int[][] neighbourCounts;
+	private Object[] locks;
+
+	private int entryPoint;
+	private int maxLevel;
+
+	/**
+	 * A node and its similarity to the query.
+	 */
+	private static class Candidate {
+		int node;
+		double sim;
+
+		Candidate(int node, double sim){
+			this.node = node;
+			this.sim = sim;
+		}
+	}
+
+	private static final Comparator<Candidate> BEST_FIRST = new Comparator<Candidate>(){
+		public int compare(Candidate a, Candidate b) {
+			return Double.compare(b.sim, a.sim);
+		}
+	};
+
+	private static final Comparator<Candidate> WORST_FIRST = new Comparator<Candidate>(){
+		public int compare(Candidate a, Candidate b) {
+			return Double.compare(a.sim, b.sim);
+		}
+	};
+
+	/**
+	 * Build a new index.
+	 * @param vectorSpace Vector space that provides the vectors
+	 * @param words Words to index
+	 * @param simType SIM_COSINE or SIM_INNER_PRODUCT
+	 * @param maxConnections Maximum number of neighbours of a node on the upper levels. Level 0 allows twice as many. 16 is a reasonable default.
+	 * @param efConstruction Number of candidates kept when searching for the neighbours of a new node, e.g. 200
+	 * @param seed Random seed for choosing the levels
+	 * @param numThreads Number of threads for inserting the nodes
+	 */
+	public HnswIndex(VectorSpace vectorSpace, Collection<String> words, int simType, int maxConnections, int efConstruction, long seed, int numThreads){
+		this(vectorSpace, simType, maxConnections, efConstruction, words.toArray(new String[words.size()]));
+
+		Random random = new Random(seed);
+		double levelMultiplier = 1.0 / Math.log(Math.max(2, maxConnections));
+		for(int i = 0; i < labels.length; i++){
+			levels[i] = (int)(-Math.log(1.0 - random.nextDouble()) * levelMultiplier);
+			allocate(i);
+		}
+
+		if(labels.length == 0)
+			return;
+		insert(0);
+
+		BlockingQueue<Runnable> queue = new LinkedBlockingQueue<Runnable>();
+		ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(numThreads, numThreads, 30, TimeUnit.SECONDS, queue);
+
+		int chunkSize = 1000;
+		for(int start = 1; start < labels.length; start += chunkSize)
+			futures.add(executor.submit(new HnswInsertTask(this, start, Math.min(labels.length, start + chunkSize))));
+
+		// Wait to finish
+		try {
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private HnswIndex(VectorSpace vectorSpace, int simType, int maxConnections, int efConstruction, String[] labels){
+		if(simType != SIM_COSINE && simType != SIM_INNER_PRODUCT)
+			throw new IllegalArgumentException("Unknown similarity type: " + simType);
+		if(maxConnections <= 0 || efConstruction <= 0)
+			throw new IllegalArgumentException("Invalid index parameters: " + maxConnections + " " + efConstruction);
+		this.vectorSpace = vectorSpace;
+		this.simType = simType;
+		this.maxConnections = maxConnections;
+		this.efConstruction = efConstruction;
+		this.ef = 50;
+		this.entryPoint = -1;
+		this.maxLevel = -1;
+
+		this.labels = labels;
+		this.labelIds = new HashMap<String,Integer>();
+		this.vectors = new SparseVector[labels.length];
+		for(int i = 0; i < labels.length; i++){
+			this.labelIds.put(labels[i], i);
+			this.vectors[i] = vectorSpace.getSparseVector(labels[i]);
+		}
+		this.levels = new int[labels.length];
+		this.neighbours = new int[labels.length][][];
+		this.neighbourCounts = new int[labels.length][];
+		this.locks = new Object[labels.length];
+		for(int i = 0; i < labels.length; i++)
+			this.locks[i] = new Object();
+	}
+
+	private void allocate(int node){
+		neighbours[node] = new int[levels[node] + 1][];
+		neighbourCounts[node] = new int[levels[node] + 1];
+		for(int level = 0; level <= levels[node]; level++)
+			neighbours[node][level] = new int[getMaxConnections(level) + 1];
+	}
+
+	private int getMaxConnections(int level){
+		return (level == 0)?(2 * maxConnections):maxConnections;
+	}
+
+	/**
+	 * Load an index that was saved with save().
+	 * @param path Model path. The index is read from path + fileSuffix.
+	 * @param vectorSpace Vector space built from the same model with the same weighting scheme
+	 * @return The index
+	 */
+	public static HnswIndex load(String path, VectorSpace vectorSpace){
+		try{
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path + fileSuffix)));
+			int version = in.readInt();
+			if(version != FILE_VERSION)
+				throw new RuntimeException("Unsupported HNSW index version: " + version);
+			int weightScheme = in.readInt();
+			if(weightScheme != vectorSpace.getWeightScheme())
+				throw new RuntimeException("The HNSW index was built with weighting scheme " + weightScheme + ", not " + vectorSpace.getWeightScheme());
+			int simType = in.readInt();
+			int maxConnections = in.readInt();
+			int efConstruction = in.readInt();
+			int entryPoint = in.readInt();
+			int maxLevel = in.readInt();
+
+			String[] labels = new String[in.readInt()];
+			for(int i = 0; i < labels.length; i++)
+				labels[i] = in.readUTF();
+
+			HnswIndex index = new HnswIndex(vectorSpace, simType, maxConnections, efConstruction, labels);
+			index.entryPoint = entryPoint;
+			index.maxLevel = maxLevel;
+			for(int i = 0; i < labels.length; i++){
+				index.levels[i] = in.readInt();
+				index.allocate(i);
+				for(int level = 0; level <= index.levels[i]; level++){
+					int count = in.readInt();
+					index.neighbourCounts[i][level] = count;
+					for(int j = 0; j < count; j++)
+						index.neighbours[i][level][j] = in.readInt();
+				}
+			}
+			in.close();
+			return index;
+		} catch(Exception e){
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Save the graph next to the model, into path + fileSuffix.
+	 * @param path Model path
+	 */
+	public void save(String path){
+		try{
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path + fileSuffix)));
+			out.writeInt(FILE_VERSION);
+			out.writeInt(vectorSpace.getWeightScheme());
+			out.writeInt(simType);
+			out.writeInt(maxConnections);
+			out.writeInt(efConstruction);
+			out.writeInt(entryPoint);
+			out.writeInt(maxLevel);
+			out.writeInt(labels.length);
+			for(int i = 0; i < labels.length; i++)
+				out.writeUTF(labels[i]);
+			for(int i = 0; i < labels.length; i++){
+				out.writeInt(levels[i]);
+				for(int level = 0; level <= levels[i]; level++){
+					out.writeInt(neighbourCounts[i][level]);
+					for(int j = 0; j < neighbourCounts[i][level]; j++)
+						out.writeInt(neighbours[i][level][j]);
+				}
+			}
+			out.close();
+		} catch(Exception e){
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Get the similarity type of the index that ranks neighbours in the same way as a similarity measure.
+	 * @param simMeasure Similarity measure
+	 * @return SIM_COSINE for cosine, or -1 if no similarity type of the index matches the measure
+	 */
+	public static int getSimType(SimilarityFunction simMeasure){
+		if(simMeasure == SimMeasure.COSINE)
+			return SIM_COSINE;
+		return -1;
+	}
+
+	/**
+	 * Set the number of candidates kept during search. Larger values give better recall and slower queries.
+	 * @param ef
+	 */
+	public void setEf(int ef){
+		if(ef <= 0)
+			throw new IllegalArgumentException("ef needs to be positive: " + ef);
+		this.ef = ef;
+	}
+
+	public int getEf(){
+		return this.ef;
+	}
+
+	public int size(){
+		return this.labels.length;
+	}
+
+	private double similarity(SparseVector a, SparseVector b){
+		if(simType == SIM_COSINE)
+			return SimMeasure.cosine(a, b);
+		return SimMeasure.dotProduct(a, b);
+	}
+
+	private int[] getNeighbours(int node, int level){
+		synchronized(locks[node]){
+			return Arrays.copyOf(neighbours[node][level], neighbourCounts[node][level]);
+		}
+	}
+
+	/**
+	 * Search one level of the graph, starting from the given entry points.
+	 * @param query Query vector
+	 * @param entryPoints Starting nodes with their similarities
+	 * @param ef Number of results to keep
+	 * @param level Graph level
+	 * @return The best nodes found, the worst one at the head
+	 */
+	private PriorityQueue<Candidate> searchLevel(SparseVector query, ArrayList<Candidate> entryPoints, int ef, int level){
+		TIntHashSet visited = new TIntHashSet();
+		PriorityQueue<Candidate> candidates = new PriorityQueue<Candidate>(Math.max(1, ef), BEST_FIRST);
+		PriorityQueue<Candidate> results = new PriorityQueue<Candidate>(Math.max(1, ef) + 1, WORST_FIRST);
+		for(Candidate entryPoint : entryPoints){
+			visited.add(entryPoint.node);
+			candidates.add(entryPoint);
+			results.add(entryPoint);
+		}
+		while(results.size() > ef)
+			results.poll();
+
+		while(!candidates.isEmpty()){
+			Candidate current = candidates.poll();
+			if(results.size() >= ef && current.sim < results.peek().sim)
+				break;
+			for(int neighbour : getNeighbours(current.node, level)){
+				if(!visited.add(neighbour))
+					continue;
+				double sim = similarity(query, vectors[neighbour]);
+				if(results.size() < ef || sim > results.peek().sim){
+					Candidate candidate = new Candidate(neighbour, sim);
+					candidates.add(candidate);
+					results.add(candidate);
+					if(results.size() > ef)
+						results.poll();
+				}
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Walk greedily from the entry point down to the given level, moving to the most similar neighbour on each level.
+	 */
+	private Candidate descend(SparseVector query, int entryPoint, int topLevel, int targetLevel){
+		Candidate current = new Candidate(entryPoint, similarity(query, vectors[entryPoint]));
+		for(int level = topLevel; level > targetLevel; level--){
+			boolean changed = true;
+			while(changed){
+				changed = false;
+				for(int neighbour : getNeighbours(current.node, level)){
+					double sim = similarity(query, vectors[neighbour]);
+					if(sim > current.sim){
+						current = new Candidate(neighbour, sim);
+						changed = true;
+					}
+				}
+			}
+		}
+		return current;
+	}
+
+	/**
+	 * Keep only the most similar neighbours of a node on one level.
+	 * Needs to be called while holding the lock of the node.
+	 */
+	private void shrink(int node, int level){
+		int count = neighbourCounts[node][level];
+		Candidate[] candidates = new Candidate[count];
+		for(int j = 0; j < count; j++)
+			candidates[j] = new Candidate(neighbours[node][level][j], similarity(vectors[node], vectors[neighbours[node][level][j]]));
+		Arrays.sort(candidates, BEST_FIRST);
+		int limit = getMaxConnections(level);
+		for(int j = 0; j < limit; j++)
+			neighbours[node][level][j] = candidates[j].node;
+		neighbourCounts[node][level] = limit;
+	}
+
+	/**
+	 * Add a link from a node to a neighbour, dropping the least similar neighbour if the node has too many.
+	 */
+	private void addNeighbour(int node, int level, int neighbour){
+		synchronized(locks[node]){
+			int count = neighbourCounts[node][level];
+			for(int j = 0; j < count; j++)
+				if(neighbours[node][level][j] == neighbour)
+					return;
+			if(count == neighbours[node][level].length)
+				neighbours[node][level] = Arrays.copyOf(neighbours[node][level], count * 2);
+			neighbours[node][level][count] = neighbour;
+			neighbourCounts[node][level] = count + 1;
+			if(count + 1 > getMaxConnections(level))
+				shrink(node, level);
+		}
+	}
+
+	/**
+	 * Insert a node into the graph. The levels of the node need to be allocated.
+	 * @param node
+	 */
+	void insert(int node){
+		int currentEntryPoint, currentMaxLevel;
+		synchronized(this){
+			if(entryPoint < 0){
+				entryPoint = node;
+				maxLevel = levels[node];
+				return;
+			}
+			currentEntryPoint = entryPoint;
+			currentMaxLevel = maxLevel;
+		}
+
+		SparseVector query = vectors[node];
+		int nodeLevel = levels[node];
+		ArrayList<Candidate> entryPoints = new ArrayList<Candidate>();
+		entryPoints.add(descend(query, currentEntryPoint, currentMaxLevel, nodeLevel));
+
+		for(int level = Math.min(nodeLevel, currentMaxLevel); level >= 0; level--){
+			PriorityQueue<Candidate> found = searchLevel(query, entryPoints, efConstruction, level);
+			Candidate[] best = found.toArray(new Candidate[found.size()]);
+			Arrays.sort(best, BEST_FIRST);
+
+			// Other threads may already have linked to this node, so the new links are added to the existing ones
+			int count = Math.min(maxConnections, best.length);
+			for(int j = 0; j < count; j++){
+				addNeighbour(node, level, best[j].node);
+				addNeighbour(best[j].node, level, node);
+			}
+			entryPoints = new ArrayList<Candidate>(Arrays.asList(best));
+		}
+
+		synchronized(this){
+			if(nodeLevel > maxLevel){
+				maxLevel = nodeLevel;
+				entryPoint = node;
+			}
+		}
+	}
+
+	/**
+	 * Find the approximate nearest neighbours of a vector by the similarity of the index.
+	 * @param query Query vector
+	 * @param limit Number of neighbours to return. The search keeps max(ef, limit) candidates.
+	 * @return Nodes and similarities, most similar first
+	 */
+	private Candidate[] search(SparseVector query, int limit){
+		int currentEntryPoint, currentMaxLevel;
+		synchronized(this){
+			currentEntryPoint = entryPoint;
+			currentMaxLevel = maxLevel;
+		}
+		if(currentEntryPoint < 0)
+			return new Candidate[0];
+
+		ArrayList<Candidate> entryPoints = new ArrayList<Candidate>();
+		entryPoints.add(descend(query, currentEntryPoint, currentMaxLevel, 0));
+		PriorityQueue<Candidate> found = searchLevel(query, entryPoints, Math.max(ef, limit), 0);
+		Candidate[] best = found.toArray(new Candidate[found.size()]);
+		Arrays.sort(best, BEST_FIRST);
+		return Arrays.copyOf(best, Math.min(limit, best.length));
+	}
+
+	/**
+	 * Get the max(ef, limit) nearest neighbours of a word in the graph.
+	 * @param word Query word, does not need to be in the index
+	 * @param limit Number of results the caller needs
+	 * @return Candidate words, most similar first, not including the query word
+	 */
+	@Override
+	public LinkedHashSet<String> getCandidates(String word, int limit){
+		LinkedHashSet<String> candidates = new LinkedHashSet<String>();
+		// One more, as the query word itself can be among the results
+		for(Candidate candidate : search(vectorSpace.getSparseVector(word), Math.max(ef, limit + 1)))
+			candidates.add(labels[candidate.node]);
+		candidates.remove(word);
+		return candidates;
+	}
+
+	/**
+	 * Find the approximate top neighbours of a word by the similarity of the index (cosine or inner product).
+	 * @param word Query word
+	 * @param limit Number of neighbours to return
+	 * @return Neighbours and their similarities, most similar first. The query word itself can be among them.
+	 */
+	public LinkedHashMap<String,Double> getTopScores(String word, int limit){
+		LinkedHashMap<String,Double> result = new LinkedHashMap<String,Double>();
+		for(Candidate candidate : search(vectorSpace.getSparseVector(word), limit))
+			result.put(labels[candidate.node], candidate.sim);
+		return result;
+	}
+
+	/**
+	 * Check whether a word is in the index.
+	 * @param word
+	 * @return
+	 */
+	public boolean contains(String word){
+		return labelIds.containsKey(word);
+	}
+}
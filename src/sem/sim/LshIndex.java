@@ -0,0 +1,330 @@
+package sem.sim;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.set.hash.TIntHashSet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import sem.model.VectorSpace;
+import sem.util.FeatureHash;
+import sem.util.SparseVector;
+
+/**
+ * Calculates the signatures for a range of words in the index.
+ */
+class LshSignatureTask implements Runnable{
+	LshIndex index;
+	int start, end;
+
+	public LshSignatureTask(LshIndex index, int start, int end){
+		this.index = index;
+		this.start = start;
+		this.end = end;
+	}
+
+	@Override
+	public void run() {
+		for(int i = start; i < end; i++)
+			index.signatures[i] = index.getSignature(index.vectorSpace.getSparseVector(index.labels[i]));
+	}
+}
+
+/**
+ * Locality-sensitive hashing index for finding approximate nearest neighbours.
+ * <p>Every word gets one signature for each hash table. With TYPE_SIMHASH, a signature is made of the signs of random hyperplane projections of the feature vector, which approximates cosine similarity. With TYPE_MINHASH, a signature is made of min-hashes of the nonzero features, which approximates the set-based measures (e.g. jaccardSet).
+ * <p>Words that share a signature in at least one table become candidates, and the candidates are then scored with the exact similarity measure.
+ * The random values are derived from the feature labels, so the index stays valid for the same model and weighting scheme. It is saved next to the model, in path + LshIndex.fileSuffix.
+ */
+public class LshIndex implements NeighbourIndex {
+	public static final int TYPE_SIMHASH = 0;
+	public static final int TYPE_MINHASH = 1;
+	public static final String fileSuffix = "_lsh.bin";
+
+	private static final int FILE_VERSION = 1;
+
+	VectorSpace vectorSpace;
+	String[] labels;
+	int[][] signatures;
+
+	private int type;
+	private int numTables;
+	private int numBits;
+	private long seed;
+	private boolean multiProbe;
+	private FeatureHash featureHash;
+	private ArrayList<TIntObjectHashMap<TIntArrayList>> buckets;
+
+	/**
+	 * Build a new index.
+	 * @param vectorSpace Vector space that provides the vectors
+	 * @param words Words that will be returned as neighbours
+	 * @param type TYPE_SIMHASH or TYPE_MINHASH
+	 * @param numTables Number of hash tables. More tables increase recall.
+	 * @param numBits Number of hyperplanes or min-hashes combined into one signature. More bits give smaller buckets and increase precision. At most 32 for TYPE_SIMHASH.
+	 * @param seed Random seed
+	 * @param numThreads Number of threads for calculating the signatures
+	 */
+	public LshIndex(VectorSpace vectorSpace, Collection<String> words, int type, int numTables, int numBits, long seed, int numThreads){
+		this(vectorSpace, type, numTables, numBits, seed);
+		this.labels = words.toArray(new String[words.size()]);
+		this.signatures = new int[this.labels.length][];
+
+		BlockingQueue<Runnable> queue = new LinkedBlockingQueue<Runnable>();
+		ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(numThreads, numThreads, 30, TimeUnit.SECONDS, queue);
+
+		int chunkSize = Math.max(1, (this.labels.length + numThreads * 4 - 1) / (numThreads * 4));
+		for(int start = 0; start < this.labels.length; start += chunkSize)
+			futures.add(executor.submit(new LshSignatureTask(this, start, Math.min(this.labels.length, start + chunkSize))));
+
+		// Wait to finish
+		try {
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			executor.shutdown();
+		}
+
+		buildBuckets();
+	}
+
+	private LshIndex(VectorSpace vectorSpace, int type, int numTables, int numBits, long seed){
+		if(type != TYPE_SIMHASH && type != TYPE_MINHASH)
+			throw new IllegalArgumentException("Unknown LSH type: " + type);
+		if(numTables <= 0 || numBits <= 0 || (type == TYPE_SIMHASH && numBits > 32))
+			throw new IllegalArgumentException("Invalid number of tables or bits: " + numTables + " " + numBits);
+		this.vectorSpace = vectorSpace;
+		this.type = type;
+		this.numTables = numTables;
+		this.numBits = numBits;
+		this.seed = seed;
+		this.multiProbe = false;
+		this.featureHash = new FeatureHash(vectorSpace.getFeatureIndex(), seed);
+	}
+
+	/**
+	 * Load an index that was saved with save().
+	 * @param path Model path. The index is read from path + fileSuffix.
+	 * @param vectorSpace Vector space built from the same model with the same weighting scheme
+	 * @return The index
+	 */
+	public static LshIndex load(String path, VectorSpace vectorSpace){
+		try{
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path + fileSuffix)));
+			int version = in.readInt();
+			if(version != FILE_VERSION)
+				throw new RuntimeException("Unsupported LSH index version: " + version);
+			int weightScheme = in.readInt();
+			if(weightScheme != vectorSpace.getWeightScheme())
+				throw new RuntimeException("The LSH index was built with weighting scheme " + weightScheme + ", not " + vectorSpace.getWeightScheme());
+
+			LshIndex index = new LshIndex(vectorSpace, in.readInt(), in.readInt(), in.readInt(), in.readLong());
+			int size = in.readInt();
+			index.labels = new String[size];
+			index.signatures = new int[size][index.numTables];
+			for(int i = 0; i < size; i++){
+				index.labels[i] = in.readUTF();
+				for(int t = 0; t < index.numTables; t++)
+					index.signatures[i][t] = in.readInt();
+			}
+			in.close();
+
+			index.buildBuckets();
+			return index;
+		} catch(Exception e){
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Save the index next to the model, into path + fileSuffix.
+	 * @param path Model path
+	 */
+	public void save(String path){
+		try{
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path + fileSuffix)));
+			out.writeInt(FILE_VERSION);
+			out.writeInt(vectorSpace.getWeightScheme());
+			out.writeInt(type);
+			out.writeInt(numTables);
+			out.writeInt(numBits);
+			out.writeLong(seed);
+			out.writeInt(labels.length);
+			for(int i = 0; i < labels.length; i++){
+				out.writeUTF(labels[i]);
+				for(int t = 0; t < numTables; t++)
+					out.writeInt(signatures[i][t]);
+			}
+			out.close();
+		} catch(Exception e){
+			throw new RuntimeException(e);
+		}
+	}
+
+	private void buildBuckets(){
+		this.buckets = new ArrayList<TIntObjectHashMap<TIntArrayList>>();
+		for(int t = 0; t < numTables; t++){
+			TIntObjectHashMap<TIntArrayList> table = new TIntObjectHashMap<TIntArrayList>();
+			for(int i = 0; i < labels.length; i++){
+				TIntArrayList bucket = table.get(signatures[i][t]);
+				if(bucket == null){
+					bucket = new TIntArrayList();
+					table.put(signatures[i][t], bucket);
+				}
+				bucket.add(i);
+			}
+			this.buckets.add(table);
+		}
+	}
+
+	/**
+	 * Get the index type that approximates a similarity measure.
+	 * @param simMeasure Similarity measure
+	 * @return TYPE_MINHASH for the set-based measures, TYPE_SIMHASH otherwise
+	 */
+	public static int getType(SimilarityFunction simMeasure){
+		if(simMeasure == SimMeasure.JACCARD_SET || simMeasure == SimMeasure.DICE_SET || simMeasure == SimMeasure.OVERLAP_SET || simMeasure == SimMeasure.COSINE_SET)
+			return TYPE_MINHASH;
+		return TYPE_SIMHASH;
+	}
+
+	/**
+	 * When multi-probing is enabled, SimHash queries also look into the buckets that differ from the query signature by one bit.
+	 * This increases recall without adding tables, at the cost of more candidates.
+	 * @param multiProbe
+	 */
+	public void setMultiProbe(boolean multiProbe){
+		this.multiProbe = multiProbe;
+	}
+
+	public int size(){
+		return this.labels.length;
+	}
+
+	/**
+	 * Calculate the signatures of a vector, one for each table.
+	 * @param vector
+	 * @return
+	 */
+	int[] getSignature(SparseVector vector){
+		int[] ids = vector.getIds();
+		double[] values = vector.getValues();
+		int[] signature = new int[numTables];
+
+		if(type == TYPE_SIMHASH){
+			// Each 64-bit random number gives the hyperplane directions for 64 bits of the signatures
+			int totalBits = numTables * numBits;
+			double[] projections = new double[totalBits];
+			for(int i = 0; i < ids.length; i++){
+				if(values[i] == 0.0 || !featureHash.contains(ids[i]))
+					continue;
+				for(int block = 0; block * 64 < totalBits; block++){
+					long r = featureHash.random(ids[i], block);
+					for(int k = block * 64; k < Math.min(totalBits, block * 64 + 64); k++)
+						projections[k] += (((r >>> (k & 63)) & 1L) != 0L)?values[i]:-values[i];
+				}
+			}
+			for(int t = 0; t < numTables; t++)
+				for(int k = 0; k < numBits; k++)
+					if(projections[t * numBits + k] > 0.0)
+						signature[t] |= (1 << k);
+		}
+		else {
+			for(int t = 0; t < numTables; t++){
+				long combined = t;
+				for(int k = 0; k < numBits; k++){
+					long min = Long.MAX_VALUE;
+					for(int i = 0; i < ids.length; i++){
+						if(values[i] == 0.0 || !featureHash.contains(ids[i]))
+							continue;
+						long r = featureHash.random(ids[i], t * numBits + k);
+						if(r < min)
+							min = r;
+					}
+					combined = FeatureHash.mix(combined ^ min);
+				}
+				signature[t] = (int)(combined ^ (combined >>> 32));
+			}
+		}
+		return signature;
+	}
+
+	/**
+	 * Find the words that share a bucket with the given word in at least one table.
+	 * @param word Query word, does not need to be in the index
+	 * @param limit Not used, all the words in the matching buckets are returned
+	 * @return Candidate words, not including the query word
+	 */
+	@Override
+	public LinkedHashSet<String> getCandidates(String word, int limit){
+		int[] signature = getSignature(vectorSpace.getSparseVector(word));
+		TIntHashSet seen = new TIntHashSet();
+		LinkedHashSet<String> candidates = new LinkedHashSet<String>();
+		for(int t = 0; t < numTables; t++){
+			addCandidates(buckets.get(t).get(signature[t]), seen, candidates);
+			if(multiProbe && type == TYPE_SIMHASH)
+				for(int k = 0; k < numBits; k++)
+					addCandidates(buckets.get(t).get(signature[t] ^ (1 << k)), seen, candidates);
+		}
+		candidates.remove(word);
+		return candidates;
+	}
+
+	private void addCandidates(TIntArrayList bucket, TIntHashSet seen, LinkedHashSet<String> candidates){
+		if(bucket == null)
+			return;
+		for(int i = 0; i < bucket.size(); i++)
+			if(seen.add(bucket.get(i)))
+				candidates.add(labels[bucket.get(i)]);
+	}
+
+	/**
+	 * Find the approximate top neighbours of a word. The candidates from the hash tables are scored with the exact similarity measure.
+	 * @param word Query word
+	 * @param simMeasure Similarity measure used for verifying the candidates
+	 * @param findHypernyms Same as in SimFinder.getScores()
+	 * @param limit Number of neighbours to return
+	 * @return Neighbours sorted by score (ascending for distances)
+	 */
+	public LinkedHashMap<String,Double> getTopScores(String word, SimilarityFunction simMeasure, boolean findHypernyms, int limit){
+		LinkedHashMap<String,Double> result = new LinkedHashMap<String,Double>();
+		new SimTopTask(word, getCandidates(word, limit), simMeasure, findHypernyms, limit, vectorSpace, result).run();
+		return result;
+	}
+
+	/**
+	 * Compare the approximate neighbours against the exact results from SimFinder.
+	 * Recall is the proportion of the exact top neighbours that are also returned by the index, averaged over the query words.
+	 * The query word itself is excluded from both lists.
+	 * @param queryWords Words to evaluate on
+	 * @param simMeasure Similarity measure
+	 * @param findHypernyms Same as in SimFinder.getScores()
+	 * @param limit Number of neighbours
+	 * @param numThreads Number of threads for the exact search
+	 * @return Average recall
+	 */
+	public double getRecall(Collection<String> queryWords, SimilarityFunction simMeasure, boolean findHypernyms, int limit, int numThreads){
+		LinkedHashSet<String> candidateWords = new LinkedHashSet<String>();
+		for(String label : labels)
+			candidateWords.add(label);
+		return new SimFinder(vectorSpace).getRecall(this, queryWords, candidateWords, simMeasure, findHypernyms, limit, numThreads);
+	}
+}
@@ -0,0 +1,17 @@
+package sem.sim;
+
+import java.util.LinkedHashSet;
+
+/**
+ * An index that quickly finds likely neighbours of a word, which are then scored exactly.
+ * SimFinder.setNeighbourIndex() restricts the top-k search to these candidates.
+ */
+public interface NeighbourIndex {
+	/**
+	 * Get the candidate neighbours of a word.
+	 * @param word Query word, does not need to be in the index
+	 * @param limit Number of results the caller needs. Indexes that rank their candidates return at least this many, if the index has enough words.
+	 * @return Candidate words, not including the query word
+	 */
+	public LinkedHashSet<String> getCandidates(String word, int limit);
+}
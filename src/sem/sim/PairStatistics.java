@@ -0,0 +1,299 @@
+package sem.sim;
+
+import java.util.HashMap;
+import java.util.Map.Entry;
+
+/**
+ * Collects the aggregate statistics of a pair of vectors that most similarity measures are built from.
+ * The intersection is walked only once, after which every decomposable measure can be calculated in constant time.
+ * This is used by SimMeasure.sim() when scoring many measures for the same pair.
+ */
+class PairStatistics {
+	// Size of the vectors. Needed to reproduce which vector the set-based measures iterate over.
+	int aSize, bSize;
+
+	// Statistics over all the elements of a single vector
+	double aSum, bSum, aSquareSum, bSquareSum, aPositiveSum, bPositiveSum, aNonZeroCount, bNonZeroCount;
+
+	// Statistics over the intersection
+	double dotProduct, minSum, maxSum;
+	double sharedNonZeroA, sharedNonZeroB, sharedNonZeroBoth;
+	double sharedPositiveA, sharedPositiveB;
+	double klDivergence, klDivergenceR, jsDivergence, alphaSkew, alphaSkewR;
+
+	// Statistics over the elements that occur in only one of the vectors
+	double aOnlySum, bOnlySum;
+
+	// Distances, collected over the union
+	double manhattan, euclidean, chebyshev;
+
+	static final double ALPHA = 0.99;
+	static final double LOG_2 = Math.log(2.0);
+	static final double LOG_ALPHA = Math.log(1.0 / (1.0 - ALPHA));
+
+	public <T> PairStatistics(HashMap<T,Double> a, HashMap<T,Double> b){
+		SimMeasure.validateVectors(a, b);
+		this.aSize = a.size();
+		this.bSize = b.size();
+
+		double aValue, diff;
+		Double bValue;
+		for(Entry<T,Double> e : a.entrySet()){
+			aValue = e.getValue();
+			aSum += aValue;
+			aSquareSum += aValue * aValue;
+			if(aValue > 0.0)
+				aPositiveSum += aValue;
+			if(aValue != 0.0)
+				aNonZeroCount++;
+
+			bValue = b.get(e.getKey());
+			if(bValue != null){
+				dotProduct += aValue * bValue;
+				minSum += Math.min(aValue, bValue);
+				maxSum += Math.max(aValue, bValue);
+
+				if(aValue != 0.0)
+					sharedNonZeroA++;
+				if(bValue != 0.0)
+					sharedNonZeroB++;
+				if(aValue != 0.0 && bValue != 0.0)
+					sharedNonZeroBoth++;
+
+				if(aValue > 0.0 && bValue > 0.0){
+					sharedPositiveA += aValue;
+					sharedPositiveB += bValue;
+					klDivergence += bValue * Math.log(bValue / aValue);
+					klDivergenceR += aValue * Math.log(aValue / bValue);
+					jsDivergence += aValue * Math.log(aValue / ((aValue + bValue) / 2));
+					jsDivergence += bValue * Math.log(bValue / ((bValue + aValue) / 2));
+					alphaSkew += bValue * Math.log(bValue / ((1 - ALPHA) * bValue + ALPHA * aValue));
+					alphaSkewR += aValue * Math.log(aValue / ((1 - ALPHA) * aValue + ALPHA * bValue));
+				}
+				else if(aValue > 0.0 && bValue == 0.0)
+					jsDivergence += aValue * LOG_2;
+				else if(bValue > 0.0 && aValue == 0.0)
+					jsDivergence += bValue * LOG_2;
+
+				diff = Math.abs(aValue - bValue);
+			}
+			else {
+				aOnlySum += aValue;
+				if(aValue > 0.0){
+					jsDivergence += aValue * LOG_2;
+					alphaSkewR += aValue * LOG_ALPHA;
+				}
+				diff = Math.abs(aValue);
+			}
+
+			manhattan += diff;
+			euclidean += diff * diff;
+			if(diff > chebyshev)
+				chebyshev = diff;
+		}
+
+		for(Entry<T,Double> e : b.entrySet()){
+			aValue = e.getValue();
+			bSum += aValue;
+			bSquareSum += aValue * aValue;
+			if(aValue > 0.0)
+				bPositiveSum += aValue;
+			if(aValue != 0.0)
+				bNonZeroCount++;
+
+			if(!a.containsKey(e.getKey())){
+				bOnlySum += aValue;
+				if(aValue > 0.0){
+					jsDivergence += aValue * LOG_2;
+					alphaSkew += aValue * LOG_ALPHA;
+				}
+				diff = Math.abs(aValue);
+				manhattan += diff;
+				euclidean += diff * diff;
+				if(diff > chebyshev)
+					chebyshev = diff;
+			}
+		}
+	}
+
+	/**
+	 * The set-based measures iterate over the smaller vector and only check whether the value in the other vector is nonzero.
+	 * @return The number of shared features, counted in the same way as the individual set-based measures.
+	 */
+	public double getSharedCount(){
+		if(aSize > bSize)
+			return sharedNonZeroA;
+		return sharedNonZeroB;
+	}
+
+	public double cosine(){
+		if(aSquareSum == 0.0 || bSquareSum == 0.0)
+			return 0.0;
+		return dotProduct / Math.sqrt(aSquareSum * bSquareSum);
+	}
+
+	public double jaccardSet(){
+		double union = aNonZeroCount + bNonZeroCount - sharedNonZeroBoth;
+		if(union == 0.0)
+			return 0.0;
+		return getSharedCount() / union;
+	}
+
+	public double lin(){
+		if(aPositiveSum + bPositiveSum == 0.0)
+			return 0.0;
+		return (sharedPositiveA + sharedPositiveB) / (aPositiveSum + bPositiveSum);
+	}
+
+	public double diceSet(){
+		if(aNonZeroCount + bNonZeroCount == 0.0)
+			return 0.0;
+		return 2 * getSharedCount() / (aNonZeroCount + bNonZeroCount);
+	}
+
+	public double overlapSet(){
+		if(Math.min(aNonZeroCount, bNonZeroCount) == 0.0)
+			return 0.0;
+		return getSharedCount() / Math.min(aNonZeroCount, bNonZeroCount);
+	}
+
+	public double cosineSet(){
+		if(aNonZeroCount == 0.0 || bNonZeroCount == 0.0)
+			return 0.0;
+		return getSharedCount() / Math.sqrt(aNonZeroCount * bNonZeroCount);
+	}
+
+	public double jaccardGen(){
+		double union = maxSum + aOnlySum + bOnlySum;
+		if(union == 0.0)
+			return 0.0;
+		return minSum / union;
+	}
+
+	public double diceGen(){
+		if(aSum + bSum == 0.0)
+			return 0.0;
+		return 2 * minSum / (aSum + bSum);
+	}
+
+	public double diceGen2(){
+		if(aSum + bSum == 0.0)
+			return 0.0;
+		return dotProduct / (aSum + bSum);
+	}
+
+	public double clarkeDE(){
+		if(aSum == 0.0)
+			return 0.0;
+		return minSum / aSum;
+	}
+
+	public double weedsPrec(){
+		if(aPositiveSum == 0.0)
+			return 0.0;
+		return sharedPositiveA / aPositiveSum;
+	}
+
+	public double weedsRec(){
+		if(bPositiveSum == 0.0)
+			return 0.0;
+		return sharedPositiveB / bPositiveSum;
+	}
+
+	public double weedsF(){
+		double prec = weedsPrec();
+		double rec = weedsRec();
+		if(prec + rec == 0.0)
+			return 0.0;
+		return 2 * prec * rec / (prec + rec);
+	}
+
+	public double linD(){
+		if(aPositiveSum + sharedPositiveB == 0.0)
+			return 0.0;
+		return (sharedPositiveA + sharedPositiveB) / (aPositiveSum + sharedPositiveB);
+	}
+
+	public double balPrec(){
+		return Math.sqrt(lin() * weedsPrec());
+	}
+
+	/**
+	 * Calculate the score for a measure, if it can be derived from the collected statistics.
+	 * @param simMeasure Similarity measure
+	 * @return The score, or NaN if the measure needs the full vectors (e.g. the rank-based measures).
+	 */
+	public double get(SimMeasure simMeasure){
+		switch(simMeasure){
+		case COSINE:
+			return cosine();
+		case JACCARD_SET:
+			return jaccardSet();
+		case LIN:
+			return lin();
+		case DICE_SET:
+			return diceSet();
+		case OVERLAP_SET:
+			return overlapSet();
+		case COSINE_SET:
+			return cosineSet();
+		case JACCARD_GEN:
+			return jaccardGen();
+		case DICE_GEN:
+			return diceGen();
+		case DICE_GEN_2:
+			return diceGen2();
+		case CLARKE_DE:
+			return clarkeDE();
+		case WEEDS_PREC:
+			return weedsPrec();
+		case WEEDS_REC:
+			return weedsRec();
+		case WEEDS_F:
+			return weedsF();
+		case LIN_D:
+			return linD();
+		case BAL_PREC:
+			return balPrec();
+		case KL_DIVERGENCE:
+			return klDivergence;
+		case KL_DIVERGENCE_R:
+			return klDivergenceR;
+		case JS_DIVERGENCE:
+			return jsDivergence;
+		case ALPHA_SKEW:
+			return alphaSkew;
+		case ALPHA_SKEW_R:
+			return alphaSkewR;
+		case MANHATTAN:
+			return manhattan;
+		case EUCLIDEAN:
+			return Math.sqrt(euclidean);
+		case CHEBYSHEV:
+			return chebyshev;
+		default:
+			return Double.NaN;
+		}
+	}
+
+	/**
+	 * Check whether the measure can be calculated from the pair statistics alone.
+	 * @param simMeasure Similarity measure
+	 * @return True if get() will return a score for this measure
+	 */
+	public static boolean supports(SimMeasure simMeasure){
+		switch(simMeasure){
+		case PEARSON:
+		case SPEARMAN:
+		case KENDALLS_TAU:
+		case AP:
+		case AP_INC:
+		case BAL_AP_INC:
+		case WEIGHTED_COSINE:
+		case WEIGHTED_COSINE_2:
+			return false;
+		default:
+			return true;
+		}
+	}
+}
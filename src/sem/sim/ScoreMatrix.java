@@ -0,0 +1,352 @@
+package sem.sim;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import sem.model.VectorSpace;
+import sem.util.FileReader;
+import sem.util.SparseVector;
+
+/**
+ * Scores one tile of the matrix: a band of main words against a range of candidate words.
+ */
+class ScoreMatrixTask implements Runnable{
+	VectorSpace vectorSpace;
+	SimilarityFunction simMeasure;
+	boolean findHypernyms;
+	List<String> mainWords;
+	List<String> candidateWords;
+	int rowStart, rowEnd, columnStart, columnEnd;
+	float[] band;
+
+	public ScoreMatrixTask(VectorSpace vectorSpace, SimilarityFunction simMeasure, boolean findHypernyms, List<String> mainWords, List<String> candidateWords, int rowStart, int rowEnd, int columnStart, int columnEnd, float[] band){
+		this.vectorSpace = vectorSpace;
+		this.simMeasure = simMeasure;
+		this.findHypernyms = findHypernyms;
+		this.mainWords = mainWords;
+		this.candidateWords = candidateWords;
+		this.rowStart = rowStart;
+		this.rowEnd = rowEnd;
+		this.columnStart = columnStart;
+		this.columnEnd = columnEnd;
+		this.band = band;
+	}
+
+	@Override
+	public void run() {
+		int columns = candidateWords.size();
+		double score;
+		if(SimFinder.useSparse(simMeasure)){
+			SparseVector[] mainVectors = new SparseVector[rowEnd - rowStart];
+			for(int r = rowStart; r < rowEnd; r++)
+				mainVectors[r - rowStart] = vectorSpace.getSparseVector(mainWords.get(r));
+			// Each candidate vector is compared against the whole band while it is in the cache
+			for(int c = columnStart; c < columnEnd; c++){
+				SparseVector candidateVector = vectorSpace.getSparseVector(candidateWords.get(c));
+				for(int r = rowStart; r < rowEnd; r++){
+					if(!findHypernyms)
+						score = simMeasure.sim(candidateVector, mainVectors[r - rowStart]);
+					else
+						score = simMeasure.sim(mainVectors[r - rowStart], candidateVector);
+					band[(r - rowStart) * columns + c] = (float)score;
+				}
+			}
+		}
+		else {
+			SimMeasure measure = (SimMeasure)simMeasure;
+			for(int c = columnStart; c < columnEnd; c++){
+				LinkedHashMap<Integer,Double> candidateVector = vectorSpace.getVector(candidateWords.get(c));
+				for(int r = rowStart; r < rowEnd; r++){
+					if(!findHypernyms)
+						score = measure.sim(candidateVector, vectorSpace.getVector(mainWords.get(r)));
+					else
+						score = measure.sim(vectorSpace.getVector(mainWords.get(r)), candidateVector);
+					band[(r - rowStart) * columns + c] = (float)score;
+				}
+			}
+		}
+	}
+}
+
+/**
+ * A matrix of similarity scores between main words (rows) and candidate words (columns), stored in a binary file.
+ * <p>The file contains a header with the measure label and both word lists, followed by the scores as floats in row-major order.
+ * compute() fills the matrix in bands of rows, splitting each band into tiles that are scored in parallel. open() memory-maps an existing file for random access.
+ */
+public class ScoreMatrix {
+	public static final String fileSuffix = ".scores";
+
+	private static final int FILE_VERSION = 1;
+	private static final int BAND_ROWS = 64;
+	private static final int TILE_COLUMNS = 1024;
+
+	private String measureLabel;
+	private boolean findHypernyms;
+	private ArrayList<String> mainWords;
+	private ArrayList<String> candidateWords;
+	private HashMap<String,Integer> rowIds;
+	private HashMap<String,Integer> columnIds;
+	private FloatBuffer[] segments;
+	private int rowsPerSegment;
+
+	private ScoreMatrix(){
+	}
+
+	/**
+	 * Write the file header: version, header length, measure label, direction and the word lists.
+	 */
+	private static DataOutputStream createFile(String outputFile, String measureLabel, boolean findHypernyms, List<String> mainWords, List<String> candidateWords) throws Exception{
+		ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+		DataOutputStream header = new DataOutputStream(headerBytes);
+		header.writeUTF(measureLabel);
+		header.writeBoolean(findHypernyms);
+		header.writeInt(mainWords.size());
+		header.writeInt(candidateWords.size());
+		for(String word : mainWords)
+			header.writeUTF(word);
+		for(String word : candidateWords)
+			header.writeUTF(word);
+		header.close();
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(outputFile), 1 << 16));
+		out.writeInt(FILE_VERSION);
+		out.writeInt(headerBytes.size());
+		headerBytes.writeTo(out);
+		return out;
+	}
+
+	/**
+	 * Calculate the scores between all main words and all candidate words, and write them into a file.
+	 * Rows are processed in bands, and each band is split into tiles of candidate words that are scored in parallel.
+	 * Only one band is kept in memory.
+	 * @param vectorSpace Vector space
+	 * @param simMeasure Similarity measure
+	 * @param findHypernyms Same as in SimFinder.getScores(). With FALSE, the score is sim(candidate, mainWord).
+	 * @param mainWords Row words
+	 * @param candidateWords Column words
+	 * @param outputFile Output file
+	 * @param numThreads Number of threads
+	 */
+	public static void compute(VectorSpace vectorSpace, SimilarityFunction simMeasure, boolean findHypernyms, List<String> mainWords, List<String> candidateWords, String outputFile, int numThreads){
+		BlockingQueue<Runnable> queue = new LinkedBlockingQueue<Runnable>();
+		ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(numThreads, numThreads, 30, TimeUnit.SECONDS, queue);
+
+		try{
+			DataOutputStream out = createFile(outputFile, simMeasure.getLabel(), findHypernyms, mainWords, candidateWords);
+			int columns = candidateWords.size();
+			float[] band = new float[Math.min(BAND_ROWS, mainWords.size()) * columns];
+			for(int rowStart = 0; rowStart < mainWords.size(); rowStart += BAND_ROWS){
+				int rowEnd = Math.min(mainWords.size(), rowStart + BAND_ROWS);
+				for(int columnStart = 0; columnStart < columns; columnStart += TILE_COLUMNS)
+					futures.add(executor.submit(new ScoreMatrixTask(vectorSpace, simMeasure, findHypernyms, mainWords, candidateWords, rowStart, rowEnd, columnStart, Math.min(columns, columnStart + TILE_COLUMNS), band)));
+
+				// Wait for the band to finish
+				for (Future<?> future : futures) {
+					future.get();
+				}
+				futures.clear();
+
+				for(int i = 0; i < (rowEnd - rowStart) * columns; i++)
+					out.writeFloat(band[i]);
+			}
+			out.close();
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Write already calculated scores into a file.
+	 * @param outputFile Output file
+	 * @param measureLabel Label of the similarity measure
+	 * @param findHypernyms Direction of the scores
+	 * @param mainWords Row words
+	 * @param candidateWords Column words
+	 * @param scores Scores for each main word and candidate word. Missing scores are written as NaN.
+	 */
+	public static void write(String outputFile, String measureLabel, boolean findHypernyms, List<String> mainWords, List<String> candidateWords, LinkedHashMap<String,LinkedHashMap<String,Double>> scores){
+		try{
+			DataOutputStream out = createFile(outputFile, measureLabel, findHypernyms, mainWords, candidateWords);
+			for(String mainWord : mainWords){
+				LinkedHashMap<String,Double> row = scores.get(mainWord);
+				for(String candidateWord : candidateWords){
+					Double score = (row == null)?null:row.get(candidateWord);
+					out.writeFloat((score == null)?Float.NaN:score.floatValue());
+				}
+			}
+			out.close();
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Convert an older text score cache into a score matrix file.
+	 * The text cache starts with the candidate words, one per line, followed by a block for every main word:
+	 * a "## mainWord" line and then one score per candidate word, in the same order.
+	 * The cache is read twice, so only the word lists are kept in memory. Missing scores are written as NaN.
+	 * @param inputFile Text cache
+	 * @param outputFile Output file
+	 * @param measureLabel Label of the similarity measure
+	 * @param findHypernyms Direction of the scores
+	 */
+	public static void convertText(String inputFile, String outputFile, String measureLabel, boolean findHypernyms){
+		ArrayList<String> mainWords = new ArrayList<String>();
+		ArrayList<String> candidateWords = new ArrayList<String>();
+		FileReader fileReader = new FileReader(inputFile);
+		while(fileReader.hasNext()){
+			String line = fileReader.next();
+			if(line.startsWith("## "))
+				mainWords.add(line.substring(3));
+			else if(mainWords.isEmpty())
+				candidateWords.add(line);
+		}
+		fileReader.close();
+
+		try {
+			DataOutputStream out = createFile(outputFile, measureLabel, findHypernyms, mainWords, candidateWords);
+			try {
+				int candidateCount = -1;
+				fileReader = new FileReader(inputFile);
+				while(fileReader.hasNext()){
+					String line = fileReader.next();
+					if(line.startsWith("## ")){
+						for(; candidateCount >= 0 && candidateCount < candidateWords.size(); candidateCount++)
+							out.writeFloat(Float.NaN);
+						candidateCount = 0;
+					}
+					else if(candidateCount >= 0){
+						if(candidateCount >= candidateWords.size())
+							throw new RuntimeException("Too many scores for a main word in " + inputFile);
+						out.writeFloat(Float.parseFloat(line));
+						candidateCount++;
+					}
+				}
+				for(; candidateCount >= 0 && candidateCount < candidateWords.size(); candidateCount++)
+					out.writeFloat(Float.NaN);
+				fileReader.close();
+			} finally {
+				out.close();
+			}
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Open a score matrix file. The word lists are read into memory and the scores are memory-mapped.
+	 * @param inputFile Score matrix file
+	 * @return The matrix
+	 */
+	public static ScoreMatrix open(String inputFile){
+		try{
+			ScoreMatrix matrix = new ScoreMatrix();
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(inputFile)));
+			int version = in.readInt();
+			if(version != FILE_VERSION)
+				throw new RuntimeException("Unsupported score matrix version: " + version);
+			long dataOffset = 8L + in.readInt();
+			matrix.measureLabel = in.readUTF();
+			matrix.findHypernyms = in.readBoolean();
+			int rows = in.readInt();
+			int columns = in.readInt();
+			matrix.mainWords = new ArrayList<String>(rows);
+			matrix.rowIds = new HashMap<String,Integer>();
+			for(int i = 0; i < rows; i++){
+				matrix.mainWords.add(in.readUTF());
+				matrix.rowIds.put(matrix.mainWords.get(i), i);
+			}
+			matrix.candidateWords = new ArrayList<String>(columns);
+			matrix.columnIds = new HashMap<String,Integer>();
+			for(int i = 0; i < columns; i++){
+				matrix.candidateWords.add(in.readUTF());
+				matrix.columnIds.put(matrix.candidateWords.get(i), i);
+			}
+			in.close();
+
+			// A single mapping is limited to 2GB, so large matrices are mapped in segments of whole rows
+			RandomAccessFile file = new RandomAccessFile(inputFile, "r");
+			FileChannel channel = file.getChannel();
+			matrix.rowsPerSegment = Math.max(1, Integer.MAX_VALUE / Math.max(1, columns * 4));
+			int numSegments = (rows + matrix.rowsPerSegment - 1) / matrix.rowsPerSegment;
+			matrix.segments = new FloatBuffer[numSegments];
+			for(int s = 0; s < numSegments; s++){
+				long offset = dataOffset + (long)s * matrix.rowsPerSegment * columns * 4;
+				int segmentRows = Math.min(matrix.rowsPerSegment, rows - s * matrix.rowsPerSegment);
+				matrix.segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, offset, (long)segmentRows * columns * 4).asFloatBuffer();
+			}
+			file.close();
+			return matrix;
+		} catch(Exception e){
+			throw new RuntimeException(e);
+		}
+	}
+
+	public String getMeasureLabel(){
+		return this.measureLabel;
+	}
+
+	public boolean getFindHypernyms(){
+		return this.findHypernyms;
+	}
+
+	public ArrayList<String> getMainWords(){
+		return this.mainWords;
+	}
+
+	public ArrayList<String> getCandidateWords(){
+		return this.candidateWords;
+	}
+
+	/**
+	 * Get a single score.
+	 * @param mainWord Row word
+	 * @param candidateWord Column word
+	 * @return The score, or null if either word is not in the matrix
+	 */
+	public Double getScore(String mainWord, String candidateWord){
+		Integer row = rowIds.get(mainWord);
+		Integer column = columnIds.get(candidateWord);
+		if(row == null || column == null)
+			return null;
+		return (double)segments[row / rowsPerSegment].get((row % rowsPerSegment) * candidateWords.size() + column);
+	}
+
+	/**
+	 * Get all the scores for a main word.
+	 * @param mainWord Row word
+	 * @return Scores in the order of getCandidateWords(), or null if the word is not in the matrix
+	 */
+	public float[] getRow(String mainWord){
+		Integer row = rowIds.get(mainWord);
+		if(row == null)
+			return null;
+		float[] scores = new float[candidateWords.size()];
+		FloatBuffer view = segments[row / rowsPerSegment].duplicate();
+		view.position((row % rowsPerSegment) * candidateWords.size());
+		view.get(scores);
+		return scores;
+	}
+}
@@ -1,6 +1,7 @@
 package sem.sim;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.concurrent.BlockingQueue;
@@ -12,57 +13,36 @@ import java.util.concurrent.TimeUnit;
 import sem.model.VectorSpace;
 import sem.util.Pair;
 
-class SimGeneratorTask implements Runnable{
-	String mainWord;
-	LinkedHashSet<String> candidateWords;
-	SimMeasure simMeasure;
-	boolean findHypernyms;
-	VectorSpace vectorSpace;
-	LinkedHashMap<String,Double> result;
-	
-	
-	/**
-	 * Create a new task for finding most similar items.
-	 * @param mainWord
-	 * @param candidateWords
-	 * @param simMeasureType
-	 * @param findHypernyms Value FALSE will put the mainWord in the second argument position of the similarity measure, and find hyponyms. Setting it to TRUE will put mainWord in the first argument position and find hypernyms. This only affects non-symmetric measures.
-	 * @param vectorSpace
-	 * @param result
-	 */
-	public SimGeneratorTask(String mainWord, LinkedHashSet<String> candidateWords, SimMeasure simMeasure, boolean findHypernyms, VectorSpace vectorSpace, LinkedHashMap<String,Double> result){
-		this.mainWord = mainWord;
-		this.candidateWords = candidateWords;
-		this.simMeasure = simMeasure;
-		this.findHypernyms = findHypernyms;
-		this.vectorSpace = vectorSpace;
-		this.result = result;
-	}
-
-	@Override
-	public void run() { 
-		LinkedHashMap<Integer,Double> mainVector = vectorSpace.getVector(mainWord);
-		for(String candidateWord : candidateWords){
-			double val;
-			if(!this.findHypernyms)
-				val = this.simMeasure.sim(vectorSpace.getVector(candidateWord), mainVector);
-			else
-				val = this.simMeasure.sim(mainVector, vectorSpace.getVector(candidateWord));
-
-			result.put(candidateWord, val);
-		}
-	}
-}
-
 /**
  * A class that can perform various tasks related to finding similarities or most similar items.
  * For example, you can get the (directional) similarity between two items for hyponym detection. Or you can specify main words and candidate words, and run hyponym generation. In this case, work on different main words can be distributed to multiple cores.
  */
 public class SimFinder {
 	private VectorSpace vectorSpace;
+	private NeighbourIndex neighbourIndex;
 	
 	public SimFinder(VectorSpace vectorSpace){
 		this.vectorSpace = vectorSpace;
+		this.neighbourIndex = null;
+	}
+	
+	/**
+	 * Use an approximate nearest neighbour index (e.g. LshIndex or HnswIndex) in getTopScores().
+	 * Only the candidates returned by the index are scored, which is much faster but can miss some of the exact top results.
+	 * @param neighbourIndex The index, or null for exact search
+	 */
+	public void setNeighbourIndex(NeighbourIndex neighbourIndex){
+		this.neighbourIndex = neighbourIndex;
+	}
+	
+	/**
+	 * Check whether the function should be given sparse vectors.
+	 * The SimMeasure values without a native sparse implementation are given the weight-sorted map vectors from the VectorSpace instead.
+	 * @param simMeasure
+	 * @return
+	 */
+	static boolean useSparse(SimilarityFunction simMeasure){
+		return !(simMeasure instanceof SimMeasure) || ((SimMeasure)simMeasure).supportsSparse();
 	}
 	
 	/**
@@ -72,11 +52,12 @@ public class SimFinder {
 	 * @param label2
 	 * @return
 	 */
-	public double getScore(SimMeasure simMeasure, String label1, String label2){
-		LinkedHashMap<Integer,Double> vector1 = vectorSpace.getVector(label1);
-		LinkedHashMap<Integer,Double> vector2 = vectorSpace.getVector(label2);
-		
-		double score = simMeasure.sim(vector1, vector2);
+	public double getScore(SimilarityFunction simMeasure, String label1, String label2){
+		double score;
+		if(useSparse(simMeasure))
+			score = simMeasure.sim(vectorSpace.getSparseVector(label1), vectorSpace.getSparseVector(label2));
+		else
+			score = ((SimMeasure)simMeasure).sim(vectorSpace.getVector(label1), vectorSpace.getVector(label2));
 		if(Double.isInfinite(score) || Double.isNaN(score))
 			throw new RuntimeException("Illegal score value: " + score);
 		
@@ -89,7 +70,7 @@ public class SimFinder {
 	 * @param pairs
 	 * @return
 	 */
-	public LinkedHashMap<Pair<String>,Double> getScores(SimMeasure simMeasure, ArrayList<Pair<String>> pairs){
+	public LinkedHashMap<Pair<String>,Double> getScores(SimilarityFunction simMeasure, ArrayList<Pair<String>> pairs){
 		LinkedHashMap<Pair<String>,Double> scores = new LinkedHashMap<Pair<String>,Double>();
 		for(Pair<String> pair : pairs){
 			scores.put(pair, getScore(simMeasure, pair.getItem1(), pair.getItem2()));
@@ -110,7 +91,7 @@ public class SimFinder {
 	 * @param numThreads
 	 * @return
 	 */
-	public LinkedHashMap<String,LinkedHashMap<String,Double>> getScores(LinkedHashSet<String> mainWords, LinkedHashSet<String> candidateWords, SimMeasure simMeasure, boolean findHypernyms, int numThreads){
+	public LinkedHashMap<String,LinkedHashMap<String,Double>> getScores(LinkedHashSet<String> mainWords, LinkedHashSet<String> candidateWords, SimilarityFunction simMeasure, boolean findHypernyms, int numThreads){
 		LinkedHashMap<String,LinkedHashMap<String,Double>> results = new LinkedHashMap<String,LinkedHashMap<String,Double>>();
 		
 		BlockingQueue<Runnable> queue = new LinkedBlockingQueue<Runnable>();
@@ -141,6 +122,114 @@ public class SimFinder {
 		return results;
 	}
 	
+	/**
+	 * Find the top scoring candidate words for each main word.
+	 * For clarkeDE, weedsPrec, lin and balPrec, candidates are ordered by an upper bound that is calculated from the per-vector statistics, and most of the exact scores are never calculated.
+	 * For other measures, all the candidates are scored and then sorted.
+	 * If a neighbour index has been set, only the candidates found by the index are considered.
+	 * @param mainWords
+	 * @param candidateWords
+	 * @param simMeasure
+	 * @param findHypernyms Value FALSE will put the mainWord in the second argument position of the similarity measure, and find hyponyms. Setting it to TRUE will put mainWord in the first argument position and find hypernyms. This only affects non-symmetric measures.
+	 * @param limit Number of candidates to return for each main word
+	 * @param numThreads
+	 * @return For each main word, the top candidates sorted by score (ascending for distances).
+	 */
+	public LinkedHashMap<String,LinkedHashMap<String,Double>> getTopScores(LinkedHashSet<String> mainWords, LinkedHashSet<String> candidateWords, SimilarityFunction simMeasure, boolean findHypernyms, int limit, int numThreads){
+		LinkedHashMap<String,LinkedHashMap<String,Double>> results = new LinkedHashMap<String,LinkedHashMap<String,Double>>();
+		
+		BlockingQueue<Runnable> queue = new LinkedBlockingQueue<Runnable>();
+		ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(numThreads, numThreads, 30, TimeUnit.SECONDS, queue);
+		
+		for(String mainWord : mainWords){
+			LinkedHashMap<String,Double> result = new LinkedHashMap<String,Double>();
+			results.put(mainWord, result);
+			SimTopTask task = new SimTopTask(mainWord, candidateWords, simMeasure, findHypernyms, limit, vectorSpace, neighbourIndex, result);
+			Future<?> future = executor.submit(task);
+			futures.add(future);
+		}
+		
+		// Wait to finish
+		try {
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		
+		futures.clear();
+		queue.clear();
+		executor.shutdown();
+		
+		return results;
+	}
+	
+	/**
+	 * Compare the results of an approximate nearest neighbour index against the exact top results.
+	 * Recall is the proportion of the exact top neighbours that are also found with the index, averaged over the query words.
+	 * The query word itself is excluded from both lists.
+	 * @param neighbourIndex Index to evaluate
+	 * @param queryWords Words to evaluate on
+	 * @param candidateWords Words that can be returned as neighbours
+	 * @param simMeasure
+	 * @param findHypernyms
+	 * @param limit Number of neighbours
+	 * @param numThreads
+	 * @return Average recall
+	 */
+	public double getRecall(NeighbourIndex neighbourIndex, Collection<String> queryWords, LinkedHashSet<String> candidateWords, SimilarityFunction simMeasure, boolean findHypernyms, int limit, int numThreads){
+		NeighbourIndex previousIndex = this.neighbourIndex;
+		LinkedHashSet<String> mainWords = new LinkedHashSet<String>(queryWords);
+		
+		// One extra neighbour, as the query word can be its own neighbour
+		this.neighbourIndex = null;
+		LinkedHashMap<String,LinkedHashMap<String,Double>> exactResults = getTopScores(mainWords, candidateWords, simMeasure, findHypernyms, limit + 1, numThreads);
+		this.neighbourIndex = neighbourIndex;
+		LinkedHashMap<String,LinkedHashMap<String,Double>> approximateResults = getTopScores(mainWords, candidateWords, simMeasure, findHypernyms, limit + 1, numThreads);
+		this.neighbourIndex = previousIndex;
+		
+		double recallSum = 0.0;
+		int count = 0;
+		for(String word : mainWords){
+			ArrayList<String> exact = new ArrayList<String>(exactResults.get(word).keySet());
+			exact.remove(word);
+			if(exact.size() > limit)
+				exact.remove(exact.size() - 1);
+			if(exact.size() == 0)
+				continue;
+			
+			ArrayList<String> approximate = new ArrayList<String>(approximateResults.get(word).keySet());
+			approximate.remove(word);
+			if(approximate.size() > limit)
+				approximate.remove(approximate.size() - 1);
+			
+			int found = 0;
+			for(String neighbour : exact)
+				if(approximate.contains(neighbour))
+					found++;
+			recallSum += (double)found / (double)exact.size();
+			count++;
+		}
+		return (count == 0)?0.0:(recallSum / count);
+	}
+	
+	/**
+	 * A simplified function for finding the top candidates for only one main word.
+	 * @param mainWord
+	 * @param candidateWords
+	 * @param simMeasure
+	 * @param findHypernyms
+	 * @param limit
+	 * @return
+	 */
+	public LinkedHashMap<String,Double> getTopScores(String mainWord, LinkedHashSet<String> candidateWords, SimilarityFunction simMeasure, boolean findHypernyms, int limit){
+		LinkedHashSet<String> mainWords = new LinkedHashSet<String>();
+		mainWords.add(mainWord);
+		return getTopScores(mainWords, candidateWords, simMeasure, findHypernyms, limit, 1).get(mainWord);
+	}
+	
 	/**
 	 * A simplified function for finding the similarities for only one main words.
 	 * @param mainWord
@@ -149,7 +238,7 @@ public class SimFinder {
 	 * @param findHypernyms Value FALSE will put the mainWord in the second argument position of the similarity measure, and find hyponyms. Setting it to TRUE will put mainWord in the first argument position and find hypernyms. This only affects non-symmetric measures.
 	 * @return
 	 */
-	public LinkedHashMap<String,Double> getScores(String mainWord, LinkedHashSet<String> candidateWords, SimMeasure simMeasure, boolean findHypernyms){
+	public LinkedHashMap<String,Double> getScores(String mainWord, LinkedHashSet<String> candidateWords, SimilarityFunction simMeasure, boolean findHypernyms){
 		LinkedHashSet<String> mainWords = new LinkedHashSet<String>();
 		mainWords.add(mainWord);
 		
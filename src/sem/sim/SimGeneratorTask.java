@@ -0,0 +1,71 @@
+package sem.sim;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+
+import sem.model.VectorSpace;
+import sem.util.SparseVector;
+
+class SimGeneratorTask implements Runnable{
+	String mainWord;
+	LinkedHashSet<String> candidateWords;
+	SimilarityFunction simMeasure;
+	boolean findHypernyms;
+	VectorSpace vectorSpace;
+	LinkedHashMap<String,Double> result;
+	
+	
+	/**
+	 * Create a new task for finding most similar items.
+	 * @param mainWord
+	 * @param candidateWords
+	 * @param simMeasureType
+	 * @param findHypernyms Value FALSE will put the mainWord in the second argument position of the similarity measure, and find hyponyms. Setting it to TRUE will put mainWord in the first argument position and find hypernyms. This only affects non-symmetric measures.
+	 * @param vectorSpace
+	 * @param result
+	 */
+	public SimGeneratorTask(String mainWord, LinkedHashSet<String> candidateWords, SimilarityFunction simMeasure, boolean findHypernyms, VectorSpace vectorSpace, LinkedHashMap<String,Double> result){
+		this.mainWord = mainWord;
+		this.candidateWords = candidateWords;
+		this.simMeasure = simMeasure;
+		this.findHypernyms = findHypernyms;
+		this.vectorSpace = vectorSpace;
+		this.result = result;
+	}
+
+	@Override
+	public void run() { 
+		if(SimFinder.useSparse(this.simMeasure)){
+			runSparse();
+			return;
+		}
+		
+		SimMeasure simMeasure = (SimMeasure)this.simMeasure;
+		LinkedHashMap<Integer,Double> mainVector = vectorSpace.getVector(mainWord);
+		for(String candidateWord : candidateWords){
+			double val;
+			if(!this.findHypernyms)
+				val = simMeasure.sim(vectorSpace.getVector(candidateWord), mainVector);
+			else
+				val = simMeasure.sim(mainVector, vectorSpace.getVector(candidateWord));
+
+			result.put(candidateWord, val);
+		}
+	}
+	
+	/**
+	 * Same as run(), but uses the sparse vector implementation of the measure.
+	 */
+	private void runSparse(){
+		SparseVector mainVector = vectorSpace.getSparseVector(mainWord);
+		for(String candidateWord : candidateWords){
+			double val;
+			if(!this.findHypernyms)
+				val = this.simMeasure.sim(vectorSpace.getSparseVector(candidateWord), mainVector);
+			else
+				val = this.simMeasure.sim(mainVector, vectorSpace.getSparseVector(candidateWord));
+
+			result.put(candidateWord, val);
+		}
+	}
+}
@@ -7,14 +7,17 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map.Entry;
 
+import sem.util.SparseVector;
 import sem.util.Tools;
 
 /**
  * Contains all the similarity functions.
+ * Each value is also the built-in SimilarityFunction for its label, see SimilarityFunctionRegistry.
  */
-public enum SimMeasure {
+public enum SimMeasure implements SimilarityFunction {
 	COSINE("cosine", false),
 	PEARSON("pearson", false),
 	SPEARMAN("spearman", false),
@@ -56,6 +59,7 @@ public enum SimMeasure {
 		this.isDistance = isDistance;
 	}
 	
+	@Override
 	public String getLabel(){
 		return this.label;
 	}
@@ -67,6 +71,7 @@ public enum SimMeasure {
 		return null;
 	}
 	
+	@Override
 	public boolean isDistance(){
 		return this.isDistance;
 	}
@@ -78,6 +83,11 @@ public enum SimMeasure {
 			throw new IllegalArgumentException("Vectors cannot be null");
 	}
 	
+	public static void validateVectors(SparseVector a, SparseVector b){
+		if(a == null || b == null)
+			throw new IllegalArgumentException("Vectors cannot be null");
+	}
+	
 	public static void validateResult(double result){
 		if(Double.isInfinite(result))
 			throw new RuntimeException("Similarity is infinite");
@@ -935,6 +945,468 @@ public enum SimMeasure {
 		return alphaSkew(b, a);
 	}
 	
+	/**
+	 * Fused implementation of klDivergence() over sparse vectors.
+	 * The logarithms of the weights are precalculated once per vector, so no transcendental functions are evaluated per feature.
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	public static double klDivergence(SparseVector a, SparseVector b){
+		validateVectors(a, b);
+		
+		int[] aIds = a.getIds(), bIds = b.getIds();
+		double[] aValues = a.getValues(), bValues = b.getValues();
+		double[] aLogs = a.getLogValues(), bLogs = b.getLogValues();
+		
+		double divergence = 0;
+		int i = 0, j = 0;
+		while(i < aIds.length && j < bIds.length){
+			if(aIds[i] < bIds[j])
+				i++;
+			else if(aIds[i] > bIds[j])
+				j++;
+			else {
+				if(aValues[i] > 0.0 && bValues[j] > 0.0)
+					divergence += bValues[j] * (bLogs[j] - aLogs[i]);
+				i++;
+				j++;
+			}
+		}
+		
+		validateResult(divergence);
+		return divergence;
+	}
+	
+	public static double klDivergenceR(SparseVector a, SparseVector b){
+		return klDivergence(b, a);
+	}
+	
+	/**
+	 * Fused implementation of jsDivergence() over sparse vectors.
+	 * The intersection and the features that occur in only one vector are handled in a single merge.
+	 * Only one logarithm (of the mean) is calculated per shared feature, the others are precalculated per vector.
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	public static double jsDivergence(SparseVector a, SparseVector b){
+		validateVectors(a, b);
+		
+		int[] aIds = a.getIds(), bIds = b.getIds();
+		double[] aValues = a.getValues(), bValues = b.getValues();
+		double[] aLogs = a.getLogValues(), bLogs = b.getLogValues();
+		double log2 = Math.log(2.0);
+		
+		double divergence = 0, aValue, bValue, meanLog;
+		int i = 0, j = 0;
+		while(i < aIds.length || j < bIds.length){
+			if(j >= bIds.length || (i < aIds.length && aIds[i] < bIds[j])){
+				if(aValues[i] > 0.0)
+					divergence += aValues[i] * log2;
+				i++;
+			}
+			else if(i >= aIds.length || aIds[i] > bIds[j]){
+				if(bValues[j] > 0.0)
+					divergence += bValues[j] * log2;
+				j++;
+			}
+			else {
+				aValue = aValues[i];
+				bValue = bValues[j];
+				if(aValue > 0.0 && bValue > 0.0){
+					meanLog = Math.log((aValue + bValue)/2);
+					divergence += aValue * (aLogs[i] - meanLog) + bValue * (bLogs[j] - meanLog);
+				}
+				else if(aValue > 0.0 && bValue == 0.0)
+					divergence += aValue * log2;
+				else if(bValue > 0.0 && aValue == 0.0)
+					divergence += bValue * log2;
+				i++;
+				j++;
+			}
+		}
+		
+		validateResult(divergence);
+		return divergence;
+	}
+	
+	/**
+	 * Fused implementation of alphaSkew() over sparse vectors.
+	 * The features that occur only in b contribute a constant factor of their weight, so they need no logarithm.
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	public static double alphaSkew(SparseVector a, SparseVector b){
+		validateVectors(a, b);
+		double alpha = 0.99;
+		double tailLog = Math.log(1.0 / (1.0 - alpha));
+		
+		int[] aIds = a.getIds(), bIds = b.getIds();
+		double[] aValues = a.getValues(), bValues = b.getValues();
+		double[] bLogs = b.getLogValues();
+		
+		double divergence = 0;
+		int i = 0, j = 0;
+		while(j < bIds.length){
+			if(i < aIds.length && aIds[i] < bIds[j])
+				i++;
+			else if(i >= aIds.length || aIds[i] > bIds[j]){
+				if(bValues[j] > 0.0)
+					divergence += bValues[j] * tailLog;
+				j++;
+			}
+			else {
+				if(aValues[i] > 0.0 && bValues[j] > 0.0)
+					divergence += bValues[j] * (bLogs[j] - Math.log((1-alpha) * bValues[j] + alpha * aValues[i]));
+				i++;
+				j++;
+			}
+		}
+		
+		validateResult(divergence);
+		return divergence;
+	}
+	
+	public static double alphaSkewR(SparseVector a, SparseVector b){
+		return alphaSkew(b, a);
+	}
+	
+	/**
+	 * Implementation of cosine() over sparse vectors, using the precalculated vector lengths.
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	public static double cosine(SparseVector a, SparseVector b){
+		validateVectors(a, b);
+		
+		double result;
+		if(a.getSquareSum() == 0.0 || b.getSquareSum() == 0.0)
+			result = 0.0;
+		else
+			result = dotProduct(a, b) / Math.sqrt(a.getSquareSum() * b.getSquareSum());
+		validateResult(result);
+		return result;
+	}
+	
+	static double dotProduct(SparseVector a, SparseVector b){
+		int[] aIds = a.getIds(), bIds = b.getIds();
+		double[] aValues = a.getValues(), bValues = b.getValues();
+		
+		double dotProduct = 0.0;
+		int i = 0, j = 0;
+		while(i < aIds.length && j < bIds.length){
+			if(aIds[i] < bIds[j])
+				i++;
+			else if(aIds[i] > bIds[j])
+				j++;
+			else
+				dotProduct += aValues[i++] * bValues[j++];
+		}
+		return dotProduct;
+	}
+	
+	/**
+	 * Count the shared features in the same way as the set-based measures: the smaller vector is iterated and the value in the other vector needs to be nonzero.
+	 * @param a
+	 * @param b
+	 * @param both If true, the feature needs to be nonzero in both vectors
+	 * @return
+	 */
+	private static double sharedCount(SparseVector a, SparseVector b, boolean both){
+		int[] aIds = a.getIds(), bIds = b.getIds();
+		double[] aValues = a.getValues(), bValues = b.getValues();
+		boolean checkA = both || a.size() > b.size();
+		boolean checkB = both || a.size() <= b.size();
+		
+		double count = 0.0;
+		int i = 0, j = 0;
+		while(i < aIds.length && j < bIds.length){
+			if(aIds[i] < bIds[j])
+				i++;
+			else if(aIds[i] > bIds[j])
+				j++;
+			else {
+				if((!checkA || aValues[i] != 0.0) && (!checkB || bValues[j] != 0.0))
+					count++;
+				i++;
+				j++;
+			}
+		}
+		return count;
+	}
+	
+	public static double jaccardSet(SparseVector a, SparseVector b){
+		validateVectors(a, b);
+		
+		double union = a.getNonZeroCount() + b.getNonZeroCount() - sharedCount(a, b, true);
+		double result = (union == 0.0)?0.0:(sharedCount(a, b, false) / union);
+		validateResult(result);
+		return result;
+	}
+	
+	public static double diceSet(SparseVector a, SparseVector b){
+		validateVectors(a, b);
+		
+		double total = a.getNonZeroCount() + b.getNonZeroCount();
+		double result = (total == 0.0)?0.0:(2.0 * sharedCount(a, b, false) / total);
+		validateResult(result);
+		return result;
+	}
+	
+	public static double overlapSet(SparseVector a, SparseVector b){
+		validateVectors(a, b);
+		
+		double min = Math.min(a.getNonZeroCount(), b.getNonZeroCount());
+		double result = (min == 0.0)?0.0:(sharedCount(a, b, false) / min);
+		validateResult(result);
+		return result;
+	}
+	
+	public static double cosineSet(SparseVector a, SparseVector b){
+		validateVectors(a, b);
+		
+		double result;
+		if(a.getNonZeroCount() == 0 || b.getNonZeroCount() == 0)
+			result = 0.0;
+		else
+			result = sharedCount(a, b, false) / Math.sqrt((double)a.getNonZeroCount() * b.getNonZeroCount());
+		validateResult(result);
+		return result;
+	}
+	
+	/**
+	 * Sum of the weights in a for the features that are positive in both vectors.
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	private static double sharedPositiveSum(SparseVector a, SparseVector b){
+		int[] aIds = a.getIds(), bIds = b.getIds();
+		double[] aValues = a.getValues(), bValues = b.getValues();
+		
+		double sum = 0.0;
+		int i = 0, j = 0;
+		while(i < aIds.length && j < bIds.length){
+			if(aIds[i] < bIds[j])
+				i++;
+			else if(aIds[i] > bIds[j])
+				j++;
+			else {
+				if(aValues[i] > 0.0 && bValues[j] > 0.0)
+					sum += aValues[i];
+				i++;
+				j++;
+			}
+		}
+		return sum;
+	}
+	
+	/**
+	 * Implementation of lin() over sparse vectors. The denominator is taken from the precalculated positive sums.
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	public static double lin(SparseVector a, SparseVector b){
+		validateVectors(a, b);
+		
+		int[] aIds = a.getIds(), bIds = b.getIds();
+		double[] aValues = a.getValues(), bValues = b.getValues();
+		
+		double shared = 0.0;
+		int i = 0, j = 0;
+		while(i < aIds.length && j < bIds.length){
+			if(aIds[i] < bIds[j])
+				i++;
+			else if(aIds[i] > bIds[j])
+				j++;
+			else {
+				if(aValues[i] > 0.0 && bValues[j] > 0.0)
+					shared += aValues[i] + bValues[j];
+				i++;
+				j++;
+			}
+		}
+		
+		double total = a.getPositiveSum() + b.getPositiveSum();
+		double result = (total == 0.0)?0.0:(shared / total);
+		validateResult(result);
+		return result;
+	}
+	
+	public static double weedsPrec(SparseVector a, SparseVector b){
+		validateVectors(a, b);
+		
+		double result = (a.getPositiveSum() == 0.0)?0.0:(sharedPositiveSum(a, b) / a.getPositiveSum());
+		validateResult(result);
+		return result;
+	}
+	
+	public static double weedsRec(SparseVector a, SparseVector b){
+		return weedsPrec(b, a);
+	}
+	
+	public static double weedsF(SparseVector a, SparseVector b){
+		double prec = weedsPrec(a, b);
+		double rec = weedsRec(a, b);
+		double result = (prec + rec == 0.0)?0.0:(2.0 * prec * rec / (prec + rec));
+		validateResult(result);
+		return result;
+	}
+	
+	public static double linD(SparseVector a, SparseVector b){
+		validateVectors(a, b);
+		
+		double sharedB = sharedPositiveSum(b, a);
+		double total = a.getPositiveSum() + sharedB;
+		double result = (total == 0.0)?0.0:((sharedPositiveSum(a, b) + sharedB) / total);
+		validateResult(result);
+		return result;
+	}
+	
+	public static double balPrec(SparseVector a, SparseVector b){
+		double result = Math.sqrt(lin(a, b) * weedsPrec(a, b));
+		validateResult(result);
+		return result;
+	}
+	
+	/**
+	 * Sum of the minimum weights over the shared features.
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	private static double minSum(SparseVector a, SparseVector b){
+		int[] aIds = a.getIds(), bIds = b.getIds();
+		double[] aValues = a.getValues(), bValues = b.getValues();
+		
+		double sum = 0.0;
+		int i = 0, j = 0;
+		while(i < aIds.length && j < bIds.length){
+			if(aIds[i] < bIds[j])
+				i++;
+			else if(aIds[i] > bIds[j])
+				j++;
+			else
+				sum += Math.min(aValues[i++], bValues[j++]);
+		}
+		return sum;
+	}
+	
+	public static double clarkeDE(SparseVector a, SparseVector b){
+		validateVectors(a, b);
+		
+		double result = (a.getSum() == 0.0)?0.0:(minSum(a, b) / a.getSum());
+		validateResult(result);
+		return result;
+	}
+	
+	public static double diceGen(SparseVector a, SparseVector b){
+		validateVectors(a, b);
+		
+		double total = a.getSum() + b.getSum();
+		double result = (total == 0.0)?0.0:(2.0 * minSum(a, b) / total);
+		validateResult(result);
+		return result;
+	}
+	
+	public static double diceGen2(SparseVector a, SparseVector b){
+		validateVectors(a, b);
+		
+		double total = a.getSum() + b.getSum();
+		double result = (total == 0.0)?0.0:(dotProduct(a, b) / total);
+		validateResult(result);
+		return result;
+	}
+	
+	/**
+	 * Implementation of jaccardGen() over sparse vectors.
+	 * The weights that occur in only one vector are derived from the precalculated sums, so only the intersection is walked.
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	public static double jaccardGen(SparseVector a, SparseVector b){
+		validateVectors(a, b);
+		
+		int[] aIds = a.getIds(), bIds = b.getIds();
+		double[] aValues = a.getValues(), bValues = b.getValues();
+		
+		double minSum = 0.0, maxSum = 0.0, sharedA = 0.0, sharedB = 0.0;
+		int i = 0, j = 0;
+		while(i < aIds.length && j < bIds.length){
+			if(aIds[i] < bIds[j])
+				i++;
+			else if(aIds[i] > bIds[j])
+				j++;
+			else {
+				minSum += Math.min(aValues[i], bValues[j]);
+				maxSum += Math.max(aValues[i], bValues[j]);
+				sharedA += aValues[i++];
+				sharedB += bValues[j++];
+			}
+		}
+		
+		double union = maxSum + (a.getSum() - sharedA) + (b.getSum() - sharedB);
+		double result = (union == 0.0)?0.0:(minSum / union);
+		validateResult(result);
+		return result;
+	}
+	
+	/**
+	 * Walk the union of two sparse vectors and collect the distances.
+	 * @param a
+	 * @param b
+	 * @param type 0 for manhattan, 1 for euclidean, 2 for chebyshev
+	 * @return
+	 */
+	private static double distance(SparseVector a, SparseVector b, int type){
+		validateVectors(a, b);
+		
+		int[] aIds = a.getIds(), bIds = b.getIds();
+		double[] aValues = a.getValues(), bValues = b.getValues();
+		
+		double manhattan = 0.0, euclidean = 0.0, chebyshev = 0.0, diff;
+		int i = 0, j = 0;
+		while(i < aIds.length || j < bIds.length){
+			if(j >= bIds.length || (i < aIds.length && aIds[i] < bIds[j]))
+				diff = Math.abs(aValues[i++]);
+			else if(i >= aIds.length || aIds[i] > bIds[j])
+				diff = Math.abs(bValues[j++]);
+			else
+				diff = Math.abs(aValues[i++] - bValues[j++]);
+			manhattan += diff;
+			euclidean += diff * diff;
+			if(diff > chebyshev)
+				chebyshev = diff;
+		}
+		
+		double result;
+		if(type == 0)
+			result = manhattan;
+		else if(type == 1)
+			result = Math.sqrt(euclidean);
+		else
+			result = chebyshev;
+		validateResult(result);
+		return result;
+	}
+	
+	public static double manhattan(SparseVector a, SparseVector b){
+		return distance(a, b, 0);
+	}
+	
+	public static double euclidean(SparseVector a, SparseVector b){
+		return distance(a, b, 1);
+	}
+	
+	public static double chebyshev(SparseVector a, SparseVector b){
+		return distance(a, b, 2);
+	}
+	
 	public static <T> double manhattan(HashMap<T,Double> a, HashMap<T,Double> b){
 		validateVectors(a, b);
 		
@@ -1177,4 +1649,171 @@ public enum SimMeasure {
 			throw new RuntimeException("Unknown similarity measure: " + this);
 		}
 	}
+	
+	/**
+	 * Check whether the measure has a native implementation over sparse vectors.
+	 * The measures that depend on the ranking of the features need the vectors as maps sorted by weight, which sim(SparseVector, SparseVector) has to create for every call.
+	 * @return True if sim(SparseVector, SparseVector) can be used for this measure without converting the vectors
+	 */
+	public boolean supportsSparse(){
+		switch(this){
+		case PEARSON:
+		case SPEARMAN:
+		case KENDALLS_TAU:
+		case AP:
+		case AP_INC:
+		case BAL_AP_INC:
+		case WEIGHTED_COSINE:
+		case WEIGHTED_COSINE_2:
+			return false;
+		default:
+			return true;
+		}
+	}
+	
+	@Override
+	public double sim(SparseVector v1, SparseVector v2){
+		switch(this){
+		case COSINE:
+			return SimMeasure.cosine(v1, v2);
+		case JACCARD_SET:
+			return SimMeasure.jaccardSet(v1, v2);
+		case LIN:
+			return SimMeasure.lin(v1, v2);
+		case DICE_SET:
+			return SimMeasure.diceSet(v1, v2);
+		case OVERLAP_SET:
+			return SimMeasure.overlapSet(v1, v2);
+		case COSINE_SET:
+			return SimMeasure.cosineSet(v1, v2);
+		case JACCARD_GEN:
+			return SimMeasure.jaccardGen(v1, v2);
+		case DICE_GEN:
+			return SimMeasure.diceGen(v1, v2);
+		case DICE_GEN_2:
+			return SimMeasure.diceGen2(v1, v2);
+		case CLARKE_DE:
+			return SimMeasure.clarkeDE(v1, v2);
+		case WEEDS_PREC:
+			return SimMeasure.weedsPrec(v1, v2);
+		case WEEDS_REC:
+			return SimMeasure.weedsRec(v1, v2);
+		case WEEDS_F:
+			return SimMeasure.weedsF(v1, v2);
+		case LIN_D:
+			return SimMeasure.linD(v1, v2);
+		case BAL_PREC:
+			return SimMeasure.balPrec(v1, v2);
+		case KL_DIVERGENCE:
+			return SimMeasure.klDivergence(v1, v2);
+		case KL_DIVERGENCE_R:
+			return SimMeasure.klDivergenceR(v1, v2);
+		case JS_DIVERGENCE:
+			return SimMeasure.jsDivergence(v1, v2);
+		case ALPHA_SKEW:
+			return SimMeasure.alphaSkew(v1, v2);
+		case ALPHA_SKEW_R:
+			return SimMeasure.alphaSkewR(v1, v2);
+		case MANHATTAN:
+			return SimMeasure.manhattan(v1, v2);
+		case EUCLIDEAN:
+			return SimMeasure.euclidean(v1, v2);
+		case CHEBYSHEV:
+			return SimMeasure.chebyshev(v1, v2);
+		default:
+			return sim(Tools.sort(v1.toMap(), true), Tools.sort(v2.toMap(), true));
+		}
+	}
+	
+	/**
+	 * Check whether getUpperBound() gives a useful bound for this measure.
+	 * @return True for the measures that can be pruned in SimFinder.getTopScores()
+	 */
+	public boolean supportsUpperBound(){
+		switch(this){
+		case CLARKE_DE:
+		case WEEDS_PREC:
+		case LIN:
+		case BAL_PREC:
+			return true;
+		default:
+			return false;
+		}
+	}
+	
+	/**
+	 * Calculate an upper bound for sim(v1, v2), using only the per-vector statistics.
+	 * The positive weight on the shared features can be at most the sum of the m largest positive weights of either vector, where m is the smaller number of positive features.
+	 * The bound is slightly loosened to allow for rounding errors.
+	 * @param v1 Vector 1
+	 * @param v2 Vector 2
+	 * @return Upper bound of the score, or Double.POSITIVE_INFINITY if the measure does not support bounds
+	 */
+	public double getUpperBound(SparseVector v1, SparseVector v2){
+		double[] prefix1 = v1.getPositivePrefixSums();
+		double[] prefix2 = v2.getPositivePrefixSums();
+		int m = Math.min(prefix1.length, prefix2.length) - 1;
+		
+		double bound;
+		switch(this){
+		case CLARKE_DE:
+			if(v1.getSum() < 0.0)
+				return Double.POSITIVE_INFINITY;
+			bound = (v1.getSum() == 0.0)?0.0:(Math.min(prefix1[m], prefix2[m]) / v1.getSum());
+			break;
+		case WEEDS_PREC:
+			bound = (v1.getPositiveSum() == 0.0)?0.0:(prefix1[m] / v1.getPositiveSum());
+			break;
+		case LIN:
+			bound = (v1.getPositiveSum() + v2.getPositiveSum() == 0.0)?0.0:((prefix1[m] + prefix2[m]) / (v1.getPositiveSum() + v2.getPositiveSum()));
+			break;
+		case BAL_PREC:
+			bound = Math.sqrt(LIN.getUpperBound(v1, v2) * WEEDS_PREC.getUpperBound(v1, v2));
+			break;
+		default:
+			return Double.POSITIVE_INFINITY;
+		}
+		return bound + Math.abs(bound) * 1e-9 + 1e-12;
+	}
+	
+	/**
+	 * Calculate several similarity measures for the same pair of vectors.
+	 * The intersection of the vectors is walked only once and all the decomposable measures are derived from the shared statistics.
+	 * Measures that depend on the ranking of the features (pearson, spearman, kendallsTau, ap, apInc, balAPInc, weightedCosine, weightedCosine2) are calculated separately.
+	 * @param simMeasures The list of measures to calculate
+	 * @param v1 Vector 1
+	 * @param v2 Vector 2
+	 * @param result Output array, the score for simMeasures.get(i) is written into position offset+i
+	 * @param offset Starting position in the output array
+	 */
+	public static <T> void sim(List<SimMeasure> simMeasures, LinkedHashMap<T,Double> v1, LinkedHashMap<T,Double> v2, double[] result, int offset){
+		if(result.length < offset + simMeasures.size())
+			throw new IllegalArgumentException("Result array is too small for " + simMeasures.size() + " measures");
+		
+		PairStatistics statistics = null;
+		for(int i = 0; i < simMeasures.size(); i++){
+			SimMeasure simMeasure = simMeasures.get(i);
+			if(PairStatistics.supports(simMeasure)){
+				if(statistics == null)
+					statistics = new PairStatistics(v1, v2);
+				result[offset + i] = statistics.get(simMeasure);
+				validateResult(result[offset + i]);
+			}
+			else
+				result[offset + i] = simMeasure.sim(v1, v2);
+		}
+	}
+	
+	/**
+	 * Calculate several similarity measures for the same pair of vectors.
+	 * @param simMeasures The list of measures to calculate
+	 * @param v1 Vector 1
+	 * @param v2 Vector 2
+	 * @return Array of scores, in the same order as simMeasures
+	 */
+	public static <T> double[] sim(List<SimMeasure> simMeasures, LinkedHashMap<T,Double> v1, LinkedHashMap<T,Double> v2){
+		double[] result = new double[simMeasures.size()];
+		sim(simMeasures, v1, v2, result, 0);
+		return result;
+	}
 }
@@ -0,0 +1,118 @@
+package sem.sim;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map.Entry;
+import java.util.PriorityQueue;
+
+import sem.model.VectorSpace;
+import sem.util.SparseVector;
+import sem.util.Tools;
+
+/**
+ * Finds the top k candidates for one main word.
+ * For measures that support upper bounds, candidates are visited in the order of their bound and the search stops when the bound falls below the current k-th best score.
+ */
+class SimTopTask implements Runnable{
+	String mainWord;
+	LinkedHashSet<String> candidateWords;
+	SimilarityFunction simMeasure;
+	boolean findHypernyms;
+	int limit;
+	VectorSpace vectorSpace;
+	NeighbourIndex neighbourIndex;
+	LinkedHashMap<String,Double> result;
+	
+	public SimTopTask(String mainWord, LinkedHashSet<String> candidateWords, SimilarityFunction simMeasure, boolean findHypernyms, int limit, VectorSpace vectorSpace, LinkedHashMap<String,Double> result){
+		this(mainWord, candidateWords, simMeasure, findHypernyms, limit, vectorSpace, null, result);
+	}
+	
+	/**
+	 * @param candidateWords Candidate words. The set is only read, so it can be shared between tasks.
+	 * @param neighbourIndex If not null, only the candidate words that the index returns for mainWord are scored (and mainWord itself, if it is a candidate)
+	 */
+	public SimTopTask(String mainWord, LinkedHashSet<String> candidateWords, SimilarityFunction simMeasure, boolean findHypernyms, int limit, VectorSpace vectorSpace, NeighbourIndex neighbourIndex, LinkedHashMap<String,Double> result){
+		this.mainWord = mainWord;
+		this.candidateWords = candidateWords;
+		this.neighbourIndex = neighbourIndex;
+		this.simMeasure = simMeasure;
+		this.findHypernyms = findHypernyms;
+		this.limit = limit;
+		this.vectorSpace = vectorSpace;
+		this.result = result;
+	}
+	
+	@Override
+	public void run() {
+		if(limit <= 0)
+			return;
+		// With an index, only its neighbours are checked against the candidate set, so the cost does not depend on the number of candidates
+		LinkedHashSet<String> words = candidateWords;
+		if(neighbourIndex != null){
+			words = new LinkedHashSet<String>();
+			if(candidateWords.contains(mainWord))
+				words.add(mainWord);
+			for(String neighbour : neighbourIndex.getCandidates(mainWord, limit))
+				if(candidateWords.contains(neighbour))
+					words.add(neighbour);
+		}
+		if(!(this.simMeasure instanceof SimMeasure) || !((SimMeasure)this.simMeasure).supportsUpperBound()){
+			LinkedHashMap<String,Double> scores = new LinkedHashMap<String,Double>();
+			new SimGeneratorTask(mainWord, words, simMeasure, findHypernyms, vectorSpace, scores).run();
+			int count = 0;
+			for(Entry<String,Double> e : Tools.sort(scores, !simMeasure.isDistance()).entrySet()){
+				if(count++ >= limit)
+					break;
+				result.put(e.getKey(), e.getValue());
+			}
+			return;
+		}
+		
+		SimMeasure simMeasure = (SimMeasure)this.simMeasure;
+		SparseVector mainVector = vectorSpace.getSparseVector(mainWord);
+		String[] labels = words.toArray(new String[words.size()]);
+		final SparseVector[] vectors = new SparseVector[labels.length];
+		final double[] bounds = new double[labels.length];
+		Integer[] order = new Integer[labels.length];
+		for(int i = 0; i < vectors.length; i++){
+			vectors[i] = vectorSpace.getSparseVector(labels[i]);
+			bounds[i] = findHypernyms?simMeasure.getUpperBound(mainVector, vectors[i]):simMeasure.getUpperBound(vectors[i], mainVector);
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>(){
+			public int compare(Integer a, Integer b) {
+				return Double.compare(bounds[b], bounds[a]);
+			}
+		});
+		
+		// The k best candidates so far, the weakest (lowest score, then latest in the candidate list) at the head
+		final double[] scores = new double[labels.length];
+		PriorityQueue<Integer> best = new PriorityQueue<Integer>(Math.max(1, limit), new Comparator<Integer>(){
+			public int compare(Integer a, Integer b) {
+				int c = Double.compare(scores[a], scores[b]);
+				return (c != 0)?c:Integer.compare(b, a);
+			}
+		});
+		
+		for(Integer i : order){
+			if(best.size() >= limit && bounds[i] < scores[best.peek()])
+				break;
+			scores[i] = findHypernyms?simMeasure.sim(mainVector, vectors[i]):simMeasure.sim(vectors[i], mainVector);
+			best.add(i);
+			if(best.size() > limit)
+				best.poll();
+		}
+		
+		Integer[] top = best.toArray(new Integer[best.size()]);
+		Arrays.sort(top, new Comparator<Integer>(){
+			public int compare(Integer a, Integer b) {
+				int c = Double.compare(scores[b], scores[a]);
+				return (c != 0)?c:Integer.compare(a, b);
+			}
+		});
+		for(Integer i : top)
+			result.put(labels[i], scores[i]);
+	}
+}
@@ -0,0 +1,30 @@
+package sem.sim;
+
+import sem.util.SparseVector;
+
+/**
+ * A similarity (or distance) function over sparse vectors.
+ * Implementations can use the per-vector statistics of SparseVector (getNorm(), getSum(), getPositiveSum(), getNonZeroCount()), which are calculated once per vector and reused in every comparison.
+ * The built-in functions are the values of SimMeasure. Custom functions can be added with SimilarityFunctionRegistry.register().
+ */
+public interface SimilarityFunction {
+	/**
+	 * Get the label that is used to select this function, e.g. on the command line.
+	 * @return Label
+	 */
+	public String getLabel();
+	
+	/**
+	 * Check whether the function is a distance, meaning that smaller values indicate more similar vectors.
+	 * @return True for distance functions
+	 */
+	public boolean isDistance();
+	
+	/**
+	 * Calculate the score between two vectors. Non-symmetric functions should treat v1 as the narrower term (e.g. the hyponym).
+	 * @param v1 Vector 1
+	 * @param v2 Vector 2
+	 * @return Score
+	 */
+	public double sim(SparseVector v1, SparseVector v2);
+}
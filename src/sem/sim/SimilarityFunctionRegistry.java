@@ -0,0 +1,51 @@
+package sem.sim;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+/**
+ * Maps labels to similarity functions.
+ * All the SimMeasure values are registered under their labels, so every label accepted by SimMeasure.getType() can also be resolved here.
+ * Registering a function with an existing label replaces the previous function.
+ */
+public class SimilarityFunctionRegistry {
+	private static LinkedHashMap<String,SimilarityFunction> functions;
+	
+	static {
+		functions = new LinkedHashMap<String,SimilarityFunction>();
+		for(SimMeasure simMeasure : SimMeasure.values())
+			register(simMeasure);
+	}
+	
+	/**
+	 * Register a similarity function under its label. Labels are case-insensitive.
+	 * @param function Similarity function
+	 */
+	public static synchronized void register(SimilarityFunction function){
+		if(function == null || function.getLabel() == null)
+			throw new IllegalArgumentException("Similarity function and its label cannot be null");
+		functions.put(function.getLabel().toLowerCase(), function);
+	}
+	
+	/**
+	 * Get the similarity function for a label.
+	 * @param label Function label, e.g. "cosine"
+	 * @return The function, or null if no function is registered with this label
+	 */
+	public static synchronized SimilarityFunction get(String label){
+		if(label == null)
+			return null;
+		return functions.get(label.toLowerCase());
+	}
+	
+	/**
+	 * Get the labels of all the registered functions.
+	 * @return List of labels, in the order of registration
+	 */
+	public static synchronized ArrayList<String> getLabels(){
+		ArrayList<String> labels = new ArrayList<String>();
+		for(SimilarityFunction function : functions.values())
+			labels.add(function.getLabel());
+		return labels;
+	}
+}
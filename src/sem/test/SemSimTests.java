@@ -7,12 +7,16 @@ import org.junit.runners.Suite.SuiteClasses;
 import sem.test.model.ModelTest;
 import sem.test.sim.SimilarityTest;
 import sem.test.util.IndexTest;
+import sem.test.util.LinearTrainerTest;
+import sem.test.util.SVMLightReaderTest;
 import sem.test.util.TensorTest;
 
 @RunWith(Suite.class)
 @SuiteClasses({ ModelTest.class, 
 				SimilarityTest.class,
 				IndexTest.class,
+				LinearTrainerTest.class,
+				SVMLightReaderTest.class,
 				TensorTest.class
 				})
 
@@ -2,6 +2,8 @@ package sem.test.model;
 
 import static org.junit.Assert.*;
 
+import java.util.Arrays;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -148,5 +150,31 @@ public class ModelTest {
 		
 		assertTrue(vsm2.getTripleCount(null, null, null) == 8);
 	}
+	
+	@Test
+	public void testUpdate(){
+		SemModel vsm = new SemModel(true, true);
+		try {
+			vsm.add(createGraph());
+		} catch (SemModelException e) {
+			e.printStackTrace();
+		}
+		
+		assertTrue(vsm.getTripleCount("D_D", "3", "C_C") == 2);
+		assertTrue(vsm.getTripleCount(null, null, "A_A") == 4);
+		assertTrue(vsm.getTotalNodeCount() == 6);
+		assertTrue(vsm.getLocationMatchCount("A_A", "B_B") == 2);
+		
+		try {
+			vsm.update(Arrays.asList(createGraph()));
+		} catch (SemModelException e) {
+			e.printStackTrace();
+		}
+		
+		assertTrue(vsm.getTripleCount("D_D", "3", "C_C") == 4);
+		assertTrue(vsm.getTripleCount(null, null, "A_A") == 8);
+		assertTrue(vsm.getTotalNodeCount() == 12);
+		assertTrue(vsm.getLocationMatchCount("A_A", "B_B") == 4);
+	}
 
 }
@@ -3,6 +3,7 @@ package sem.test.sim;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Random;
@@ -12,6 +13,9 @@ import org.junit.Before;
 import org.junit.Test;
 
 import sem.sim.SimMeasure;
+import sem.sim.SimilarityFunction;
+import sem.sim.SimilarityFunctionRegistry;
+import sem.util.SparseVector;
 
 public class SimilarityTest {
 	
@@ -439,4 +443,73 @@ public class SimilarityTest {
 		assertTrue(Math.abs(SimMeasure.weightedCosine2(vector1, vector1) - 1.0) < smallValue);
 		assertTrue(Math.abs(SimMeasure.weightedCosine2(vector2, vector2) - 1.0) < smallValue);
 	}
+	
+	@Test
+	public void testBatch() {
+		ArrayList<SimMeasure> measures = new ArrayList<SimMeasure>(Arrays.asList(SimMeasure.values()));
+		ArrayList<LinkedHashMap<Integer,Double>> vectors = new ArrayList<LinkedHashMap<Integer,Double>>(Arrays.asList(vector1, vector2, vector3));
+		for(int i = 0; i < 5; i++)
+			vectors.add(new LinkedHashMap<Integer,Double>(createRandVector(50)));
+		
+		for(LinkedHashMap<Integer,Double> a : vectors){
+			for(LinkedHashMap<Integer,Double> b : vectors){
+				double[] scores = SimMeasure.sim(measures, a, b);
+				for(int i = 0; i < measures.size(); i++)
+					assertTrue(measures.get(i).getLabel(), Math.abs(scores[i] - measures.get(i).sim(a, b)) < smallValue);
+			}
+		}
+	}
+	
+	@Test
+	public void testSparse() {
+		ArrayList<LinkedHashMap<Integer,Double>> vectors = new ArrayList<LinkedHashMap<Integer,Double>>(Arrays.asList(vector1, vector2, vector3));
+		for(int i = 0; i < 5; i++)
+			vectors.add(new LinkedHashMap<Integer,Double>(createRandVector(50)));
+		
+		for(LinkedHashMap<Integer,Double> a : vectors){
+			for(LinkedHashMap<Integer,Double> b : vectors){
+				for(SimMeasure simMeasure : SimMeasure.values()){
+					if(!simMeasure.supportsSparse())
+						continue;
+					double value = simMeasure.sim(a, b);
+					assertTrue(simMeasure.getLabel(), Math.abs(simMeasure.sim(SparseVector.create(a), SparseVector.create(b)) - value) < smallValue * Math.max(1.0, Math.abs(value)));
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void testRegistry() {
+		for(SimMeasure simMeasure : SimMeasure.values()){
+			assertTrue(SimilarityFunctionRegistry.get(simMeasure.getLabel()) == simMeasure);
+			assertTrue(SimilarityFunctionRegistry.get(simMeasure.getLabel().toUpperCase()) == simMeasure);
+		}
+		assertTrue(SimilarityFunctionRegistry.get("unknownMeasure") == null);
+		
+		SimilarityFunction function = new SimilarityFunction(){
+			public String getLabel(){ return "testDot"; }
+			public boolean isDistance(){ return false; }
+			public double sim(SparseVector v1, SparseVector v2){ return SimMeasure.cosine(v1, v2) * v1.getNorm() * v2.getNorm(); }
+		};
+		SimilarityFunctionRegistry.register(function);
+		assertTrue(SimilarityFunctionRegistry.get("testdot") == function);
+		assertTrue(SimilarityFunctionRegistry.getLabels().contains("testDot"));
+	}
+	
+	@Test
+	public void testUpperBound() {
+		ArrayList<LinkedHashMap<Integer,Double>> vectors = new ArrayList<LinkedHashMap<Integer,Double>>(Arrays.asList(vector1, vector2, vector3));
+		for(int i = 0; i < 5; i++)
+			vectors.add(new LinkedHashMap<Integer,Double>(createRandVector(50)));
+		
+		for(LinkedHashMap<Integer,Double> a : vectors){
+			for(LinkedHashMap<Integer,Double> b : vectors){
+				SparseVector sa = SparseVector.create(a), sb = SparseVector.create(b);
+				for(SimMeasure simMeasure : SimMeasure.values()){
+					if(simMeasure.supportsUpperBound())
+						assertTrue(simMeasure.getLabel(), simMeasure.getUpperBound(sa, sb) >= simMeasure.sim(sa, sb));
+				}
+			}
+		}
+	}
 }
@@ -0,0 +1,124 @@
+package sem.test.util;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+import sem.util.LinearTrainer;
+import sem.util.SVMModel;
+
+public class LinearTrainerTest {
+
+	private String dir = "semtests/";
+	private String file = dir + "test-linear.txt";
+
+	private static final double[] TRUE_WEIGHTS = {0.0, 2.0, -1.0, 0.5, 0.0, 1.0};
+	private static final double TRUE_BIAS = 0.3;
+
+	private int[] labels;
+	private int[][] ids;
+	private double[][] values;
+
+	@Before
+	public void setUp() throws Exception {
+		File d = new File(dir);
+		if(!d.exists())
+			d.mkdir();
+
+		// Linearly separable data, with a margin around the true hyperplane
+		Random random = new Random(3);
+		int n = 2000;
+		labels = new int[n];
+		ids = new int[n][];
+		values = new double[n][];
+		for(int i = 0; i < n; i++){
+			double score;
+			do{
+				ids[i] = new int[TRUE_WEIGHTS.length - 1];
+				values[i] = new double[TRUE_WEIGHTS.length - 1];
+				score = -TRUE_BIAS;
+				for(int j = 0; j < ids[i].length; j++){
+					ids[i][j] = j + 1;
+					values[i][j] = random.nextDouble() * 2.0 - 1.0;
+					score += TRUE_WEIGHTS[j + 1] * values[i][j];
+				}
+			} while(Math.abs(score) < 0.2);
+			labels[i] = (score > 0.0)?1:-1;
+		}
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		(new File(file)).delete();
+		(new File(dir)).delete();
+	}
+
+	private double getAccuracy(SVMModel model){
+		int correct = 0;
+		double[] dense = new double[model.getHighestFeature() + 1];
+		for(int i = 0; i < labels.length; i++){
+			Arrays.fill(dense, 0.0);
+			for(int j = 0; j < ids[i].length; j++)
+				if(ids[i][j] < dense.length)
+					dense[ids[i][j]] = values[i][j];
+			if(model.classify(dense, 0.0) * labels[i] > 0.0)
+				correct++;
+		}
+		return (double)correct / labels.length;
+	}
+
+	private static double cosine(double[] a, double[] b){
+		double dot = 0.0, lengthA = 0.0, lengthB = 0.0;
+		for(int i = 0; i < Math.min(a.length, b.length); i++){
+			dot += a[i] * b[i];
+			lengthA += a[i] * a[i];
+			lengthB += b[i] * b[i];
+		}
+		return dot / Math.sqrt(lengthA * lengthB);
+	}
+
+	@Test
+	public void testSeparableHinge() {
+		SVMModel model = new LinearTrainer(LinearTrainer.LOSS_HINGE, 0.0, 10, 1L, 1).train(labels, ids, values);
+		assertTrue(model.getKernelType() == SVMModel.KERNEL_LINEAR);
+		assertTrue(getAccuracy(model) >= 0.98);
+		assertTrue(cosine(model.getWeights(), TRUE_WEIGHTS) > 0.95);
+	}
+
+	@Test
+	public void testSeparableLogistic() {
+		SVMModel model = new LinearTrainer(LinearTrainer.LOSS_LOGISTIC, 0.0, 10, 1L, 1).train(labels, ids, values);
+		assertTrue(getAccuracy(model) >= 0.98);
+		assertTrue(cosine(model.getWeights(), TRUE_WEIGHTS) > 0.95);
+	}
+
+	@Test
+	public void testThreads() {
+		SVMModel single = new LinearTrainer(LinearTrainer.LOSS_HINGE, 0.0, 10, 1L, 1).train(labels, ids, values);
+		SVMModel parallel = new LinearTrainer(LinearTrainer.LOSS_HINGE, 0.0, 10, 1L, 4).train(labels, ids, values);
+		assertTrue(Math.abs(getAccuracy(single) - getAccuracy(parallel)) <= 0.02);
+		assertTrue(cosine(single.getWeights(), parallel.getWeights()) > 0.95);
+	}
+
+	@Test
+	public void testTrainFile() throws Exception {
+		PrintWriter writer = new PrintWriter(file);
+		for(int i = 0; i < labels.length; i++){
+			writer.print(labels[i]);
+			for(int j = 0; j < ids[i].length; j++)
+				writer.print(" " + ids[i][j] + ":" + values[i][j]);
+			writer.println();
+		}
+		writer.close();
+
+		SVMModel fromArrays = new LinearTrainer(LinearTrainer.LOSS_HINGE, 0.0, 5, 2L, 2).train(labels, ids, values);
+		SVMModel fromFile = new LinearTrainer(LinearTrainer.LOSS_HINGE, 0.0, 5, 2L, 2).train(file);
+		assertArrayEquals(fromArrays.getWeights(), fromFile.getWeights(), 0.0);
+		assertTrue(fromArrays.getThreshold() == fromFile.getThreshold());
+	}
+}
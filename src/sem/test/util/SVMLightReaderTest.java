@@ -0,0 +1,199 @@
+package sem.test.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+import sem.util.SVMLightReader;
+import sem.util.SVMLightWriter;
+
+public class SVMLightReaderTest {
+
+	private String dir = "semtests/";
+	private String file = dir + "test-svmlight.txt";
+
+	@Before
+	public void setUp() throws Exception {
+		File d = new File(dir);
+		if(!d.exists())
+			d.mkdir();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		(new File(file)).delete();
+		(new File(dir)).delete();
+	}
+
+	private void writeText(String text) throws Exception {
+		PrintWriter writer = new PrintWriter(file);
+		writer.print(text);
+		writer.close();
+	}
+
+	private void writeRandom(boolean binary, int examples, long seed){
+		Random random = new Random(seed);
+		SVMLightWriter writer = SVMLightWriter.open(file, binary, false);
+		for(int i = 0; i < examples; i++){
+			writer.startExample(random.nextBoolean()?1:-1);
+			for(int j = 1; j <= 10; j++){
+				double value;
+				if(j % 3 == 0)
+					value = random.nextInt(100);
+				else if(j % 3 == 1)
+					value = random.nextGaussian();
+				else
+					value = Double.longBitsToDouble(random.nextLong());
+				if(!Double.isNaN(value) && !Double.isInfinite(value))
+					writer.writeFeature(j, value);
+			}
+			writer.endExample();
+		}
+		writer.close();
+	}
+
+	private void checkRandom(int examples, long seed){
+		Random random = new Random(seed);
+		SVMLightReader reader = new SVMLightReader(file);
+		for(int i = 0; i < examples; i++){
+			assertTrue(reader.next());
+			assertTrue(reader.getLabel() == (random.nextBoolean()?1:-1));
+			int k = 0;
+			for(int j = 1; j <= 10; j++){
+				double value;
+				if(j % 3 == 0)
+					value = random.nextInt(100);
+				else if(j % 3 == 1)
+					value = random.nextGaussian();
+				else
+					value = Double.longBitsToDouble(random.nextLong());
+				if(Double.isNaN(value) || Double.isInfinite(value))
+					continue;
+				assertEquals(j, reader.getIds()[k]);
+				assertEquals(Double.doubleToLongBits(value), Double.doubleToLongBits(reader.getValues()[k]));
+				k++;
+			}
+			assertEquals(k, reader.size());
+		}
+		assertFalse(reader.next());
+		reader.close();
+	}
+
+	private double[] readValues(String line) throws Exception {
+		writeText(line);
+		SVMLightReader reader = new SVMLightReader(file);
+		assertTrue(reader.next());
+		double[] values = new double[reader.size()];
+		for(int i = 0; i < values.length; i++)
+			values[i] = reader.getValues()[i];
+		reader.close();
+		return values;
+	}
+
+	private void checkFails(String text) throws Exception {
+		writeText(text);
+		SVMLightReader reader = new SVMLightReader(file);
+		try{
+			while(reader.next());
+			fail("No exception for: " + text);
+		} catch(RuntimeException e){
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void testRoundTripText() {
+		writeRandom(false, 2000, 5L);
+		checkRandom(2000, 5L);
+	}
+
+	@Test
+	public void testRoundTripBinary() {
+		writeRandom(true, 2000, 6L);
+		checkRandom(2000, 6L);
+	}
+
+	@Test
+	public void testLongNumbers() throws Exception {
+		String[] numbers = {"0.30000000000000004", "9007199254740993", "123456789012345678", "1.2345678901234567E-200", "-2.2250738585072014E-308", "1.7976931348623157E308", "4.9E-324", "1234567890123456789012"};
+		String line = "1";
+		for(int i = 0; i < numbers.length; i++)
+			line += " " + (i+1) + ":" + numbers[i];
+		double[] values = readValues(line + "\n");
+		assertEquals(numbers.length, values.length);
+		for(int i = 0; i < numbers.length; i++)
+			assertEquals(Double.doubleToLongBits(Double.parseDouble(numbers[i])), Double.doubleToLongBits(values[i]));
+	}
+
+	@Test
+	public void testExponentsAndSigns() throws Exception {
+		double[] values = readValues("+1 1:1e3 2:-2.5E-3 3:+4 4:.5 5:-0 6:7e+2 7:1e-400 8:3.");
+		assertTrue(values[0] == 1000.0);
+		assertTrue(values[1] == -0.0025);
+		assertTrue(values[2] == 4.0);
+		assertTrue(values[3] == 0.5);
+		assertTrue(Double.doubleToLongBits(values[4]) == Double.doubleToLongBits(-0.0));
+		assertTrue(values[5] == 700.0);
+		assertTrue(values[6] == 0.0);
+		assertTrue(values[7] == 3.0);
+	}
+
+	@Test
+	public void testQidAndComments() throws Exception {
+		writeText("# header line\n\n1 qid:3 1:0.5 2:1 # comment 3:7\n  \n-1\tqid:3 3:2\n0.5 4:1");
+		SVMLightReader reader = new SVMLightReader(file);
+		assertTrue(reader.next());
+		assertTrue(reader.getLabel() == 1.0);
+		assertEquals(2, reader.size());
+		assertEquals(1, reader.getIds()[0]);
+		assertEquals(2, reader.getIds()[1]);
+		assertTrue(reader.getValues()[1] == 1.0);
+		assertTrue(reader.next());
+		assertTrue(reader.getLabel() == -1.0);
+		assertEquals(1, reader.size());
+		assertEquals(3, reader.getIds()[0]);
+		assertTrue(reader.next());
+		assertTrue(reader.getLabel() == 0.5);
+		assertEquals(4, reader.getIds()[0]);
+		assertFalse(reader.next());
+		reader.close();
+	}
+
+	@Test
+	public void testMalformed() throws Exception {
+		checkFails("1 1:\n");
+		checkFails("1 2\n");
+		checkFails("1 3:0.5 4");
+		checkFails("1 x:1\n");
+		checkFails("1 1:abc\n");
+		checkFails("1 1:1.2.3\n");
+		checkFails("1 1:2e\n");
+	}
+
+	@Test
+	public void testTruncatedBinary() throws Exception {
+		writeRandom(true, 10, 7L);
+		File f = new File(file);
+		byte[] bytes = Files.readAllBytes(f.toPath());
+		FileOutputStream output = new FileOutputStream(file);
+		output.write(bytes, 0, bytes.length - 3);
+		output.close();
+
+		SVMLightReader reader = new SVMLightReader(file);
+		try{
+			for(int i = 0; i < 10; i++)
+				reader.next();
+			fail("No exception for a truncated binary file");
+		} catch(RuntimeException e){
+		} finally {
+			reader.close();
+		}
+	}
+}
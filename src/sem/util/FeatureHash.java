@@ -0,0 +1,72 @@
+package sem.util;
+
+import java.util.HashMap;
+
+/**
+ * Deterministic pseudo-random values for each feature of a vector space.
+ * The values are derived from the feature labels rather than the ids, so they stay the same when the vector space is built again from the same model.
+ * Used for random projections and min-hashing.
+ */
+public class FeatureHash {
+	private long seed;
+	private long[] featureKeys;
+	
+	/**
+	 * @param featureIndex Index of the feature labels
+	 * @param seed Random seed
+	 */
+	public FeatureHash(Index featureIndex, long seed){
+		this.seed = seed;
+		HashMap<Integer,String> featureLabels = featureIndex.getLabelMap();
+		int maxId = 0;
+		for(Integer id : featureLabels.keySet())
+			maxId = Math.max(maxId, id);
+		this.featureKeys = new long[maxId + 1];
+		for(Integer id : featureLabels.keySet())
+			this.featureKeys[id] = hashLabel(featureLabels.get(id));
+	}
+	
+	/**
+	 * Check whether the feature id was in the feature index.
+	 * @param featureId
+	 * @return
+	 */
+	public boolean contains(int featureId){
+		return featureId >= 0 && featureId < featureKeys.length;
+	}
+	
+	/**
+	 * Get 64 random bits for a feature and a position (e.g. a hash function or a block of dimensions).
+	 * @param featureId Feature id, needs to be in the feature index
+	 * @param position Position
+	 * @return Random bits
+	 */
+	public long random(int featureId, int position){
+		return mix(this.seed ^ this.featureKeys[featureId] ^ mix(position + 0x9e3779b97f4a7c15L));
+	}
+	
+	/**
+	 * 64-bit FNV-1a hash of a label.
+	 * @param label
+	 * @return
+	 */
+	public static long hashLabel(String label){
+		long hash = 0xcbf29ce484222325L;
+		for(int i = 0; i < label.length(); i++){
+			hash ^= label.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+	
+	/**
+	 * SplitMix64 finaliser, turns any 64-bit value into well-distributed random bits.
+	 * @param z
+	 * @return
+	 */
+	public static long mix(long z){
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+}
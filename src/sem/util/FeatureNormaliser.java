@@ -1,101 +1,255 @@
 package sem.util;
 
-import java.util.HashMap;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Normalises a chunk of examples from an SVM input file.
+ */
+class FeatureNormaliserTask implements Runnable{
+	FeatureNormaliser normaliser;
+	SVMLightChunk chunk;
+	ByteArrayOutputStream output;
+
+	public FeatureNormaliserTask(FeatureNormaliser normaliser, SVMLightChunk chunk){
+		this.normaliser = normaliser;
+		this.chunk = chunk;
+		this.output = new ByteArrayOutputStream();
+	}
+
+	@Override
+	public void run() {
+		SVMLightWriter writer = new SVMLightWriter(output, false);
+		int[] ids = chunk.getIds();
+		double[] values = chunk.getValues();
+		for(int i = 0; i < chunk.size(); i++){
+			writer.startExample(chunk.getLabel(i));
+			for(int j = chunk.getStart(i); j < chunk.getEnd(i); j++){
+				double newValue = normaliser.transform(ids[j], values[j]);
+				if(!Double.isNaN(newValue))
+					writer.writeFeature(ids[j], newValue);
+			}
+			writer.endExample();
+		}
+		writer.close();
+	}
+}
 
 /**
  * Normalises all the features in a standard SVM input file format, given a reference file and an input file
- *
+ * <p>The statistics of the reference file are collected in a single pass into arrays indexed by feature id, using Welford's method for the variance.
+ * They can be saved and loaded, so the same reference file does not need to be read again for every input file.
  */
 public class FeatureNormaliser {
-	public static void run(int normType, String referenceFile, String inputFile, String outputFile){
-		HashMap<Integer,Double> sums = new HashMap<Integer,Double>();
-		HashMap<Integer,Double> squaresums = new HashMap<Integer,Double>();
-		HashMap<Integer,Double> max = new HashMap<Integer,Double>();
-		HashMap<Integer,Double> min = new HashMap<Integer,Double>();
-		HashMap<Integer,Integer> count = new HashMap<Integer,Integer>();
-		
-		// Collecting statistics from the reference file
-		FileReader refReader = new FileReader(referenceFile);
-		while(refReader.hasNext()){
-			String[] line = refReader.next().trim().split("\\s+");
-			if(line.length <= 0)
-				continue;
-			for(int i = 1; i < line.length; i++){
-				String[] f = line[i].trim().split(":");
-				if(f.length != 2)
-					throw new RuntimeException("Illegal number of chunks");
-				Integer id = Integer.parseInt(f[0]);
-				Double value = Double.parseDouble(f[1]);
-				
-				if(!sums.containsKey(id))
-					sums.put(id, 0.0);
-				sums.put(id, sums.get(id) + value);
-				
-				if(!squaresums.containsKey(id))
-					squaresums.put(id, 0.0);
-				squaresums.put(id, squaresums.get(id) + Math.pow(value, 2.0));
-				
-				if(!max.containsKey(id) || max.get(id) < value)
-					max.put(id, value);
-				
-				if(!min.containsKey(id) || min.get(id) > value)
-					min.put(id, value);
-				
-				if(!count.containsKey(id))
-					count.put(id, 0);
-				count.put(id, count.get(id) + 1);
+	public static final int NORM_NONE = 0;
+	public static final int NORM_RANGE = 1;
+	public static final int NORM_STDEV = 2;
+
+	private static final int FILE_VERSION = 1;
+	private static final int CHUNK_SIZE = 5000;
+
+	private int normType;
+	private int[] count;
+	private double[] mean;
+	private double[] m2;
+	private double[] min;
+	private double[] max;
+
+	private FeatureNormaliser(int normType, int size){
+		if(normType < NORM_NONE || normType > NORM_STDEV)
+			throw new IllegalArgumentException("Unknown normalisation type: " + normType);
+		this.normType = normType;
+		this.count = new int[size];
+		this.mean = new double[size];
+		this.m2 = new double[size];
+		this.min = new double[size];
+		this.max = new double[size];
+	}
+
+	private void ensureSize(int id){
+		if(id < count.length)
+			return;
+		int size = Math.max(id + 1, count.length * 2);
+		count = Arrays.copyOf(count, size);
+		mean = Arrays.copyOf(mean, size);
+		m2 = Arrays.copyOf(m2, size);
+		min = Arrays.copyOf(min, size);
+		max = Arrays.copyOf(max, size);
+	}
+
+	private void add(int id, double value){
+		if(id < 0)
+			throw new RuntimeException("Illegal feature id: " + id);
+		ensureSize(id);
+		int n = ++count[id];
+		double delta = value - mean[id];
+		mean[id] += delta / n;
+		m2[id] += delta * (value - mean[id]);
+		if(n == 1 || value > max[id])
+			max[id] = value;
+		if(n == 1 || value < min[id])
+			min[id] = value;
+	}
+
+	/**
+	 * Collect the feature statistics from a reference file.
+	 * @param normType NORM_NONE, NORM_RANGE or NORM_STDEV
+	 * @param referenceFile SVM input file
+	 * @return The fitted normaliser
+	 */
+	public static FeatureNormaliser fit(int normType, String referenceFile){
+		FeatureNormaliser normaliser = new FeatureNormaliser(normType, 64);
+		SVMLightReader reader = new SVMLightReader(referenceFile);
+		while(reader.next()){
+			int[] ids = reader.getIds();
+			double[] values = reader.getValues();
+			for(int i = 0; i < reader.size(); i++)
+				normaliser.add(ids[i], values[i]);
+		}
+		reader.close();
+		return normaliser;
+	}
+
+	/**
+	 * Save the collected statistics.
+	 * @param path Output file
+	 */
+	public void save(String path){
+		try{
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)));
+			out.writeInt(FILE_VERSION);
+			out.writeInt(normType);
+			out.writeInt(count.length);
+			for(int id = 0; id < count.length; id++){
+				out.writeInt(count[id]);
+				out.writeDouble(mean[id]);
+				out.writeDouble(m2[id]);
+				out.writeDouble(min[id]);
+				out.writeDouble(max[id]);
 			}
+			out.close();
+		} catch (Exception e) {
+			throw new RuntimeException(e);
 		}
-		refReader.close();
-		
-		// Transforming the input file
-		FileReader inputReader = new FileReader(inputFile);
-		FileWriter outputWriter = new FileWriter(outputFile);
-		while(inputReader.hasNext()){
-			String[] line = inputReader.next().trim().split("\\s+");
-			if(line.length <= 0)
-				continue;
-			outputWriter.write(line[0]);
-			for(int i = 1; i < line.length; i++){
-				String[] f = line[i].trim().split(":");
-				if(f.length != 2)
-					throw new RuntimeException("Illegal number of chunks");
-				Integer id = Integer.parseInt(f[0]);
-				Double value = Double.parseDouble(f[1]);
-				
-				if(!count.containsKey(id))
-					continue;
-				
-				if(normType == 0){
-					outputWriter.write(" " + id + ":" + value);
-				}
-				else if(normType == 1){
-					if(count.get(id) < 2)
-						continue;
-					double mean = sums.get(id) / count.get(id);
-					double range = max.get(id) - min.get(id);
-					if(range == 0.0)
-						continue;
-					double newValue = (value - mean) / range;
-					outputWriter.write(" " + id + ":" + newValue);
-				}
-				else if(normType == 2){
-					if(count.get(id) < 2)
-						continue;
-					double mean = sums.get(id) / count.get(id);
-					double sdev = squaresums.get(id) - (2.0 * mean * sums.get(id)) + (count.get(id) * mean * mean);
-					if(sdev == 0.0)
-						continue;
-					if(sdev < 0.0)
-						throw new RuntimeException("Problems");
-					sdev = Math.sqrt(sdev / (count.get(id) - 1));
-					double newValue = (value - mean) / sdev;
-					outputWriter.write(" " + id + ":" + newValue);
+	}
+
+	/**
+	 * Load statistics saved with save().
+	 * @param path Input file
+	 * @return The normaliser
+	 */
+	public static FeatureNormaliser load(String path){
+		try{
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)));
+			int version = in.readInt();
+			if(version != FILE_VERSION)
+				throw new RuntimeException("Unsupported normaliser version: " + version);
+			int normType = in.readInt();
+			FeatureNormaliser normaliser = new FeatureNormaliser(normType, in.readInt());
+			for(int id = 0; id < normaliser.count.length; id++){
+				normaliser.count[id] = in.readInt();
+				normaliser.mean[id] = in.readDouble();
+				normaliser.m2[id] = in.readDouble();
+				normaliser.min[id] = in.readDouble();
+				normaliser.max[id] = in.readDouble();
+			}
+			in.close();
+			return normaliser;
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public int getNormType(){
+		return this.normType;
+	}
+
+	/**
+	 * Normalise a single feature value.
+	 * @return The new value, or NaN if the feature should be left out
+	 */
+	public double transform(int id, double value){
+		if(id < 0 || id >= count.length || count[id] == 0)
+			return Double.NaN;
+		if(normType == NORM_NONE)
+			return value;
+		if(count[id] < 2)
+			return Double.NaN;
+		if(normType == NORM_RANGE){
+			double range = max[id] - min[id];
+			if(range == 0.0)
+				return Double.NaN;
+			return (value - mean[id]) / range;
+		}
+		if(m2[id] <= 0.0)
+			return Double.NaN;
+		return (value - mean[id]) / Math.sqrt(m2[id] / (count[id] - 1));
+	}
+
+	/**
+	 * Normalise an SVM input file. The file is processed in chunks in parallel, and the examples are written in the original order.
+	 * Features that are not found in the reference file, or have no variation, are left out.
+	 * @param inputFile Input file, in the text or binary format of SVMLightReader
+	 * @param outputFile Output file, in the text format
+	 * @param numThreads Number of threads
+	 */
+	public void transform(String inputFile, String outputFile, int numThreads){
+		BlockingQueue<Runnable> queue = new LinkedBlockingQueue<Runnable>();
+		LinkedList<Future<?>> futures = new LinkedList<Future<?>>();
+		LinkedList<FeatureNormaliserTask> tasks = new LinkedList<FeatureNormaliserTask>();
+		LinkedList<SVMLightChunk> freeChunks = new LinkedList<SVMLightChunk>();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(numThreads, numThreads, 30, TimeUnit.SECONDS, queue);
+		int maxChunks = numThreads * 2;
+
+		SVMLightReader reader = new SVMLightReader(inputFile);
+		try{
+			OutputStream output = new BufferedOutputStream(new FileOutputStream(outputFile), 1 << 16);
+			boolean hasNext = true;
+			while(hasNext || !tasks.isEmpty()){
+				while(hasNext && tasks.size() < maxChunks){
+					SVMLightChunk chunk = freeChunks.isEmpty()?new SVMLightChunk():freeChunks.removeFirst();
+					if(reader.read(chunk, CHUNK_SIZE) < CHUNK_SIZE)
+						hasNext = false;
+					if(chunk.size() == 0)
+						break;
+					FeatureNormaliserTask task = new FeatureNormaliserTask(this, chunk);
+					tasks.add(task);
+					futures.add(executor.submit(task));
 				}
-			} 
-			outputWriter.writeln("");
+				if(tasks.isEmpty())
+					break;
+
+				// Writing the oldest chunk
+				futures.removeFirst().get();
+				FeatureNormaliserTask task = tasks.removeFirst();
+				task.output.writeTo(output);
+				freeChunks.add(task.chunk);
+			}
+			output.close();
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			reader.close();
+			executor.shutdown();
 		}
-		inputReader.close();
-		outputWriter.close();
+	}
+
+	public static void run(int normType, String referenceFile, String inputFile, String outputFile){
+		fit(normType, referenceFile).transform(inputFile, outputFile, Runtime.getRuntime().availableProcessors());
 	}
 }
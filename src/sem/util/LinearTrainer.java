@@ -0,0 +1,232 @@
+package sem.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs one epoch of SGD over a shard of the training examples, starting from the current shared weights.
+ */
+class LinearTrainerTask implements Runnable{
+	LinearTrainer trainer;
+	int[] order;
+	int start, end;
+	double[] weights;
+	long step;
+	Random random;
+
+	public LinearTrainerTask(LinearTrainer trainer, int[] order, int start, int end, long seed){
+		this.trainer = trainer;
+		this.order = order;
+		this.start = start;
+		this.end = end;
+		this.random = new Random(seed);
+	}
+
+	@Override
+	public void run() {
+		// Shuffling the shard
+		for(int i = end - 1; i > start; i--){
+			int j = start + random.nextInt(i - start + 1);
+			int temp = order[i];
+			order[i] = order[j];
+			order[j] = temp;
+		}
+
+		// The weights are stored as scale * weights, so the regularisation step does not need to touch every weight
+		double scale = 1.0;
+		for(int i = start; i < end; i++){
+			step++;
+			scale = trainer.update(weights, scale, order[i], step);
+		}
+		for(int k = 0; k < weights.length; k++)
+			weights[k] *= scale;
+	}
+}
+
+/**
+ * Trains a linear classifier (SVM with hinge loss, or logistic regression) on sparse feature vectors, inside the JVM.
+ * <p>Training uses SGD with iterative parameter mixing: in every epoch the examples are split into one shard per thread,
+ * each shard is trained from the current weights, and the resulting weights are averaged.
+ * The result is an SVMModel that can be saved in the SVM-light format.
+ */
+public class LinearTrainer {
+	public static final int LOSS_HINGE = 0;
+	public static final int LOSS_LOGISTIC = 1;
+
+	private int lossType;
+	private double lambda;
+	private double trainingLambda;
+	private int epochs;
+	private long seed;
+	private int numThreads;
+
+	private int[] labels;
+	private int[][] ids;
+	private double[][] values;
+
+	/**
+	 * @param lossType LOSS_HINGE or LOSS_LOGISTIC
+	 * @param lambda Regularisation weight. If it is not positive, it is set to avg(x*x)/n, which corresponds to the default C in SVM-light.
+	 * @param epochs Number of passes over the data
+	 * @param seed Random seed for shuffling
+	 * @param numThreads Number of threads
+	 */
+	public LinearTrainer(int lossType, double lambda, int epochs, long seed, int numThreads){
+		if(lossType != LOSS_HINGE && lossType != LOSS_LOGISTIC)
+			throw new IllegalArgumentException("Unknown loss type: " + lossType);
+		this.lossType = lossType;
+		this.lambda = lambda;
+		this.epochs = epochs;
+		this.seed = seed;
+		this.numThreads = numThreads;
+	}
+
+	/**
+	 * Train a model on the examples in a file, in the text or binary format of SVMLightReader.
+	 * @param trainFile Input file
+	 * @return The trained model
+	 */
+	public SVMModel train(String trainFile){
+		ArrayList<Integer> labelList = new ArrayList<Integer>();
+		ArrayList<int[]> idList = new ArrayList<int[]>();
+		ArrayList<double[]> valueList = new ArrayList<double[]>();
+		SVMLightReader reader = new SVMLightReader(trainFile);
+		while(reader.next()){
+			labelList.add(reader.getLabel() > 0.0?1:-1);
+			idList.add(Arrays.copyOf(reader.getIds(), reader.size()));
+			valueList.add(Arrays.copyOf(reader.getValues(), reader.size()));
+		}
+		reader.close();
+
+		int[] labelArray = new int[labelList.size()];
+		for(int i = 0; i < labelArray.length; i++)
+			labelArray[i] = labelList.get(i);
+		return train(labelArray, idList.toArray(new int[0][]), valueList.toArray(new double[0][]));
+	}
+
+	/**
+	 * Train a model on examples stored as primitive arrays.
+	 * @param labels Labels, positive values for the positive class
+	 * @param ids Feature ids of each example, all greater than 0
+	 * @param values Feature values of each example, in the same order as the ids
+	 * @return The trained model
+	 */
+	public SVMModel train(int[] labels, int[][] ids, double[][] values){
+		if(labels.length != ids.length || labels.length != values.length)
+			throw new IllegalArgumentException("Mismatching number of labels and examples");
+		if(labels.length == 0)
+			throw new IllegalArgumentException("No training examples");
+		this.labels = labels;
+		this.ids = ids;
+		this.values = values;
+
+		int highestFeature = 0;
+		double squareSum = 0.0;
+		for(int i = 0; i < ids.length; i++){
+			for(int j = 0; j < ids[i].length; j++){
+				if(ids[i][j] <= 0)
+					throw new IllegalArgumentException("Feature ids need to be greater than 0: " + ids[i][j]);
+				highestFeature = Math.max(highestFeature, ids[i][j]);
+				squareSum += values[i][j] * values[i][j];
+			}
+		}
+		this.trainingLambda = this.lambda;
+		if(this.trainingLambda <= 0.0)
+			this.trainingLambda = Math.max(squareSum / labels.length, 1e-12) / labels.length;
+
+		// The last position holds the bias
+		double[] weights = new double[highestFeature + 2];
+		int[] order = new int[labels.length];
+		for(int i = 0; i < order.length; i++)
+			order[i] = i;
+
+		int shards = Math.max(1, Math.min(numThreads, labels.length));
+		BlockingQueue<Runnable> queue = new LinkedBlockingQueue<Runnable>();
+		ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(shards, shards, 30, TimeUnit.SECONDS, queue);
+		LinearTrainerTask[] tasks = new LinearTrainerTask[shards];
+		for(int s = 0; s < shards; s++)
+			tasks[s] = new LinearTrainerTask(this, order, (int)((long)labels.length * s / shards), (int)((long)labels.length * (s + 1) / shards), seed + s);
+
+		try{
+			for(int epoch = 0; epoch < epochs; epoch++){
+				for(LinearTrainerTask task : tasks){
+					task.weights = weights.clone();
+					futures.add(executor.submit(task));
+				}
+
+				// Wait to finish
+				for (Future<?> future : futures) {
+					future.get();
+				}
+				futures.clear();
+
+				// Averaging the weights from all the shards
+				for(int k = 0; k < weights.length; k++){
+					double sum = 0.0;
+					for(LinearTrainerTask task : tasks)
+						sum += task.weights[k];
+					weights[k] = sum / tasks.length;
+				}
+			}
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			executor.shutdown();
+		}
+
+		double bias = weights[weights.length - 1];
+		double[] featureWeights = new double[highestFeature + 1];
+		System.arraycopy(weights, 0, featureWeights, 0, highestFeature + 1);
+		this.labels = null;
+		this.ids = null;
+		this.values = null;
+		// SVM-light uses the score w*x - b
+		return new SVMModel(featureWeights, -bias);
+	}
+
+	/**
+	 * A single SGD step on one example, with the learning rate 1/(lambda*(step+1)).
+	 * The bias is treated as a feature with a constant value of 1.
+	 * @return The new scale of the weights
+	 */
+	double update(double[] weights, double scale, int example, long step){
+		int[] exampleIds = ids[example];
+		double[] exampleValues = values[example];
+		int biasId = weights.length - 1;
+		double y = labels[example];
+
+		double score = weights[biasId];
+		for(int j = 0; j < exampleIds.length; j++)
+			score += weights[exampleIds[j]] * exampleValues[j];
+		score *= scale;
+
+		double rate = 1.0 / (trainingLambda * (step + 1));
+		double gradient;
+		if(lossType == LOSS_HINGE)
+			gradient = (y * score < 1.0)?y:0.0;
+		else
+			gradient = y / (1.0 + Math.exp(y * score));
+
+		scale *= 1.0 - rate * trainingLambda;
+		if(gradient != 0.0){
+			double delta = rate * gradient / scale;
+			for(int j = 0; j < exampleIds.length; j++)
+				weights[exampleIds[j]] += delta * exampleValues[j];
+			weights[biasId] += delta;
+		}
+
+		if(scale < 1e-9){
+			for(int k = 0; k < weights.length; k++)
+				weights[k] *= scale;
+			scale = 1.0;
+		}
+		return scale;
+	}
+}
@@ -0,0 +1,82 @@
+package sem.util;
+
+import java.util.Arrays;
+
+/**
+ * A block of examples from an SVM input file, stored in flat primitive arrays.
+ * The features of example i are at positions getStart(i) to getEnd(i) of getIds() and getValues().
+ * A chunk can be cleared and refilled, so the arrays are reused between blocks.
+ */
+public class SVMLightChunk {
+	private double[] labels;
+	private int[] starts;
+	private int[] ids;
+	private double[] values;
+	private int size;
+
+	public SVMLightChunk(){
+		this.labels = new double[256];
+		this.starts = new int[257];
+		this.ids = new int[4096];
+		this.values = new double[4096];
+		this.size = 0;
+	}
+
+	public void clear(){
+		this.size = 0;
+	}
+
+	/**
+	 * Add an example to the end of the chunk.
+	 */
+	public void add(double label, int[] exampleIds, double[] exampleValues, int length){
+		if(size == labels.length){
+			labels = Arrays.copyOf(labels, labels.length * 2);
+			starts = Arrays.copyOf(starts, labels.length + 1);
+		}
+		int start = starts[size];
+		if(start + length > ids.length){
+			int capacity = Math.max(start + length, ids.length * 2);
+			ids = Arrays.copyOf(ids, capacity);
+			values = Arrays.copyOf(values, capacity);
+		}
+		System.arraycopy(exampleIds, 0, ids, start, length);
+		System.arraycopy(exampleValues, 0, values, start, length);
+		labels[size] = label;
+		size++;
+		starts[size] = start + length;
+	}
+
+	/**
+	 * Get the number of examples in the chunk.
+	 */
+	public int size(){
+		return this.size;
+	}
+
+	public double getLabel(int example){
+		return this.labels[example];
+	}
+
+	public int getStart(int example){
+		return this.starts[example];
+	}
+
+	public int getEnd(int example){
+		return this.starts[example + 1];
+	}
+
+	/**
+	 * Get the feature ids of all the examples. The array should not be modified.
+	 */
+	public int[] getIds(){
+		return this.ids;
+	}
+
+	/**
+	 * Get the feature values of all the examples. The array should not be modified.
+	 */
+	public double[] getValues(){
+		return this.values;
+	}
+}
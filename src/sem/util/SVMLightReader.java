@@ -0,0 +1,438 @@
+package sem.util;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * Reads examples from a file in the SVM-light format, or from the binary format written by SVMLightWriter.
+ * <p>The text format is parsed directly from the bytes into reusable int and double buffers, without creating Strings for lines or tokens.
+ * Comments after '#' and empty lines are skipped. The binary format is detected from the first bytes of the file.
+ */
+public class SVMLightReader {
+	static final int MAGIC = 0x53564D42;
+
+	private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+	/**
+	 * The powers of five from 5^SMALLEST_POWER to 5^LARGEST_POWER, normalised to 128 bits, as in the Eisel-Lemire algorithm.
+	 * Positive powers are truncated, negative powers are rounded up.
+	 */
+	private static final int SMALLEST_POWER = -342;
+	private static final int LARGEST_POWER = 308;
+	private static final long[] POWERS_OF_FIVE_HIGH = new long[LARGEST_POWER - SMALLEST_POWER + 1];
+	private static final long[] POWERS_OF_FIVE_LOW = new long[LARGEST_POWER - SMALLEST_POWER + 1];
+	static{
+		BigInteger limit = BigInteger.ONE.shiftLeft(128);
+		for(int q = SMALLEST_POWER; q <= LARGEST_POWER; q++){
+			BigInteger power;
+			if(q >= 0){
+				power = BigInteger.valueOf(5).pow(q);
+				if(power.bitLength() < 128)
+					power = power.shiftLeft(128 - power.bitLength());
+				else
+					power = power.shiftRight(power.bitLength() - 128);
+			}
+			else{
+				BigInteger power5 = BigInteger.valueOf(5).pow(-q);
+				int z = power5.bitLength();
+				int b = (q >= -27)?(z + 127):(2 * z + 128);
+				power = BigInteger.ONE.shiftLeft(b).divide(power5).add(BigInteger.ONE);
+				while(power.compareTo(limit) >= 0)
+					power = power.shiftRight(1);
+			}
+			POWERS_OF_FIVE_HIGH[q - SMALLEST_POWER] = power.shiftRight(64).longValue();
+			POWERS_OF_FIVE_LOW[q - SMALLEST_POWER] = power.longValue();
+		}
+	}
+
+	private InputStream input;
+	private byte[] buffer;
+	private int position, limit;
+	private boolean binary;
+
+	private double label;
+	private int size;
+	private int[] ids;
+	private double[] values;
+	private byte[] token;
+	private char[] chars;
+
+	public SVMLightReader(String inputFile){
+		try{
+			this.input = new FileInputStream(inputFile);
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+		this.buffer = new byte[1 << 16];
+		this.position = 0;
+		this.limit = 0;
+		this.ids = new int[64];
+		this.values = new double[64];
+		this.token = new byte[64];
+		this.chars = new char[64];
+
+		fill(4);
+		if(limit - position >= 4 && readInt() == MAGIC)
+			this.binary = true;
+		else
+			this.position = 0;
+	}
+
+	/**
+	 * Make sure at least the given number of bytes are in the buffer, unless the file ends.
+	 * @return False if the file has ended before that
+	 */
+	private boolean fill(int required){
+		if(limit - position >= required)
+			return true;
+		try{
+			System.arraycopy(buffer, position, buffer, 0, limit - position);
+			limit -= position;
+			position = 0;
+			while(limit < required){
+				int read = input.read(buffer, limit, buffer.length - limit);
+				if(read < 0)
+					return false;
+				limit += read;
+			}
+			return true;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Get the next byte, or -1 if the file has ended.
+	 */
+	private int read(){
+		if(position >= limit && !fill(1))
+			return -1;
+		return buffer[position++] & 0xFF;
+	}
+
+	private int peek(){
+		if(position >= limit && !fill(1))
+			return -1;
+		return buffer[position] & 0xFF;
+	}
+
+	private int readInt(){
+		if(!fill(4))
+			throw new RuntimeException("Binary file has run out");
+		int value = ((buffer[position] & 0xFF) << 24) | ((buffer[position+1] & 0xFF) << 16) | ((buffer[position+2] & 0xFF) << 8) | (buffer[position+3] & 0xFF);
+		position += 4;
+		return value;
+	}
+
+	private double readDouble(){
+		if(!fill(8))
+			throw new RuntimeException("Binary file has run out");
+		long value = 0;
+		for(int i = 0; i < 8; i++)
+			value = (value << 8) | (buffer[position++] & 0xFF);
+		return Double.longBitsToDouble(value);
+	}
+
+	private static boolean isSpace(int c){
+		return c == ' ' || c == '\t' || c == '\r';
+	}
+
+	private void skipLine(){
+		int c;
+		while((c = read()) != '\n' && c != -1);
+	}
+
+	/**
+	 * Read the bytes of the next token into the token buffer.
+	 * @return Length of the token
+	 */
+	private int readToken(){
+		int length = 0;
+		int c;
+		while((c = peek()) != -1 && !isSpace(c) && c != '\n' && c != ':' && c != '#'){
+			if(length == token.length)
+				token = Arrays.copyOf(token, token.length * 2);
+			token[length++] = (byte)c;
+			position++;
+		}
+		return length;
+	}
+
+	private int parseInt(int length){
+		if(length == 0)
+			throw new RuntimeException("Missing feature id");
+		int value = 0;
+		for(int i = 0; i < length; i++){
+			int digit = token[i] - '0';
+			if(digit < 0 || digit > 9)
+				throw new RuntimeException("Illegal feature id");
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+
+	/**
+	 * Parse a decimal number from the token buffer.
+	 * Numbers with up to 15 significant digits and a small exponent are calculated exactly from the digits.
+	 * Numbers with up to 18 significant digits, which covers the output of Double.toString(), are converted with the Eisel-Lemire algorithm.
+	 * Other numbers, and the rare cases that the algorithm cannot decide, fall back to Double.parseDouble().
+	 */
+	private double parseDouble(int length){
+		if(length == 0)
+			throw new RuntimeException("Missing value");
+		int i = 0;
+		boolean negative = false;
+		if(token[i] == '-' || token[i] == '+'){
+			negative = (token[i] == '-');
+			i++;
+		}
+		long mantissa = 0;
+		int digits = 0, exponent = 0;
+		boolean seenDigit = false, seenPoint = false;
+		for(; i < length; i++){
+			int c = token[i];
+			if(c >= '0' && c <= '9'){
+				seenDigit = true;
+				if(mantissa == 0 && c == '0'){
+					if(seenPoint)
+						exponent--;
+					continue;
+				}
+				if(digits < 18){
+					mantissa = mantissa * 10 + (c - '0');
+					digits++;
+					if(seenPoint)
+						exponent--;
+				}
+				else{
+					digits++;
+					if(!seenPoint)
+						exponent++;
+				}
+			}
+			else if(c == '.' && !seenPoint)
+				seenPoint = true;
+			else
+				break;
+		}
+		if(i < length && seenDigit && (token[i] == 'e' || token[i] == 'E')){
+			i++;
+			boolean negativeExponent = false;
+			if(i < length && (token[i] == '-' || token[i] == '+')){
+				negativeExponent = (token[i] == '-');
+				i++;
+			}
+			int value = 0;
+			boolean seenExponentDigit = false;
+			for(; i < length && token[i] >= '0' && token[i] <= '9'; i++){
+				if(value < 100000)
+					value = value * 10 + (token[i] - '0');
+				seenExponentDigit = true;
+			}
+			if(!seenExponentDigit)
+				return parseDoubleSlow(length);
+			exponent += negativeExponent?-value:value;
+		}
+		if(i < length || !seenDigit || digits > 18)
+			return parseDoubleSlow(length);
+
+		// Both the mantissa and the power of ten are exact doubles, so a single operation gives a correctly rounded result
+		double result;
+		if(mantissa == 0)
+			result = 0.0;
+		else if(digits <= 15 && exponent >= 0 && exponent < POWERS_OF_TEN.length)
+			result = (double)mantissa * POWERS_OF_TEN[exponent];
+		else if(digits <= 15 && exponent < 0 && -exponent < POWERS_OF_TEN.length)
+			result = (double)mantissa / POWERS_OF_TEN[-exponent];
+		else{
+			result = eiselLemire(mantissa, exponent);
+			if(Double.isNaN(result))
+				return parseDoubleSlow(length);
+		}
+		return negative?-result:result;
+	}
+
+	/**
+	 * High 64 bits of the unsigned 128-bit product of a and b.
+	 */
+	private static long multiplyHigh(long a, long b){
+		long aLow = a & 0xFFFFFFFFL, aHigh = a >>> 32;
+		long bLow = b & 0xFFFFFFFFL, bHigh = b >>> 32;
+		long lowLow = aLow * bLow;
+		long highLow = aHigh * bLow;
+		long cross = (lowLow >>> 32) + (highLow & 0xFFFFFFFFL) + aLow * bHigh;
+		return aHigh * bHigh + (highLow >>> 32) + (cross >>> 32);
+	}
+
+	/**
+	 * Convert mantissa * 10^exponent into the nearest double, using a 128-bit approximation of the power of ten (Eisel-Lemire algorithm).
+	 * @param mantissa Positive decimal mantissa
+	 * @param exponent Decimal exponent
+	 * @return The correctly rounded result, or NaN if it cannot be decided from 128 bits or would be subnormal or infinite
+	 */
+	private static double eiselLemire(long mantissa, int exponent){
+		if(exponent < SMALLEST_POWER || exponent > LARGEST_POWER)
+			return Double.NaN;
+		int index = exponent - SMALLEST_POWER;
+		int leadingZeros = Long.numberOfLeadingZeros(mantissa);
+		long w = mantissa << leadingZeros;
+
+		long lower = w * POWERS_OF_FIVE_HIGH[index];
+		long upper = multiplyHigh(w, POWERS_OF_FIVE_HIGH[index]);
+		// The low bits are needed only when the truncated product is close to a rounding boundary
+		if((upper & 0x1FF) == 0x1FF && Long.compareUnsigned(lower + w, lower) < 0){
+			long productLow = w * POWERS_OF_FIVE_LOW[index];
+			long productMiddle = lower + multiplyHigh(w, POWERS_OF_FIVE_LOW[index]);
+			if(Long.compareUnsigned(productMiddle, lower) < 0)
+				upper++;
+			if(productMiddle + 1 == 0 && (upper & 0x1FF) == 0x1FF && Long.compareUnsigned(productLow + w, productLow) < 0)
+				return Double.NaN;
+			lower = productMiddle;
+		}
+
+		long upperBit = upper >>> 63;
+		long bits = upper >>> (upperBit + 9);
+		leadingZeros += (int)(1 ^ upperBit);
+		// Exactly halfway between two doubles, which needs the exact value to round to even
+		if(lower == 0 && (upper & 0x1FF) == 0 && (bits & 3) == 1)
+			return Double.NaN;
+		bits += bits & 1;
+		bits >>>= 1;
+		if(bits >= (1L << 53)){
+			bits = 1L << 52;
+			leadingZeros--;
+		}
+		bits &= ~(1L << 52);
+		long binaryExponent = (((152170L + 65536L) * exponent) >> 16) + 1024 + 63 - leadingZeros;
+		if(binaryExponent < 1 || binaryExponent > 2046)
+			return Double.NaN;
+		return Double.longBitsToDouble(bits | (binaryExponent << 52));
+	}
+
+	private double parseDoubleSlow(int length){
+		if(chars.length < length)
+			chars = new char[token.length];
+		for(int i = 0; i < length; i++)
+			chars[i] = (char)token[i];
+		return Double.parseDouble(new String(chars, 0, length));
+	}
+
+	private void addFeature(int id, double value){
+		if(size == ids.length){
+			ids = Arrays.copyOf(ids, size * 2);
+			values = Arrays.copyOf(values, size * 2);
+		}
+		ids[size] = id;
+		values[size] = value;
+		size++;
+	}
+
+	/**
+	 * Read the next example.
+	 * @return False if there are no more examples
+	 */
+	public boolean next(){
+		size = 0;
+		if(binary){
+			if(!fill(1))
+				return false;
+			label = readDouble();
+			int length = readInt();
+			for(int i = 0; i < length; i++){
+				int id = readInt();
+				addFeature(id, readDouble());
+			}
+			return true;
+		}
+
+		while(true){
+			int c = peek();
+			if(c == -1)
+				return false;
+			if(isSpace(c)){
+				position++;
+				continue;
+			}
+			if(c == '\n'){
+				position++;
+				continue;
+			}
+			if(c == '#'){
+				skipLine();
+				continue;
+			}
+			break;
+		}
+
+		label = parseDouble(readToken());
+		while(true){
+			int c = read();
+			if(c == -1 || c == '\n')
+				break;
+			if(isSpace(c))
+				continue;
+			if(c == '#'){
+				skipLine();
+				break;
+			}
+			position--;
+			int length = readToken();
+			if(read() != ':')
+				throw new RuntimeException("Illegal feature in SVM file");
+			// Query ids are not features
+			if(length == 3 && token[0] == 'q' && token[1] == 'i' && token[2] == 'd'){
+				readToken();
+				continue;
+			}
+			int id = parseInt(length);
+			addFeature(id, parseDouble(readToken()));
+		}
+		return true;
+	}
+
+	/**
+	 * Read up to maxExamples examples into a chunk. The chunk is cleared first.
+	 * @return Number of examples read
+	 */
+	public int read(SVMLightChunk chunk, int maxExamples){
+		chunk.clear();
+		while(chunk.size() < maxExamples && next())
+			chunk.add(label, ids, values, size);
+		return chunk.size();
+	}
+
+	public double getLabel(){
+		return this.label;
+	}
+
+	/**
+	 * Get the number of features in the current example.
+	 */
+	public int size(){
+		return this.size;
+	}
+
+	/**
+	 * Get the feature ids of the current example, at positions 0 to size()-1. The array is reused for the next example.
+	 */
+	public int[] getIds(){
+		return this.ids;
+	}
+
+	/**
+	 * Get the feature values of the current example, at positions 0 to size()-1. The array is reused for the next example.
+	 */
+	public double[] getValues(){
+		return this.values;
+	}
+
+	public void close(){
+		try{
+			input.close();
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
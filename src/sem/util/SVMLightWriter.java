@@ -0,0 +1,207 @@
+package sem.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Writes examples in the SVM-light format, or in a compact binary format that SVMLightReader detects automatically.
+ * <p>Numbers are formatted directly into a byte buffer. Integral values are written without a decimal point,
+ * other values are formatted as in Double.toString() through a reusable StringBuilder, so no Strings are created.
+ * <p>An example can be written in one call, or feature by feature between startExample() and endExample().
+ */
+public class SVMLightWriter {
+	private OutputStream output;
+	private boolean binary;
+	private byte[] buffer;
+	private int position;
+	private StringBuilder number;
+
+	private double label;
+	private int size;
+	private int[] ids;
+	private double[] values;
+
+	/**
+	 * @param output Output stream, closed by close()
+	 * @param binary Whether to use the binary format instead of text
+	 */
+	public SVMLightWriter(OutputStream output, boolean binary){
+		this(output, binary, true);
+	}
+
+	private SVMLightWriter(OutputStream output, boolean binary, boolean writeHeader){
+		this.output = output;
+		this.binary = binary;
+		this.buffer = new byte[1 << 16];
+		this.position = 0;
+		this.number = new StringBuilder(32);
+		this.ids = new int[64];
+		this.values = new double[64];
+		if(binary && writeHeader)
+			writeInt(SVMLightReader.MAGIC);
+	}
+
+	/**
+	 * Open a file for writing.
+	 * @param outputFile Output file
+	 * @param binary Whether to use the binary format instead of text
+	 * @param append Whether to append to an existing file
+	 */
+	public static SVMLightWriter open(String outputFile, boolean binary, boolean append){
+		try{
+			boolean writeHeader = !append || !(new File(outputFile)).exists();
+			return new SVMLightWriter(new FileOutputStream(outputFile, append), binary, writeHeader);
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private void ensure(int bytes){
+		if(position + bytes > buffer.length)
+			flushBuffer();
+		if(bytes > buffer.length)
+			buffer = new byte[bytes];
+	}
+
+	private void flushBuffer(){
+		try{
+			output.write(buffer, 0, position);
+			position = 0;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private void writeByte(int b){
+		ensure(1);
+		buffer[position++] = (byte)b;
+	}
+
+	private void writeInt(int value){
+		ensure(4);
+		buffer[position++] = (byte)(value >>> 24);
+		buffer[position++] = (byte)(value >>> 16);
+		buffer[position++] = (byte)(value >>> 8);
+		buffer[position++] = (byte)value;
+	}
+
+	private void writeDouble(double value){
+		long bits = Double.doubleToLongBits(value);
+		ensure(8);
+		for(int shift = 56; shift >= 0; shift -= 8)
+			buffer[position++] = (byte)(bits >>> shift);
+	}
+
+	private void writeLong(long value){
+		ensure(20);
+		if(value < 0){
+			buffer[position++] = '-';
+			value = -value;
+		}
+		int start = position;
+		do{
+			buffer[position++] = (byte)('0' + (value % 10));
+			value /= 10;
+		} while(value > 0);
+		// Digits were written in reverse
+		for(int i = start, j = position - 1; i < j; i++, j--){
+			byte temp = buffer[i];
+			buffer[i] = buffer[j];
+			buffer[j] = temp;
+		}
+	}
+
+	/**
+	 * Write a number in text form.
+	 */
+	public void writeNumber(double value){
+		if(value == Math.rint(value) && Math.abs(value) < 1e15){
+			writeLong((long)value);
+			return;
+		}
+		number.setLength(0);
+		number.append(value);
+		ensure(number.length());
+		for(int i = 0; i < number.length(); i++)
+			buffer[position++] = (byte)number.charAt(i);
+	}
+
+	/**
+	 * Write a single number followed by a newline, as in a predictions file. Only for the text format.
+	 */
+	public void writeValue(double value){
+		writeNumber(value);
+		writeByte('\n');
+	}
+
+	/**
+	 * Write a complete example.
+	 * @param label Label of the example
+	 * @param exampleIds Feature ids
+	 * @param exampleValues Feature values
+	 * @param offset Position of the first feature in the arrays
+	 * @param length Number of features
+	 */
+	public void write(double label, int[] exampleIds, double[] exampleValues, int offset, int length){
+		if(binary){
+			writeDouble(label);
+			writeInt(length);
+			for(int i = offset; i < offset + length; i++){
+				writeInt(exampleIds[i]);
+				writeDouble(exampleValues[i]);
+			}
+			return;
+		}
+		writeNumber(label);
+		for(int i = offset; i < offset + length; i++){
+			writeByte(' ');
+			writeLong(exampleIds[i]);
+			writeByte(':');
+			writeNumber(exampleValues[i]);
+		}
+		writeByte('\n');
+	}
+
+	/**
+	 * Start a new example. The features are added with writeFeature() and the example is finished with endExample().
+	 */
+	public void startExample(double label){
+		this.label = label;
+		this.size = 0;
+	}
+
+	public void writeFeature(int id, double value){
+		if(size == ids.length){
+			ids = Arrays.copyOf(ids, size * 2);
+			values = Arrays.copyOf(values, size * 2);
+		}
+		ids[size] = id;
+		values[size] = value;
+		size++;
+	}
+
+	public void endExample(){
+		write(label, ids, values, 0, size);
+		size = 0;
+	}
+
+	public void flush(){
+		try{
+			flushBuffer();
+			output.flush();
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public void close(){
+		try{
+			flushBuffer();
+			output.close();
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -0,0 +1,306 @@
+package sem.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.LinkedList;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scores a chunk of examples from an SVM input file.
+ */
+class SVMClassifyTask implements Runnable{
+	SVMModel model;
+	SVMLightChunk chunk;
+	double[] scores;
+
+	public SVMClassifyTask(SVMModel model, SVMLightChunk chunk){
+		this.model = model;
+		this.chunk = chunk;
+		this.scores = new double[chunk.size()];
+	}
+
+	@Override
+	public void run() {
+		double[] dense = new double[model.getHighestFeature() + 1];
+		int[] ids = chunk.getIds();
+		double[] values = chunk.getValues();
+		for(int i = 0; i < chunk.size(); i++){
+			double squareSum = 0.0;
+			for(int j = chunk.getStart(i); j < chunk.getEnd(i); j++){
+				squareSum += values[j] * values[j];
+				if(ids[j] < dense.length)
+					dense[ids[j]] = values[j];
+			}
+			scores[i] = model.classify(dense, squareSum);
+			for(int j = chunk.getStart(i); j < chunk.getEnd(i); j++)
+				if(ids[j] < dense.length)
+					dense[ids[j]] = 0.0;
+		}
+	}
+}
+
+/**
+ * A model trained with SVM-light, used for classification inside the JVM instead of running svm_classify.
+ * <p>All four SVM-light kernels are supported. For the linear kernel the support vectors are folded into a single weight vector when the model is loaded.
+ */
+public class SVMModel {
+	public static final int KERNEL_LINEAR = 0;
+	public static final int KERNEL_POLYNOMIAL = 1;
+	public static final int KERNEL_RBF = 2;
+	public static final int KERNEL_SIGMOID = 3;
+
+	private static final int CHUNK_SIZE = 5000;
+
+	private int kernelType;
+	private int degree;
+	private double gamma;
+	private double coefLin;
+	private double coefConst;
+	private int highestFeature;
+	private double threshold;
+
+	private double[] weights;
+	private double[] alphas;
+	private int[][] svIds;
+	private double[][] svValues;
+	private double[] svSquareSums;
+
+	private SVMModel(){
+	}
+
+	/**
+	 * Create a linear model from a weight vector.
+	 * @param weights Weights, indexed by feature id. Position 0 is not used.
+	 * @param threshold Threshold b, the score is w*x - b
+	 */
+	public SVMModel(double[] weights, double threshold){
+		this.kernelType = KERNEL_LINEAR;
+		this.weights = weights;
+		this.highestFeature = weights.length - 1;
+		this.threshold = threshold;
+	}
+
+	private static String stripComment(String line){
+		int comment = line.indexOf('#');
+		if(comment >= 0)
+			line = line.substring(0, comment);
+		return line.trim();
+	}
+
+	/**
+	 * Read the value at the start of a header line in the model file.
+	 */
+	private static String readHeaderValue(BufferedReader reader) throws Exception{
+		String line = reader.readLine();
+		if(line == null)
+			throw new RuntimeException("Model file has run out");
+		return stripComment(line).split("\\s+")[0];
+	}
+
+	/**
+	 * Load a model file in the SVM-light format.
+	 * @param modelFile Model file
+	 * @return The model
+	 */
+	public static SVMModel load(String modelFile){
+		try{
+			SVMModel model = new SVMModel();
+			BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(modelFile), "UTF-8"));
+			String version = reader.readLine();
+			if(version == null || !version.startsWith("SVM-light"))
+				throw new RuntimeException("Not an SVM-light model file: " + modelFile);
+			model.kernelType = Integer.parseInt(readHeaderValue(reader));
+			model.degree = Integer.parseInt(readHeaderValue(reader));
+			model.gamma = Double.parseDouble(readHeaderValue(reader));
+			model.coefLin = Double.parseDouble(readHeaderValue(reader));
+			model.coefConst = Double.parseDouble(readHeaderValue(reader));
+			readHeaderValue(reader); // custom kernel parameter
+			model.highestFeature = Integer.parseInt(readHeaderValue(reader));
+			readHeaderValue(reader); // number of training documents
+			int numSupportVectors = Integer.parseInt(readHeaderValue(reader)) - 1;
+			model.threshold = Double.parseDouble(readHeaderValue(reader));
+			if(model.kernelType < KERNEL_LINEAR || model.kernelType > KERNEL_SIGMOID)
+				throw new RuntimeException("Unsupported kernel type: " + model.kernelType);
+
+			model.alphas = new double[numSupportVectors];
+			model.svIds = new int[numSupportVectors][];
+			model.svValues = new double[numSupportVectors][];
+			model.svSquareSums = new double[numSupportVectors];
+			for(int i = 0; i < numSupportVectors; i++){
+				String line = reader.readLine();
+				if(line == null)
+					throw new RuntimeException("Model file has run out");
+				String[] tokens = stripComment(line).split("\\s+");
+				model.alphas[i] = Double.parseDouble(tokens[0]);
+				model.svIds[i] = new int[tokens.length - 1];
+				model.svValues[i] = new double[tokens.length - 1];
+				for(int j = 1; j < tokens.length; j++){
+					int separator = tokens[j].indexOf(':');
+					model.svIds[i][j-1] = Integer.parseInt(tokens[j].substring(0, separator));
+					model.svValues[i][j-1] = Double.parseDouble(tokens[j].substring(separator + 1));
+					model.svSquareSums[i] += model.svValues[i][j-1] * model.svValues[i][j-1];
+					if(model.svIds[i][j-1] > model.highestFeature)
+						model.highestFeature = model.svIds[i][j-1];
+				}
+			}
+			reader.close();
+
+			if(model.kernelType == KERNEL_LINEAR){
+				model.weights = new double[model.highestFeature + 1];
+				for(int i = 0; i < numSupportVectors; i++)
+					for(int j = 0; j < model.svIds[i].length; j++)
+						model.weights[model.svIds[i][j]] += model.alphas[i] * model.svValues[i][j];
+				model.alphas = null;
+				model.svIds = null;
+				model.svValues = null;
+				model.svSquareSums = null;
+			}
+			return model;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Save a linear model in the SVM-light format, as a single support vector holding the weights.
+	 * The file can be used by svm_classify as well as load().
+	 * @param modelFile Output file
+	 */
+	public void save(String modelFile){
+		if(kernelType != KERNEL_LINEAR)
+			throw new RuntimeException("Only linear models can be saved");
+		try{
+			BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(modelFile), "UTF-8"));
+			writer.write("SVM-light Version V6.02\n");
+			writer.write(KERNEL_LINEAR + " # kernel type\n");
+			writer.write("3 # kernel parameter -d \n");
+			writer.write("1 # kernel parameter -g \n");
+			writer.write("1 # kernel parameter -s \n");
+			writer.write("1 # kernel parameter -r \n");
+			writer.write("empty# kernel parameter -u \n");
+			writer.write(highestFeature + " # highest feature index \n");
+			writer.write("0 # number of training documents \n");
+			writer.write("2 # number of support vectors plus 1 \n");
+			writer.write(threshold + " # threshold b, each following line is a SV (starting with alpha*y)\n");
+			writer.write("1");
+			for(int id = 1; id < weights.length; id++)
+				if(weights[id] != 0.0)
+					writer.write(" " + id + ":" + weights[id]);
+			writer.write(" #\n");
+			writer.close();
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public int getKernelType(){
+		return this.kernelType;
+	}
+
+	public int getHighestFeature(){
+		return this.highestFeature;
+	}
+
+	public double getThreshold(){
+		return this.threshold;
+	}
+
+	/**
+	 * Get the weight vector of a linear model.
+	 * @return Weights indexed by feature id, or null for other kernels
+	 */
+	public double[] getWeights(){
+		return this.weights;
+	}
+
+	/**
+	 * Classify a single example.
+	 * @param dense Feature values indexed by feature id, with length getHighestFeature()+1
+	 * @param squareSum Sum of squared values of all the features in the example, including those above getHighestFeature(). Only used by the RBF kernel.
+	 * @return The decision value, in the same form as svm_classify
+	 */
+	public double classify(double[] dense, double squareSum){
+		double score = 0.0;
+		if(kernelType == KERNEL_LINEAR){
+			for(int id = 1; id < weights.length; id++)
+				score += weights[id] * dense[id];
+			return score - threshold;
+		}
+
+		for(int i = 0; i < alphas.length; i++){
+			double dot = 0.0;
+			int[] ids = svIds[i];
+			double[] values = svValues[i];
+			for(int j = 0; j < ids.length; j++)
+				dot += values[j] * dense[ids[j]];
+
+			double kernel;
+			if(kernelType == KERNEL_POLYNOMIAL)
+				kernel = Math.pow(coefLin * dot + coefConst, degree);
+			else if(kernelType == KERNEL_RBF)
+				kernel = Math.exp(-gamma * (svSquareSums[i] - 2.0 * dot + squareSum));
+			else
+				kernel = Math.tanh(coefLin * dot + coefConst);
+			score += alphas[i] * kernel;
+		}
+		return score - threshold;
+	}
+
+	/**
+	 * Classify all the examples in an SVM input file and write one decision value per line.
+	 * The file is read in chunks that are scored in parallel and written in the original order.
+	 * @param testFile Input file, in the text or binary format of SVMLightReader
+	 * @param predictionsFile Output file
+	 * @param append Whether to append to an existing output file
+	 * @param numThreads Number of threads
+	 */
+	public void classify(String testFile, String predictionsFile, boolean append, int numThreads){
+		BlockingQueue<Runnable> queue = new LinkedBlockingQueue<Runnable>();
+		LinkedList<Future<?>> futures = new LinkedList<Future<?>>();
+		LinkedList<SVMClassifyTask> tasks = new LinkedList<SVMClassifyTask>();
+		LinkedList<SVMLightChunk> freeChunks = new LinkedList<SVMLightChunk>();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(numThreads, numThreads, 30, TimeUnit.SECONDS, queue);
+		int maxChunks = numThreads * 2;
+
+		SVMLightReader reader = new SVMLightReader(testFile);
+		SVMLightWriter writer = SVMLightWriter.open(predictionsFile, false, append);
+		try{
+			boolean hasNext = true;
+			while(hasNext || !tasks.isEmpty()){
+				while(hasNext && tasks.size() < maxChunks){
+					SVMLightChunk chunk = freeChunks.isEmpty()?new SVMLightChunk():freeChunks.removeFirst();
+					if(reader.read(chunk, CHUNK_SIZE) < CHUNK_SIZE)
+						hasNext = false;
+					if(chunk.size() == 0)
+						break;
+					SVMClassifyTask task = new SVMClassifyTask(this, chunk);
+					tasks.add(task);
+					futures.add(executor.submit(task));
+				}
+				if(tasks.isEmpty())
+					break;
+
+				// Writing the oldest chunk
+				futures.removeFirst().get();
+				SVMClassifyTask task = tasks.removeFirst();
+				for(double score : task.scores)
+					writer.writeValue(score);
+				freeChunks.add(task.chunk);
+			}
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			reader.close();
+			writer.close();
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,202 @@
+package sem.util;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A sparse vector stored as primitive arrays.
+ * The feature ids are kept in ascending order, which allows two vectors to be compared with a single merge over their features.
+ * Values that are expensive to calculate for every comparison (e.g. the logarithms of the weights) are calculated once per vector and reused.
+ */
+public class SparseVector {
+	private int[] ids;
+	private double[] values;
+	private volatile double[] logValues;
+	private volatile double[] positivePrefixSums;
+	private volatile boolean hasStatistics;
+	private double squareSum, sum, positiveSum;
+	private int nonZeroCount;
+
+	/**
+	 * Create a new sparse vector.
+	 * @param ids Feature ids, need to be in strictly ascending order
+	 * @param values Feature values, in the same order as the ids
+	 */
+	public SparseVector(int[] ids, double[] values){
+		if(ids == null || values == null)
+			throw new IllegalArgumentException("Ids and values cannot be null");
+		if(ids.length != values.length)
+			throw new IllegalArgumentException("Mismatching number of ids and values: " + ids.length + " " + values.length);
+		for(int i = 1; i < ids.length; i++)
+			if(ids[i-1] >= ids[i])
+				throw new IllegalArgumentException("Ids need to be in strictly ascending order");
+		this.ids = ids;
+		this.values = values;
+		this.logValues = null;
+		this.positivePrefixSums = null;
+		this.hasStatistics = false;
+	}
+
+	/**
+	 * Create a sparse vector from a map of feature ids and values.
+	 * @param map Input vector
+	 * @return New sparse vector
+	 */
+	public static SparseVector create(Map<Integer,Double> map){
+		int[] ids = new int[map.size()];
+		int i = 0;
+		for(Integer id : map.keySet())
+			ids[i++] = id;
+		Arrays.sort(ids);
+
+		double[] values = new double[ids.length];
+		for(i = 0; i < ids.length; i++)
+			values[i] = map.get(ids[i]);
+		return new SparseVector(ids, values);
+	}
+
+	/**
+	 * Get the number of features in the vector.
+	 * @return Number of stored features
+	 */
+	public int size(){
+		return this.ids.length;
+	}
+
+	/**
+	 * Get the feature ids. The array should not be modified.
+	 * @return Feature ids in ascending order
+	 */
+	public int[] getIds(){
+		return this.ids;
+	}
+
+	/**
+	 * Get the feature values. The array should not be modified.
+	 * @return Feature values, in the same order as getIds()
+	 */
+	public double[] getValues(){
+		return this.values;
+	}
+
+	/**
+	 * Get the natural logarithms of the feature values. They are calculated on first access and then reused.
+	 * Non-positive values do not have a logarithm, their positions contain 0.0 and should not be used.
+	 * @return Logarithms of the values, in the same order as getIds()
+	 */
+	public double[] getLogValues(){
+		double[] tempLogValues = this.logValues;
+		if(tempLogValues == null){
+			tempLogValues = new double[this.values.length];
+			for(int i = 0; i < this.values.length; i++)
+				tempLogValues[i] = (this.values[i] > 0.0)?Math.log(this.values[i]):0.0;
+			this.logValues = tempLogValues;
+		}
+		return tempLogValues;
+	}
+
+	/**
+	 * Get the cumulative sums of the positive values, in descending order of the values.
+	 * Position k contains the sum of the k largest positive values, so any k features of this vector can have a positive weight of at most that value.
+	 * They are calculated on first access and then reused.
+	 * @return Array of length (number of positive values + 1), starting with 0.0
+	 */
+	public double[] getPositivePrefixSums(){
+		double[] tempPrefixSums = this.positivePrefixSums;
+		if(tempPrefixSums == null){
+			int count = 0;
+			for(int i = 0; i < this.values.length; i++)
+				if(this.values[i] > 0.0)
+					count++;
+			double[] positiveValues = new double[count];
+			count = 0;
+			for(int i = 0; i < this.values.length; i++)
+				if(this.values[i] > 0.0)
+					positiveValues[count++] = this.values[i];
+			Arrays.sort(positiveValues);
+
+			tempPrefixSums = new double[count + 1];
+			for(int i = 0; i < count; i++)
+				tempPrefixSums[i+1] = tempPrefixSums[i] + positiveValues[count - i - 1];
+			this.positivePrefixSums = tempPrefixSums;
+		}
+		return tempPrefixSums;
+	}
+
+	/**
+	 * Calculate the per-vector statistics in a single pass. They are reused in every comparison that involves this vector.
+	 */
+	private void calculateStatistics(){
+		if(this.hasStatistics)
+			return;
+		synchronized(this){
+			if(this.hasStatistics)
+				return;
+			for(int i = 0; i < this.values.length; i++){
+				this.squareSum += this.values[i] * this.values[i];
+				this.sum += this.values[i];
+				if(this.values[i] > 0.0)
+					this.positiveSum += this.values[i];
+				if(this.values[i] != 0.0)
+					this.nonZeroCount++;
+			}
+			this.hasStatistics = true;
+		}
+	}
+
+	/**
+	 * Get the Euclidean length of the vector.
+	 * @return Square root of the sum of squared values
+	 */
+	public double getNorm(){
+		return Math.sqrt(getSquareSum());
+	}
+
+	/**
+	 * Get the sum of squared values.
+	 * @return Sum of squared values
+	 */
+	public double getSquareSum(){
+		calculateStatistics();
+		return this.squareSum;
+	}
+
+	/**
+	 * Get the sum of all the values.
+	 * @return Sum of values
+	 */
+	public double getSum(){
+		calculateStatistics();
+		return this.sum;
+	}
+
+	/**
+	 * Get the sum of the positive values.
+	 * @return Sum of values greater than 0.0
+	 */
+	public double getPositiveSum(){
+		calculateStatistics();
+		return this.positiveSum;
+	}
+
+	/**
+	 * Get the number of features with a nonzero value.
+	 * @return Number of nonzero values
+	 */
+	public int getNonZeroCount(){
+		calculateStatistics();
+		return this.nonZeroCount;
+	}
+
+	/**
+	 * Convert the vector back to a map.
+	 * @return Map of feature ids and values, in ascending order of the ids
+	 */
+	public LinkedHashMap<Integer,Double> toMap(){
+		LinkedHashMap<Integer,Double> map = new LinkedHashMap<Integer,Double>();
+		for(int i = 0; i < this.ids.length; i++)
+			map.put(this.ids[i], this.values[i]);
+		return map;
+	}
+}